@@ -0,0 +1,585 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/** Timing harness for gitlet's storage code, invoked as
+ *      java gitlet.Benchmark NAME [FILE...]
+ *  Each benchmark runs in a scratch repository in the system temporary
+ *  directory and prints one row per configuration. FILEs, if given, are
+ *  used as input instead of generated data.
+ *
+ *      compression   store and read back objects at each deflate level.
+ *      chunking      store successive lightly edited revisions of each
+ *                    input whole and chunked.
+ *      codec         encode and decode the gitlet object with Java
+ *                    serialization and with Codec (FILEs are ignored).
+ *      trees         commit one-file changes on top of large snapshots
+ *                    (FILEs are ignored).
+ *      manifest      heap taken by the files of loaded commits, as
+ *                    HashMaps and as Manifests (FILEs are ignored).
+ *      scan          hash a working tree of small files, as status does
+ *                    after a mass touch, on 1 to NPROC threads (FILEs
+ *                    are ignored).
+ *      checkout      write a working tree of small files from blobs,
+ *                    as a checkout does, on 1 to NPROC threads (FILEs
+ *                    are ignored).
+ *      refs          create and delete one branch among 10 to 10000
+ *                    loose or packed branches (FILEs are ignored).
+ *
+ *  @author Solomon Cheung
+ */
+public class Benchmark {
+
+    /** times each measurement is repeated; the best time is reported. */
+    private static final int ROUNDS = 3;
+
+    /** size of each generated input file. */
+    private static final int GENERATED_SIZE = 16 * 1024 * 1024;
+
+    /** Run the benchmark named by ARGS[0] on the files in the rest of
+     *  ARGS. */
+    public static void main(String... args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("usage: java gitlet.Benchmark NAME [FILE...]");
+            return;
+        }
+        File repo = Files.createTempDirectory("gitlet-bench").toFile();
+        String userDir = System.getProperty("user.dir");
+        List<File> inputs = new ArrayList<>();
+        for (int i = 1; i < args.length; i += 1) {
+            inputs.add(new File(args[i]).getAbsoluteFile());
+        }
+        try {
+            System.setProperty("user.dir", repo.getPath());
+            new File(repo, Gitlet.ABS_BLOB_FOLDER).mkdirs();
+            new File(repo, Gitlet.ABS_COMMIT_FOLDER).mkdirs();
+            new File(repo, Gitlet.ABS_CHUNK_FOLDER).mkdirs();
+            new File(repo, Gitlet.ABS_TREE_FOLDER).mkdirs();
+            if (inputs.isEmpty() && !args[0].equals("codec")
+                && !args[0].equals("trees")
+                && !args[0].equals("manifest")
+                && !args[0].equals("scan")
+                && !args[0].equals("refs")
+                && !args[0].equals("checkout")) {
+                inputs = generateInputs(repo);
+            }
+            switch (args[0]) {
+            case "compression":
+                compression(repo, inputs);
+                break;
+            case "chunking":
+                chunking(repo, inputs);
+                break;
+            case "codec":
+                codec();
+                break;
+            case "trees":
+                trees(repo);
+                break;
+            case "manifest":
+                manifest();
+                break;
+            case "scan":
+                scan(repo);
+                break;
+            case "refs":
+                refs(repo);
+                break;
+            case "checkout":
+                checkout();
+                break;
+            default:
+                System.out.println("No benchmark with that name exists.");
+            }
+        } finally {
+            System.setProperty("user.dir", userDir);
+            deleteTree(repo);
+        }
+    }
+
+    /** Store every file in INPUTS into the blob folder of REPO, then
+     *  write it back out, at each deflate level. Prints throughput of
+     *  both directions and the ratio of stored to original size. */
+    static void compression(File repo, List<File> inputs) {
+        long total = 0;
+        for (File input : inputs) {
+            total += input.length();
+        }
+        File out = new File(repo, "out");
+        System.out.printf("%d input file(s), %.1f MB%n",
+            inputs.size(), total / 1e6);
+        System.out.printf("%-6s %12s %12s %8s%n",
+            "level", "write MB/s", "read MB/s", "ratio");
+        ObjectStore.setChunkThreshold(0);
+        for (int level = 0; level <= 9; level += 1) {
+            ObjectStore.setCompressionLevel(level);
+            long bestWrite = Long.MAX_VALUE;
+            long bestRead = Long.MAX_VALUE;
+            long stored = 0;
+            for (int round = 0; round < ROUNDS; round += 1) {
+                clearFolder(new File(repo, Gitlet.ABS_BLOB_FOLDER));
+                List<String> ids = new ArrayList<>();
+                long start = System.nanoTime();
+                for (File input : inputs) {
+                    ids.add(ObjectStore.store(Gitlet.ABS_BLOB_FOLDER, input));
+                }
+                bestWrite = Math.min(bestWrite, System.nanoTime() - start);
+                start = System.nanoTime();
+                for (String id : ids) {
+                    ObjectStore.copyTo(Gitlet.ABS_BLOB_FOLDER, id, out);
+                }
+                bestRead = Math.min(bestRead, System.nanoTime() - start);
+                stored = folderSize(new File(repo, Gitlet.ABS_BLOB_FOLDER));
+            }
+            System.out.printf("%-6d %12.1f %12.1f %8.3f%n", level,
+                rate(total, bestWrite), rate(total, bestRead),
+                (double) stored / total);
+        }
+    }
+
+    /** Store REVISIONS revisions of every file in INPUTS, each with a
+     *  few bytes inserted at a random place in the previous one, first
+     *  as whole objects and then chunked. Prints the throughput of
+     *  storing and the ratio of stored bytes to the bytes of all the
+     *  revisions. */
+    static void chunking(File repo, List<File> inputs) throws IOException {
+        final int revisions = 8;
+        Random random = new Random(61);
+        List<File> files = new ArrayList<>();
+        long total = 0;
+        for (File input : inputs) {
+            byte[] contents = Files.readAllBytes(input.toPath());
+            for (int r = 0; r < revisions; r += 1) {
+                int at = random.nextInt(contents.length + 1);
+                byte[] edit = new byte[1 + random.nextInt(16)];
+                random.nextBytes(edit);
+                byte[] next = new byte[contents.length + edit.length];
+                System.arraycopy(contents, 0, next, 0, at);
+                System.arraycopy(edit, 0, next, at, edit.length);
+                System.arraycopy(contents, at, next, at + edit.length,
+                    contents.length - at);
+                contents = next;
+                File file = new File(repo, input.getName() + "." + r);
+                Files.write(file.toPath(), contents);
+                files.add(file);
+                total += contents.length;
+            }
+        }
+        System.out.printf("%d revision(s) of %d input file(s), %.1f MB%n",
+            revisions, inputs.size(), total / 1e6);
+        System.out.printf("%-8s %12s %8s%n", "mode", "write MB/s", "ratio");
+        ObjectStore.setCompressionLevel(0);
+        for (boolean chunked : new boolean[] {false, true}) {
+            ObjectStore.setChunkThreshold(chunked ? 1 : 0);
+            long best = Long.MAX_VALUE;
+            long stored = 0;
+            for (int round = 0; round < ROUNDS; round += 1) {
+                clearFolder(new File(repo, Gitlet.ABS_BLOB_FOLDER));
+                clearFolder(new File(repo, Gitlet.ABS_CHUNK_FOLDER));
+                long start = System.nanoTime();
+                for (File file : files) {
+                    ObjectStore.store(Gitlet.ABS_BLOB_FOLDER, file);
+                }
+                best = Math.min(best, System.nanoTime() - start);
+                stored = folderSize(new File(repo, Gitlet.ABS_BLOB_FOLDER))
+                    + folderSize(new File(repo, Gitlet.ABS_CHUNK_FOLDER));
+            }
+            System.out.printf("%-8s %12.1f %8.3f%n",
+                chunked ? "chunked" : "whole", rate(total, best),
+                (double) stored / total);
+        }
+    }
+
+    /** Encode and decode the gitlet object with 10, 1000 and 100000
+     *  staged files, with Java serialization and with Codec. Prints the
+     *  encoded size and the number of encodes and decodes per second of
+     *  each. */
+    static void codec() {
+        System.out.printf("%-8s %-6s %12s %12s %12s%n",
+            "files", "format", "bytes", "encode/s", "decode/s");
+        Random random = new Random(61);
+        for (int files : new int[] {10, 1000, 100000}) {
+            Gitlet state = new Gitlet();
+            Gitlet.Branch master = new Gitlet.Branch("master",
+                Utils.sha1("head"));
+            state.addBranch(master);
+            state.setHeadBranch(master);
+            for (int i = 0; i < files; i += 1) {
+                state.getStagingArea().stage(String.format(
+                    "src/module%03d/File%05d.java", i % 100, i),
+                    Utils.sha1(Integer.toString(i)));
+            }
+            int reps = Math.max(10, 200000 / files);
+            byte[] java = Utils.serialize(state);
+            long javaEncode = time(reps, () -> Utils.serialize(state));
+            long javaDecode = time(reps, () -> {
+                try (java.io.ObjectInputStream in =
+                         new java.io.ObjectInputStream(
+                             new java.io.ByteArrayInputStream(java))) {
+                    in.readObject();
+                } catch (IOException | ClassNotFoundException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            });
+            byte[] codec = state.encode();
+            long codecEncode = time(reps, state::encode);
+            long codecDecode = time(reps, () -> Gitlet.decode(codec));
+            System.out.printf("%-8d %-6s %12d %12.0f %12.0f%n", files,
+                "java", java.length, reps / (javaEncode / 1e9),
+                reps / (javaDecode / 1e9));
+            System.out.printf("%-8d %-6s %12d %12.0f %12.0f%n", files,
+                "codec", codec.length, reps / (codecEncode / 1e9),
+                reps / (codecDecode / 1e9));
+        }
+    }
+
+    /** Commit a snapshot of 1000, 10000 and 200000 files in
+     *  directories of 200, then some commits that each change one file.
+     *  Prints the bytes a commit listing every file would take, the
+     *  bytes of the commit and Trees written for the snapshot, and the
+     *  bytes written and milliseconds taken per later commit. */
+    static void trees(File repo) {
+        final int commits = 50;
+        System.setProperty("gitlet.durability", Durability.NONE);
+        System.out.printf("%-8s %12s %12s %12s %10s%n", "files",
+            "flat bytes", "first bytes", "bytes/commit", "ms/commit");
+        Random random = new Random(61);
+        for (int files : new int[] {1000, 10000, 200000}) {
+            clearFolder(new File(repo, Gitlet.ABS_COMMIT_FOLDER));
+            clearFolder(new File(repo, Gitlet.ABS_TREE_FOLDER));
+            new File(repo, Gitlet.GITLET_FOLDER + "/"
+                + CommitIndex.INDEX_FILENAME).delete();
+            List<String> names = new ArrayList<>();
+            java.util.HashMap<String, String> tracked =
+                snapshot(files, names);
+            Codec.Output flat = new Codec.Output(Codec.COMMIT);
+            String previous = "";
+            for (String name : names) {
+                flat.writeKey(previous, name);
+                flat.writeId(tracked.get(name));
+                previous = name;
+            }
+            Gitlet.Commit parent = Gitlet.Commit.restore("snapshot",
+                new java.sql.Timestamp(0), List.of(), tracked);
+            parent.save();
+            long first = storedSize(repo);
+            long start = System.nanoTime();
+            for (int c = 0; c < commits; c += 1) {
+                Gitlet.Commit next = new Gitlet.Commit("edit", parent);
+                next.setTimestamp(new java.sql.Timestamp(c + 1));
+                next.trackFile(names.get(random.nextInt(files)),
+                    Utils.sha1("edit", Integer.toString(c)));
+                next.save();
+                parent = next;
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.printf("%-8d %12d %12d %12d %10.2f%n", files,
+                flat.toByteArray().length, first,
+                (storedSize(repo) - first) / commits,
+                nanos / 1e6 / commits);
+        }
+    }
+
+    /** Load the files of COPIES commits of snapshots of 10000 and
+     *  200000 files, first into HashMaps of hex ids as commits used to
+     *  hold them and then as Manifests. Prints the heap taken per file
+     *  of each copy and the rate of lookups of random files. */
+    static void manifest() {
+        final int copies = 10;
+        final int lookups = 1000000;
+        System.setProperty("gitlet.durability", Durability.NONE);
+        System.out.printf("%-8s %-9s %12s %12s%n", "files", "format",
+            "bytes/file", "lookups/s");
+        for (int files : new int[] {10000, 200000}) {
+            List<String> names = new ArrayList<>();
+            String root = Tree.write(snapshot(files, names));
+            for (boolean compact : new boolean[] {false, true}) {
+                long before = usedHeap();
+                List<java.util.Map<String, String>> loaded =
+                    new ArrayList<>();
+                for (int c = 0; c < copies; c += 1) {
+                    Manifest manifest = Tree.flatten(root);
+                    if (compact) {
+                        loaded.add(manifest);
+                    } else {
+                        java.util.HashMap<String, String> map =
+                            new java.util.HashMap<>();
+                        manifest.forEach((path, id) -> map.put(
+                            String.valueOf(path.toCharArray()), id));
+                        loaded.add(map);
+                    }
+                }
+                long heap = usedHeap() - before;
+                Random random = new Random(61);
+                long start = System.nanoTime();
+                int found = 0;
+                for (int i = 0; i < lookups; i += 1) {
+                    if (loaded.get(i % copies).get(
+                            names.get(random.nextInt(files))) != null) {
+                        found += 1;
+                    }
+                }
+                long nanos = System.nanoTime() - start;
+                System.out.printf("%-8d %-9s %12d %12.0f%n", files,
+                    compact ? "manifest" : "hashmap",
+                    heap / copies / files, found / (nanos / 1e9));
+                java.lang.ref.Reference.reachabilityFence(loaded);
+            }
+        }
+    }
+
+    /** Write 20000 files of 4 KB in directories of 200 into REPO and
+     *  look up their blob ids through WorkTree with the stat cache off,
+     *  so that every file is read and hashed, on 1, 2, 4, ... up to the
+     *  number of processors threads. Prints files hashed per second. */
+    static void scan(File repo) throws IOException {
+        final int files = 20000;
+        System.setProperty("gitlet.statCache", "false");
+        List<String> names = new ArrayList<>();
+        Random random = new Random(61);
+        byte[] data = new byte[4096];
+        for (int i = 0; i < files; i += 1) {
+            String name = String.format("work/d%03d/f%05d.txt", i / 200, i);
+            File file = new File(repo, name);
+            file.getParentFile().mkdirs();
+            random.nextBytes(data);
+            Files.write(file.toPath(), data);
+            names.add(name);
+        }
+        int nproc = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%-8s %12s%n", "threads", "files/s");
+        for (int threads = 1; threads <= nproc;
+             threads = threads < nproc ? Math.min(2 * threads, nproc)
+                 : threads + 1) {
+            System.setProperty("gitlet.threads", Integer.toString(threads));
+            long nanos = time(1, () -> WorkTree.hash(names));
+            System.out.printf("%-8d %12.0f%n", threads,
+                files / (nanos / 1e9));
+        }
+        System.clearProperty("gitlet.threads");
+        System.clearProperty("gitlet.statCache");
+    }
+
+    /** Store 20000 compressible 4 KB blobs and write them all out as
+     *  working files through the Materializer, on 1 up to NPROC
+     *  threads, then 32 4 MB blobs in each checkout mode. Prints files
+     *  and MB written per second. */
+    static void checkout() {
+        final int files = 20000;
+        System.setProperty("gitlet.durability", Durability.NONE);
+        System.setProperty("gitlet.statCache", "false");
+        java.util.TreeMap<String, Materializer.Change> changes =
+            new java.util.TreeMap<>();
+        Random random = new Random(61);
+        long total = 0;
+        for (int i = 0; i < files; i += 1) {
+            StringBuilder text = new StringBuilder();
+            while (text.length() < 4096) {
+                text.append(String.format("line %d of file %d: %d%n",
+                    text.length(), i, random.nextInt(1000)));
+            }
+            byte[] contents = text.toString()
+                .getBytes(StandardCharsets.UTF_8);
+            String id = Utils.sha1(contents);
+            ObjectStore.store(Gitlet.ABS_BLOB_FOLDER, id, contents);
+            changes.put(String.format("work/d%03d/f%05d.txt", i / 200, i),
+                new Materializer.Change("", id));
+            total += contents.length;
+        }
+        Durability.commit();
+        int nproc = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%-8s %12s %12s%n", "threads", "files/s", "MB/s");
+        for (int threads = 1; threads <= nproc;
+             threads = threads < nproc ? Math.min(2 * threads, nproc)
+                 : threads + 1) {
+            System.setProperty("gitlet.threads", Integer.toString(threads));
+            long nanos = time(1, () -> Materializer.apply(changes, false));
+            System.out.printf("%-8d %12.0f %12.1f%n", threads,
+                files / (nanos / 1e9), rate(total, nanos));
+        }
+        System.clearProperty("gitlet.threads");
+
+        final int large = 32;
+        System.out.printf("%n%-8s %12s %12s%n", "mode", "files/s", "MB/s");
+        for (String mode : new String[] {ObjectStore.COPY,
+                 ObjectStore.REFLINK, ObjectStore.HARDLINK}) {
+            ObjectStore.setCheckoutMode(mode);
+            changes.clear();
+            total = 0;
+            for (int i = 0; i < large; i += 1) {
+                byte[] contents = new byte[4 << 20];
+                random.nextBytes(contents);
+                String id = Utils.sha1(contents);
+                ObjectStore.store(Gitlet.ABS_BLOB_FOLDER, id, contents);
+                changes.put(String.format("%s/f%02d.bin", mode, i),
+                    new Materializer.Change("", id));
+                total += contents.length;
+            }
+            Durability.commit();
+            long nanos = time(1, () -> Materializer.apply(changes, false));
+            System.out.printf("%-8s %12.0f %12.1f%n", mode,
+                large / (nanos / 1e9), rate(total, nanos));
+        }
+        ObjectStore.setCheckoutMode(ObjectStore.COPY);
+        System.clearProperty("gitlet.statCache");
+        System.clearProperty("gitlet.durability");
+    }
+
+    /** Create 10, 1000 and 10000 branches in one Refs.Transaction,
+     *  loose and then packed, and time creating and deleting one more
+     *  branch. Prints the microseconds each create and delete took. */
+    static void refs(File repo) {
+        final int reps = 200;
+        System.setProperty("gitlet.durability", Durability.NONE);
+        System.out.printf("%-8s %-6s %12s %12s%n", "branches", "refs",
+            "create us", "delete us");
+        String id = Utils.sha1("head");
+        for (int branches : new int[] {10, 1000, 10000}) {
+            for (boolean packed : new boolean[] {false, true}) {
+                File dir = new File(repo, branches + (packed ? "p" : "l"));
+                new File(dir, Gitlet.GITLET_FOLDER).mkdirs();
+                System.setProperty("user.dir", dir.getPath());
+                Refs.pack();
+                Refs.Transaction all = new Refs.Transaction();
+                for (int i = 0; i < branches; i += 1) {
+                    all.update(String.format("team%02d/b%05d", i % 50, i),
+                        null, id);
+                }
+                all.commit();
+                if (packed) {
+                    Refs.pack();
+                }
+                long[] nanos = new long[2];
+                for (int i = 0; i < reps; i += 1) {
+                    String name = "ci/run" + i;
+                    long start = System.nanoTime();
+                    Refs.Transaction create = new Refs.Transaction();
+                    create.update(name, null, id);
+                    create.commit();
+                    long mid = System.nanoTime();
+                    Refs.Transaction delete = new Refs.Transaction();
+                    delete.delete(name);
+                    delete.commit();
+                    nanos[0] += mid - start;
+                    nanos[1] += System.nanoTime() - mid;
+                }
+                System.out.printf("%-8d %-6s %12.1f %12.1f%n", branches,
+                    packed ? "packed" : "loose", nanos[0] / 1e3 / reps,
+                    nanos[1] / 1e3 / reps);
+            }
+        }
+        System.setProperty("user.dir", repo.getPath());
+        System.clearProperty("gitlet.durability");
+    }
+
+    /** Return a snapshot of FILES files in directories of 200, adding
+     *  their paths to NAMES in order. */
+    static java.util.HashMap<String, String> snapshot(int files,
+        List<String> names) {
+        java.util.HashMap<String, String> tracked =
+            new java.util.HashMap<>();
+        for (int i = 0; i < files; i += 1) {
+            String name = String.format(
+                "src/module%03d/pkg%02d/File%06d.java",
+                i / 200 / 20, i / 200 % 20, i);
+            names.add(name);
+            tracked.put(name, Utils.sha1(Integer.toString(i)));
+        }
+        return tracked;
+    }
+
+    /** Return the bytes of heap in use after collecting garbage. */
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i += 1) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /** Return the size of the commits and Trees stored in REPO. */
+    static long storedSize(File repo) {
+        return folderSize(new File(repo, Gitlet.ABS_COMMIT_FOLDER))
+            + folderSize(new File(repo, Gitlet.ABS_TREE_FOLDER));
+    }
+
+    /** Return the best time in nanoseconds, over ROUNDS rounds after
+     *  one to warm up, of running ACTION REPS times. */
+    static long time(int reps, Runnable action) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round <= ROUNDS; round += 1) {
+            long start = System.nanoTime();
+            for (int i = 0; i < reps; i += 1) {
+                action.run();
+            }
+            if (round > 0) {
+                best = Math.min(best, System.nanoTime() - start);
+            }
+        }
+        return best;
+    }
+
+    /** Return the throughput in MB/s of moving BYTES in NANOS. */
+    static double rate(long bytes, long nanos) {
+        return bytes / 1e6 / (nanos / 1e9);
+    }
+
+    /** Write generated inputs into REPO and return them: line-oriented
+     *  text resembling configuration files, and random bytes. */
+    static List<File> generateInputs(File repo) throws IOException {
+        Random random = new Random(61);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < GENERATED_SIZE) {
+            text.append(String.format("service.%d.host = node-%03d.local%n",
+                random.nextInt(500), random.nextInt(1000)));
+            text.append(String.format("service.%d.timeout_ms = %d%n",
+                random.nextInt(500), random.nextInt(100000)));
+        }
+        File textFile = new File(repo, "text.cfg");
+        Files.write(textFile.toPath(),
+            text.toString().getBytes(StandardCharsets.UTF_8));
+        byte[] noise = new byte[GENERATED_SIZE];
+        random.nextBytes(noise);
+        File noiseFile = new File(repo, "noise.bin");
+        Files.write(noiseFile.toPath(), noise);
+        return List.of(textFile, noiseFile);
+    }
+
+    /** Delete everything under DIR, leaving DIR itself. */
+    static void clearFolder(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteTree(file);
+            }
+        }
+    }
+
+    /** Return the total size of the files under DIR. */
+    static long folderSize(File dir) {
+        try (Stream<java.nio.file.Path> paths = Files.walk(dir.toPath())) {
+            return paths.map(java.nio.file.Path::toFile)
+                .filter(File::isFile).mapToLong(File::length).sum();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Delete DIR and everything under it. */
+    static void deleteTree(File dir) {
+        try (Stream<java.nio.file.Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder())
+                .map(java.nio.file.Path::toFile).forEach(File::delete);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package gitlet;
+
+import java.util.Random;
+
+/**
+ * Content-defined chunking (FastCDC). Splits a byte stream into chunks
+ * whose boundaries depend only on the bytes near them, so an edit to a
+ * large file changes only the chunks around the edit and every other
+ * chunk is stored once however many revisions share it.
+ *
+ * A gear hash is rolled over the bytes after the first MIN_SIZE of a
+ * chunk; a boundary is cut where its top bits are all zero. A stricter
+ * mask is used before AVG_SIZE and a looser one after it, which keeps
+ * chunk sizes close to AVG_SIZE; no chunk is longer than MAX_SIZE.
+ *
+ * @author Solomon Cheung
+ */
+class Chunker {
+
+    /** shortest chunk, except at the end of the stream. */
+    static final int MIN_SIZE = 16 * 1024;
+
+    /** typical chunk size. */
+    static final int AVG_SIZE = 64 * 1024;
+
+    /** longest chunk. */
+    static final int MAX_SIZE = 256 * 1024;
+
+    /** boundary mask used before AVG_SIZE: two bits more than AVG. */
+    private static final long MASK_SMALL = -1L << (64 - 18);
+
+    /** boundary mask used after AVG_SIZE: two bits fewer than AVG. */
+    private static final long MASK_LARGE = -1L << (64 - 14);
+
+    /** random value of each byte for the gear hash. Never change the
+     *  seed: boundaries, and so deduplication, depend on it. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * the length of the chunk that starts at OFF in BUF, where LEN bytes
+     * of the stream remain in BUF. Unless LEN is the rest of the stream
+     * it must be at least MAX_SIZE.
+     * @param buf bytes
+     * @param off start of the chunk
+     * @param len bytes available
+     * @return chunk length, in [1, min(LEN, MAX_SIZE)]
+     */
+    static int cut(byte[] buf, int off, int len) {
+        int n = Math.min(len, MAX_SIZE);
+        if (n <= MIN_SIZE) {
+            return n;
+        }
+        int normal = Math.min(AVG_SIZE, n);
+        long fp = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            fp = (fp << 1) + GEAR[buf[off + i] & 0xff];
+            if ((fp & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < n; i += 1) {
+            fp = (fp << 1) + GEAR[buf[off + i] & 0xff];
+            if ((fp & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return n;
+    }
+}
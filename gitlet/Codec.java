@@ -0,0 +1,384 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The binary encoding of repository state and commits.
+ *
+ * An encoded value starts with MAGIC, a VERSION byte and a type byte
+ * (STATE, COMMIT, MERGE, TREE, INDEX, MONITOR, UNTRACKED, JOURNAL,
+ * CHECKOUT or LEGACY_PARENTS); Gitlet#encode, Commit#encode, Tree#encode,
+ * StatCache#save, Monitor#save, UntrackedCache#save, StateJournal,
+ * Materializer and Legacy write the rest with the primitives here. Counts and lengths are varints (7 bits
+ * per byte, low group first), strings are a varint length and UTF-8
+ * bytes, and object ids are their 20 raw bytes. Maps are written sorted
+ * by key, each key as the length of the prefix it shares with the key
+ * before it and the rest of the key.
+ *
+ * Repositories written before this encoding hold Java-serialized
+ * objects, which start with STREAM_MAGIC; those are read by Legacy.
+ *
+ * @author Solomon Cheung
+ */
+class Codec {
+
+    /** first bytes of every encoded value. */
+    static final byte[] MAGIC = {'G', 'L'};
+
+    /** current format version. Version 1 commits hold their tracked
+     *  files; version 2 commits hold the id of a Tree instead. */
+    static final int VERSION = 2;
+
+    /** type: the Gitlet object. */
+    static final int STATE = 0;
+
+    /** type: a commit with at most one parent. */
+    static final int COMMIT = 1;
+
+    /** type: a merge commit. */
+    static final int MERGE = 2;
+
+    /** type: a Tree. */
+    static final int TREE = 3;
+
+    /** type: the StatCache index. */
+    static final int INDEX = 4;
+
+    /** type: the token of the last Monitor query. */
+    static final int MONITOR = 5;
+
+    /** type: the UntrackedCache list. */
+    static final int UNTRACKED = 6;
+
+    /** type: the StateJournal. */
+    static final int JOURNAL = 7;
+
+    /** type: the Materializer's record of a checkout in progress. */
+    static final int CHECKOUT = 8;
+
+    /** type: the parent ids Legacy found for original-shape commits. */
+    static final int LEGACY_PARENTS = 9;
+
+    /** first bytes of a Java serialization stream. */
+    private static final byte[] STREAM_MAGIC = {(byte) 0xac, (byte) 0xed};
+
+    /**
+     * is BYTES in the Java serialization format of older versions?
+     * @param bytes encoded value
+     * @return true if Legacy must read it
+     */
+    static boolean isLegacy(byte[] bytes) {
+        return bytes.length >= 2 && bytes[0] == STREAM_MAGIC[0]
+            && bytes[1] == STREAM_MAGIC[1];
+    }
+
+    /**
+     * a buffer that a value is encoded into.
+     */
+    static class Output {
+
+        /** the encoded bytes, followed by unused space. */
+        private byte[] _buf = new byte[256];
+
+        /** number of bytes encoded. */
+        private int _size;
+
+        /**
+         * start encoding a fragment of a value, without a header.
+         */
+        Output() {
+        }
+
+        /**
+         * start encoding a value of type TYPE.
+         * @param type STATE, COMMIT, MERGE, TREE, INDEX, MONITOR,
+         *         UNTRACKED, JOURNAL, CHECKOUT or LEGACY_PARENTS
+         */
+        Output(int type) {
+            write(MAGIC, 0, MAGIC.length);
+            write(VERSION);
+            write(type);
+        }
+
+        /**
+         * the encoded bytes.
+         * @return a copy of the buffer's contents
+         */
+        byte[] toByteArray() {
+            return Arrays.copyOf(_buf, _size);
+        }
+
+        /**
+         * append the byte B.
+         * @param b byte, in its low 8 bits
+         */
+        void write(int b) {
+            reserve(1);
+            _buf[_size] = (byte) b;
+            _size += 1;
+        }
+
+        /**
+         * append LEN bytes of B from OFF.
+         * @param b bytes
+         * @param off start
+         * @param len number of bytes
+         */
+        void write(byte[] b, int off, int len) {
+            reserve(len);
+            System.arraycopy(b, off, _buf, _size, len);
+            _size += len;
+        }
+
+        /**
+         * make room for N more bytes.
+         * @param n number of bytes
+         */
+        private void reserve(int n) {
+            if (_size + n > _buf.length) {
+                _buf = Arrays.copyOf(_buf,
+                    Math.max(_size + n, 2 * _buf.length));
+            }
+        }
+
+        /**
+         * write the non-negative V as a varint.
+         * @param v value
+         */
+        void writeVarint(long v) {
+            reserve(10);
+            while ((v & ~0x7fL) != 0) {
+                _buf[_size] = (byte) ((v & 0x7f) | 0x80);
+                _size += 1;
+                v >>>= 7;
+            }
+            _buf[_size] = (byte) v;
+            _size += 1;
+        }
+
+        /**
+         * write V, which may be negative, as a zigzag varint.
+         * @param v value
+         */
+        void writeSignedVarint(long v) {
+            writeVarint((v << 1) ^ (v >> 63));
+        }
+
+        /**
+         * write S as a varint length and UTF-8 bytes.
+         * @param s string
+         */
+        void writeString(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(b.length);
+            write(b, 0, b.length);
+        }
+
+        /**
+         * write the hex object id ID as its raw bytes.
+         * @param id full hex id
+         * @throws GitletException ID is not an object id.
+         */
+        void writeId(String id) {
+            if (id.length() != 2 * Pack.ID_LENGTH) {
+                throw Utils.error("Cannot encode object id: %s", id);
+            }
+            reserve(Pack.ID_LENGTH);
+            for (int i = 0; i < Pack.ID_LENGTH; i += 1) {
+                int hi = Character.digit(id.charAt(2 * i), 16);
+                int lo = Character.digit(id.charAt(2 * i + 1), 16);
+                if (hi < 0 || lo < 0) {
+                    throw Utils.error("Cannot encode object id: %s", id);
+                }
+                _buf[_size + i] = (byte) (hi << 4 | lo);
+            }
+            _size += Pack.ID_LENGTH;
+        }
+
+        /**
+         * write KEY, the key of a sorted map that follows PREVIOUS, as
+         * the number of leading chars they share and the rest of KEY.
+         * The shared part never ends inside a surrogate pair, so the
+         * rest is always a whole string. Short ASCII suffixes, the
+         * usual case, are copied straight into the buffer.
+         * @param previous key written before, "" for the first
+         * @param key key
+         */
+        void writeKey(String previous, String key) {
+            int shared = 0;
+            int max = Math.min(previous.length(), key.length());
+            while (shared < max
+                && previous.charAt(shared) == key.charAt(shared)) {
+                shared += 1;
+            }
+            if (shared > 0 && shared < key.length()
+                && Character.isLowSurrogate(key.charAt(shared))) {
+                shared -= 1;
+            }
+            writeVarint(shared);
+            int n = key.length() - shared;
+            reserve(5 + n);
+            int lengthAt = _size;
+            _size += 1;
+            for (int i = shared; i < key.length(); i += 1) {
+                char c = key.charAt(i);
+                if (c >= 0x80 || n >= 0x80) {
+                    _size = lengthAt;
+                    writeString(key.substring(shared));
+                    return;
+                }
+                _buf[_size] = (byte) c;
+                _size += 1;
+            }
+            _buf[lengthAt] = (byte) n;
+        }
+    }
+
+    /**
+     * a value being decoded.
+     */
+    static class Input {
+
+        /** the encoded value. */
+        private final byte[] _bytes;
+
+        /** position of the next byte to read. */
+        private int _pos;
+
+        /** format version of the value, set by readHeader. */
+        private int _version;
+
+        /**
+         * decode BYTES.
+         * @param bytes encoded value
+         */
+        Input(byte[] bytes) {
+            _bytes = bytes;
+        }
+
+        /**
+         * check MAGIC and the version and read the type.
+         * @return STATE, COMMIT, MERGE, TREE, INDEX, MONITOR,
+         *         UNTRACKED, JOURNAL, CHECKOUT or LEGACY_PARENTS
+         * @throws GitletException not an encoded value of a version
+         *         this one can read.
+         */
+        int readHeader() {
+            if (_bytes.length < MAGIC.length + 2 || _bytes[0] != MAGIC[0]
+                || _bytes[1] != MAGIC[1]) {
+                throw Utils.error("Not a gitlet encoded value.");
+            }
+            _pos = MAGIC.length;
+            _version = readByte();
+            if (_version > VERSION) {
+                throw Utils.error("Unsupported format version %d.",
+                    _version);
+            }
+            return readByte();
+        }
+
+        /**
+         * the format version the value was written in.
+         * @return version, from 1 to VERSION
+         */
+        int version() {
+            return _version;
+        }
+
+        /**
+         * read one unsigned byte.
+         * @return byte
+         */
+        int readByte() {
+            if (_pos >= _bytes.length) {
+                throw Utils.error("Encoded value is truncated.");
+            }
+            int b = _bytes[_pos] & 0xff;
+            _pos += 1;
+            return b;
+        }
+
+        /**
+         * read a varint.
+         * @return value
+         */
+        long readVarint() {
+            long v = 0;
+            for (int shift = 0;; shift += 7) {
+                int b = readByte();
+                v |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return v;
+                }
+            }
+        }
+
+        /**
+         * read a varint that counts something held in memory.
+         * @return value
+         * @throws GitletException the value is too large to be a count.
+         */
+        int readCount() {
+            long v = readVarint();
+            if (v > _bytes.length) {
+                throw Utils.error("Encoded value is corrupt.");
+            }
+            return (int) v;
+        }
+
+        /**
+         * read a zigzag varint.
+         * @return value
+         */
+        long readSignedVarint() {
+            long v = readVarint();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        /**
+         * read a string.
+         * @return string
+         */
+        String readString() {
+            int n = readCount();
+            if (_pos + n > _bytes.length) {
+                throw Utils.error("Encoded value is truncated.");
+            }
+            String s = new String(_bytes, _pos, n, StandardCharsets.UTF_8);
+            _pos += n;
+            return s;
+        }
+
+        /**
+         * read a raw object id.
+         * @return full hex id
+         */
+        String readId() {
+            if (_pos + Pack.ID_LENGTH > _bytes.length) {
+                throw Utils.error("Encoded value is truncated.");
+            }
+            char[] hex = new char[2 * Pack.ID_LENGTH];
+            for (int i = 0; i < Pack.ID_LENGTH; i += 1) {
+                int b = _bytes[_pos + i] & 0xff;
+                hex[2 * i] = Character.forDigit(b >> 4, 16);
+                hex[2 * i + 1] = Character.forDigit(b & 0xf, 16);
+            }
+            _pos += Pack.ID_LENGTH;
+            return new String(hex);
+        }
+
+        /**
+         * read a key written by Output#writeKey after PREVIOUS.
+         * @param previous key read before, "" for the first
+         * @return key
+         */
+        String readKey(String previous) {
+            int shared = readCount();
+            if (shared > previous.length()) {
+                throw Utils.error("Encoded value is corrupt.");
+            }
+            return previous.substring(0, shared) + readString();
+        }
+    }
+}
@@ -62,11 +62,13 @@ public class Command {
      *  rm-branch
      *  reset
      *  merge
+     *  repack
+     *  monitor
      *
      */
     public static void registerCommands() {
         new Init("init", 0);
-        new Add("add", 1);
+        new Add("add", -1);
         new CommitCommand("commit", 1);
         new Rm("rm", 1);
         new Log("log", 0);
@@ -78,6 +80,8 @@ public class Command {
         new RmBranch("rm-branch", 1);
         new Reset("reset", 1);
         new MergeCommand("merge", 1);
+        new Repack("repack", 0);
+        new MonitorCommand("monitor", 1);
     }
     boolean validateArgs(String[] args) {
         if (args.length == _numArgs) {
@@ -118,6 +122,10 @@ public class Command {
                  ".gitlet/blobs").mkdirs();
                 new File(System.getProperty("user.dir"),
                  ".gitlet/commits").mkdirs();
+                new File(System.getProperty("user.dir"),
+                 ".gitlet/chunks").mkdirs();
+                new File(System.getProperty("user.dir"),
+                 ".gitlet/trees").mkdirs();
                 Gitlet.Commit initCommit = new Gitlet.Commit(
                     "initial commit", null);
                 initCommit.setTimestamp(new Timestamp(0));
@@ -136,49 +144,139 @@ public class Command {
      * add files.
      */
     static class Add extends Command {
+        /** option naming a file of more pathspecs, one per line. */
+        static final String FROM_FILE = "--pathspec-from-file";
+
         Add(String name, int argLen) {
             super(name, argLen);
         }
         /**
          *  Adds files to be staged for commit.
-         *  checks if file exists (if specified).
-         *  If file is already staged but different,
-         *  overwrites it in the staging area.
-         *  If file is identical to stored file,
-         *  removes it from staging area.
+         *  Each argument is a pathspec (see WorkTree#match): a file,
+         *  a directory, all of whose files are added, or a glob.
+         *  --pathspec-from-file FILE (or =FILE) reads more pathspecs
+         *  from FILE, one per line, or from standard input for "-".
+         *  If a pathspec names no file, or a file in a subdirectory
+         *  (the working directory is flat), nothing is added.
+         *  For each file:
          *  If the file is in the removing area,
          *  remove it from the removing area.
-         *  Create blobs for staged files.
+         *  If file is identical to stored file,
+         *  removes it from staging area.
+         *  Otherwise stages it, overwriting a different
+         *  version already in the staging area.
+         *  Files are hashed, and blobs created for staged files,
+         *  in parallel; the state is saved once.
          *  @param args
          */
         void run(String[] args) {
-            super.run(args);
-            File file = new File(
-                System.getProperty("user.dir"),
-                args[0]);
-            String filename = args[0];
-            if (!file.exists() && !file.isFile()) {
+            if (args.length == 0) {
+                super.run(args);
+            }
+            java.util.TreeSet<String> names = new java.util.TreeSet<>();
+            List<String> pathspecs = pathspecs(args);
+            if (pathspecs == null) {
                 System.out.println("File does not exist.");
                 return;
             }
-            if (Gitlet.GITLET_OBJECT.getRemovingArea()
-                .hasFile(filename)) {
-                Gitlet.GITLET_OBJECT.getRemovingArea()
-                    .unstage(filename);
-                Gitlet.GITLET_OBJECT.save();
-                return;
+            for (String pathspec : pathspecs) {
+                List<String> matched = WorkTree.match(pathspec);
+                if (matched.isEmpty()) {
+                    System.out.println("File does not exist.");
+                    return;
+                }
+                names.addAll(matched);
             }
-            Gitlet.Blob blobFile = Gitlet.Blob.fromFileName(filename);
-            blobFile.save();
-            if (blobFile.getId().equals(
-                Gitlet.getHashInHeadFromFileName(filename))) {
-                Gitlet.GITLET_OBJECT.getStagingArea().unstage(filename);
-                Gitlet.GITLET_OBJECT.save();
+            for (String name : names) {
+                if (name.indexOf('/') >= 0) {
+                    System.out.println("Only files at the top of the "
+                        + "working directory can be added.");
+                    return;
+                }
+            }
+            List<String> files = new java.util.ArrayList<>(names);
+            String[] ids = WorkTree.hash(files);
+            if (java.util.Arrays.asList(ids).contains(null)) {
+                System.out.println("File does not exist.");
                 return;
             }
-            Gitlet.GITLET_OBJECT.getStagingArea().stage(filename);
+            Gitlet.Commit head = Gitlet.GITLET_OBJECT.getHead();
+            Gitlet.StagingArea staging =
+                Gitlet.GITLET_OBJECT.getStagingArea();
+            Gitlet.StagingArea removing =
+                Gitlet.GITLET_OBJECT.getRemovingArea();
+            List<String> stage = new java.util.ArrayList<>();
+            List<String> stageIds = new java.util.ArrayList<>();
+            for (int i = 0; i < ids.length; i += 1) {
+                String filename = files.get(i);
+                if (removing.hasFile(filename)) {
+                    removing.unstage(filename);
+                } else if (ids[i].equals(
+                    head.getHashFromFileName(filename))) {
+                    if (staging.hasFile(filename)) {
+                        staging.unstage(filename);
+                    }
+                } else if (!ids[i].equals(
+                    staging.getFiles().get(filename))) {
+                    stage.add(filename);
+                    stageIds.add(ids[i]);
+                }
+            }
+            WorkTree.store(stage, stageIds);
+            for (int i = 0; i < stage.size(); i += 1) {
+                String filename = stage.get(i);
+                if (!stageIds.get(i).equals(
+                    head.getHashFromFileName(filename))) {
+                    staging.stage(filename, stageIds.get(i));
+                } else if (staging.hasFile(filename)) {
+                    staging.unstage(filename);
+                }
+            }
             Gitlet.GITLET_OBJECT.save();
         }
+
+        /**
+         * the pathspecs ARGS gives, with those of any --pathspec-from-file.
+         * @param args command arguments
+         * @return pathspecs, or null if a pathspec file cannot be read
+         * @throws GitletException --pathspec-from-file has no file.
+         */
+        private static List<String> pathspecs(String[] args) {
+            List<String> pathspecs = new java.util.ArrayList<>();
+            for (int i = 0; i < args.length; i += 1) {
+                String from = null;
+                if (args[i].equals(FROM_FILE)) {
+                    if (i + 1 == args.length) {
+                        throw Utils.error("invalid argument count.");
+                    }
+                    i += 1;
+                    from = args[i];
+                } else if (args[i].startsWith(FROM_FILE + "=")) {
+                    from = args[i].substring(FROM_FILE.length() + 1);
+                } else {
+                    pathspecs.add(args[i]);
+                    continue;
+                }
+                String text;
+                try {
+                    text = from.equals("-")
+                        ? new String(System.in.readAllBytes(),
+                            java.nio.charset.StandardCharsets.UTF_8)
+                        : new String(java.nio.file.Files.readAllBytes(
+                            new File(System.getProperty("user.dir"), from)
+                                .toPath()),
+                            java.nio.charset.StandardCharsets.UTF_8);
+                } catch (java.io.IOException excp) {
+                    return null;
+                }
+                for (String line : text.split("\\r?\\n")) {
+                    if (!line.isEmpty()) {
+                        pathspecs.add(line);
+                    }
+                }
+            }
+            return pathspecs;
+        }
     }
 
     /**
@@ -308,15 +406,13 @@ public class Command {
         GlobalLog(String name, int argLen) {
             super(name, argLen);
         }
-        /** Go through every file in the commits directory in .gitlet
-         *  using gitlet.Utils.plainFilenamesIn,
+        /** Go through every commit in .gitlet
+         *  using gitlet.ObjectStore.ids,
          *  deserialize it, and print relevant content.
          * @param args
          */
         void run(String[] args) {
-            List<String> files = Utils.plainFilenamesIn(
-                new File(System.getProperty("user.dir"),
-                Gitlet.ABS_COMMIT_FOLDER));
+            List<String> files = ObjectStore.ids(Gitlet.ABS_COMMIT_FOLDER);
             for (String file : files) {
                 Gitlet.Commit commit = Gitlet.Commit.fromHash(file);
                 System.out.println("===\n" + commit.toString() + "\n");
@@ -365,26 +461,27 @@ public class Command {
             } catch (IllegalArgumentException ignore) {
                 System.out.println("No commit with that id exists.");
                 return;
+            } catch (GitletException excp) {
+                System.out.println(excp.getMessage());
+                return;
             }
             if (!commit.isTracked(fileName)) {
                 System.out.println("File does not exist in that commit.");
                 return;
             }
-            File globFile = new File(
-                System.getProperty("user.dir"),
-                Gitlet.ABS_BLOB_FOLDER + "/"
-                 + commit.getHashFromFileName(fileName));
+            String blobHash = commit.getHashFromFileName(fileName);
             File targetFile = new File(System.getProperty("user.dir"),
                 fileName);
-            if (!globFile.exists()) {
+            if (!ObjectStore.contains(Gitlet.ABS_BLOB_FOLDER, blobHash)) {
                 throw Utils.error("File (blob) not found!!!");
             }
-            Utils.writeContents(targetFile, Utils.readContents(globFile));
+            Gitlet.Blob.fromHash(blobHash).writeTo(targetFile);
         }
 
         /**
          *  set gitlet.currentBranch to the branch name,
-         *  and run checkout(fileName) on all the files in _trackedFiles.
+         *  and write or delete the working files that differ between
+         *  the two heads (see Materializer).
          *  clears staging and removal area unless
          *  on branchName is current branch.
          *  @param branchName
@@ -408,18 +505,11 @@ public class Command {
                     + "delete it, or add and commit it first.");
                 return;
             }
-            for (String file : Utils.plainFilenamesIn(
-                new File(System.getProperty("user.dir")))) {
-                Utils.restrictedDelete(file);
-            }
+            Materializer.update(Gitlet.GITLET_OBJECT.getHead(),
+                branch.getCommit(),
+                Gitlet.GITLET_OBJECT.getStagingArea().getFiles(),
+                Gitlet.GITLET_OBJECT.getRemovingArea().getFiles());
             Gitlet.GITLET_OBJECT.setHeadBranch(branch);
-            for (java.util.Map.Entry<String, String> file
-                : Gitlet.GITLET_OBJECT.getHead().getTrackedFiles().entrySet()) {
-                Utils.writeContents(
-                    new File(System.getProperty("user.dir"),
-                        file.getKey()),
-                    Gitlet.Blob.fromHash(file.getValue()).getContents());
-            }
             Gitlet.GITLET_OBJECT.save();
         }
     }
@@ -432,8 +522,7 @@ public class Command {
             super(name, argLen);
         }
         /**
-         * go through every commit file using gitlet.Utils.plainFilenamesIn
-         *  in the commit directory,
+         * go through every commit using gitlet.ObjectStore.ids,
          *  deserializing and checking against commit messages,
          *  storing those that match in an ArrayList.
          *  Afterwards, print out relevant info.
@@ -443,9 +532,7 @@ public class Command {
             super.run(args);
             String commitMsg = args[0];
             boolean found = false;
-            List<String> files = Utils.plainFilenamesIn(
-                new File(System.getProperty("user.dir"),
-                Gitlet.ABS_COMMIT_FOLDER));
+            List<String> files = ObjectStore.ids(Gitlet.ABS_COMMIT_FOLDER);
             for (String file : files) {
                 Gitlet.Commit commit = Gitlet.Commit.fromHash(file);
                 if (commit.getMessage().equals(commitMsg)) {
@@ -560,6 +647,16 @@ public class Command {
                 System.out.println("A branch with that name already exists.");
                 return;
             }
+            if (!Refs.isValidName(branchName)) {
+                System.out.println("Invalid branch name.");
+                return;
+            }
+            String clash = Refs.clash(branchName);
+            if (clash != null) {
+                System.out.println("A branch named " + clash
+                    + " already exists.");
+                return;
+            }
             Gitlet.Branch newBranch = new Gitlet.Branch(branchName,
                 Gitlet.GITLET_OBJECT.getHeadBranch().getCommitHash());
             Gitlet.GITLET_OBJECT.addBranch(newBranch);
@@ -625,20 +722,13 @@ public class Command {
             }
             if (splitCommit.getID().equals(
                     headBranch.getCommit().getID())) {
+                Materializer.update(headBranch.getCommit(),
+                    targetBranch.getCommit(),
+                    Gitlet.GITLET_OBJECT.getStagingArea().getFiles(),
+                    Gitlet.GITLET_OBJECT.getRemovingArea().getFiles());
                 Gitlet.GITLET_OBJECT.getHeadBranch().setCommit(
                     targetBranch.getCommit().getID());
                 System.out.println("Current branch fast-forwarded.");
-                for (String file : Utils.plainFilenamesIn(
-                    new File(System.getProperty("user.dir")))) {
-                    Utils.restrictedDelete(file);
-                }
-                for (java.util.Map.Entry<String, String> file
-                    : Gitlet.GITLET_OBJECT.getHead()
-                        .getTrackedFiles().entrySet()) {
-                    Utils.writeContents(
-                        new File(System.getProperty("user.dir"), file.getKey()),
-                        Gitlet.Blob.fromHash(file.getValue()).getContents());
-                }
                 Gitlet.GITLET_OBJECT.save();
                 return;
             }
@@ -710,11 +800,9 @@ public class Command {
             HashMap<String, String> inHeadButNotInTarget = aNotInB(
                 onlyInHead, onlyInTarget);
             HashMap<String, String> headModified = modified(
-                splitCommit.getTrackedFiles(),
-                headBranch.getCommit().getTrackedFiles());
+                splitCommit, headBranch.getCommit());
             HashMap<String, String> targetModified = modified(
-                splitCommit.getTrackedFiles(),
-                targetBranch.getCommit().getTrackedFiles());
+                splitCommit, targetBranch.getCommit());
 
             bool = existRun(existsInHeadAndTarget, targetBranch,
                 splitCommit, merge, bool);
@@ -725,10 +813,8 @@ public class Command {
                     continue;
                 }
                 merge.trackFile(files.getKey(), files.getValue());
-                Utils.writeContents(
-                    new File(System.getProperty("user.dir"),
-                    files.getKey()),
-                    Gitlet.Blob.fromHash(files.getValue()).getContents());
+                Gitlet.Blob.fromHash(files.getValue()).writeTo(
+                    new File(System.getProperty("user.dir"), files.getKey()));
             }
             for (java.util.Map.Entry<String, String> files
                 : inHeadButNotInTarget.entrySet()) {
@@ -737,10 +823,8 @@ public class Command {
             for (java.util.Map.Entry<String, String> files
                 : inTargetButNotInHead.entrySet()) {
                 merge.trackFile(files.getKey(), files.getValue());
-                Utils.writeContents(
-                    new File(System.getProperty("user.dir"),
-                    files.getKey()),
-                    Gitlet.Blob.fromHash(files.getValue()).getContents());
+                Gitlet.Blob.fromHash(files.getValue()).writeTo(
+                    new File(System.getProperty("user.dir"), files.getKey()));
             }
             bool = headModifiedRun(headModified, targetModified,
                 targetBranch, splitCommit, merge, bool);
@@ -770,7 +854,7 @@ public class Command {
                         .get(files.getKey()));
                     merge.trackFile(files.getKey(), nBlob.getId());
                     Utils.restrictedDelete(glob);
-                    Utils.writeContents(glob, nBlob.getContents());
+                    nBlob.writeTo(glob);
                 } else {
                     String hashOfFile = files.getValue();
                     if (files.getValue().equals(splitCommit
@@ -782,10 +866,9 @@ public class Command {
                     Utils.restrictedDelete(
                         new File(System.getProperty("user.dir"),
                         files.getKey()));
-                    Utils.writeContents(
+                    Gitlet.Blob.fromHash(hashOfFile).writeTo(
                         new File(System.getProperty("user.dir"),
-                        files.getKey()),
-                        Gitlet.Blob.fromHash(hashOfFile).getContents());
+                        files.getKey()));
                 }
             }
             return bool;
@@ -799,10 +882,8 @@ public class Command {
                     continue;
                 }
                 merge.trackFile(files.getKey(), files.getValue());
-                Utils.writeContents(
-                    new File(System.getProperty("user.dir"),
-                    files.getKey()),
-                    Gitlet.Blob.fromHash(files.getValue()).getContents());
+                Gitlet.Blob.fromHash(files.getValue()).writeTo(
+                    new File(System.getProperty("user.dir"), files.getKey()));
             }
         }
         static boolean headModifiedRun(HashMap<String, String> headModified,
@@ -828,7 +909,7 @@ public class Command {
                         targetModified.get(files.getKey()));
                     merge.trackFile(files.getKey(), nBlob.getId());
                     Utils.restrictedDelete(glob);
-                    Utils.writeContents(glob, nBlob.getContents());
+                    nBlob.writeTo(glob);
                 } else {
                     merge.unTrackFile(files.getKey());
                     Utils.restrictedDelete(glob);
@@ -861,7 +942,7 @@ public class Command {
                         files.getKey()), files.getValue());
                     merge.trackFile(files.getKey(), nBlob.getId());
                     Utils.restrictedDelete(glob);
-                    Utils.writeContents(glob, nBlob.getContents());
+                    nBlob.writeTo(glob);
                 } else {
                     merge.unTrackFile(files.getKey());
                     Utils.restrictedDelete(glob);
@@ -980,8 +1061,8 @@ public class Command {
          * @param b
          * @return intfMap
          */
-        static HashMap<String, String> intersection(HashMap<String, String> a,
-            HashMap<String, String> b) {
+        static HashMap<String, String> intersection(
+            java.util.Map<String, String> a, java.util.Map<String, String> b) {
             HashMap<String, String> intfMap = new HashMap<>();
             for (java.util.Map.Entry<String, String> aEntry : a.entrySet()) {
                 String fHash = b.get(aEntry.getKey());
@@ -1002,8 +1083,8 @@ public class Command {
          * @param B
          * @return
          */
-        static HashMap<String, String> aNotInB(HashMap<String, String> A,
-            HashMap<String, String> B) {
+        static HashMap<String, String> aNotInB(java.util.Map<String, String> A,
+            java.util.Map<String, String> B) {
             HashMap<String, String> intfMap = new HashMap<>();
             for (java.util.Map.Entry<String, String> aEntry : A.entrySet()) {
                 String fHash = B.get(aEntry.getKey());
@@ -1017,32 +1098,17 @@ public class Command {
         }
 
         /**
-         * lists files in B that have changed from A or are not in A.
+         * lists files of A that have changed in B or are not in B.
          * Maps to blobs from B. deleted files are included with empty blob.
+         * Directories whose Trees are the same in both are not read.
          *
          * @param A
          * @param B
          * @return
          */
-        static HashMap<String, String> modified(HashMap<String, String> A,
-            HashMap<String, String> B) {
-            HashMap<String, String> intfMap = new HashMap<>();
-            for (java.util.Map.Entry<String, String> aEntry : A.entrySet()) {
-                String fHash = B.get(aEntry.getKey());
-
-                if (fHash == null) {
-                    intfMap.put(aEntry.getKey(), "");
-                    continue;
-                }
-
-                if (fHash.equals(aEntry.getValue())) {
-                    continue;
-                }
-
-                intfMap.put(aEntry.getKey(), fHash);
-            }
-
-            return intfMap;
+        static HashMap<String, String> modified(Gitlet.Commit A,
+            Gitlet.Commit B) {
+            return Tree.modified(A.getTreeHash(), B.getTreeHash());
         }
     }
 
@@ -1054,9 +1120,8 @@ public class Command {
             super(name, argLen);
         }
         /** Sets the pointer for the current branch to the given commit ID,
-         *  then runs the "checkout" command with no arguments.
-         *  Goes through all files, removing any that aren't keys
-         *  in commit.getTrackedFiles().
+         *  writing and deleting only the working files that differ
+         *  from it, staged ones included (see Materializer).
          *  Clears staging and removal area.
          * @param args
          */
@@ -1070,6 +1135,9 @@ public class Command {
             } catch (IllegalArgumentException ignore) {
                 System.out.println("No commit with that id exists.");
                 return;
+            } catch (GitletException excp) {
+                System.out.println(excp.getMessage());
+                return;
             }
 
             if (Gitlet.GITLET_OBJECT.unstagedFiles().size() != 0
@@ -1078,23 +1146,99 @@ public class Command {
                     + "delete it, or add and commit it first.");
                 return;
             }
+            Materializer.update(Gitlet.GITLET_OBJECT.getHead(), commit,
+                Gitlet.GITLET_OBJECT.getStagingArea().getFiles(),
+                Gitlet.GITLET_OBJECT.getRemovingArea().getFiles());
             Gitlet.GITLET_OBJECT.getStagingArea().clear();
             Gitlet.GITLET_OBJECT.getRemovingArea().clear();
-            for (String file
-                : Utils.plainFilenamesIn(
-                    new File(System.getProperty("user.dir")))) {
-                Utils.restrictedDelete(file);
-            }
             Gitlet.GITLET_OBJECT.getHeadBranch().setCommit(commit.getID());
+            Gitlet.GITLET_OBJECT.save();
+        }
+    }
+
+    /**
+     * repack.
+     */
+    static class Repack extends Command {
+        Repack(String name, int argLen) {
+            super(name, argLen);
+        }
+        /** Moves every blob, chunk, tree and commit, loose or already
+         *  packed, into one pack per object folder, so later reads open
+         *  one file instead of one file per object.
+         *  Blobs are offered the previous revision of the same file as
+         *  a delta base. Loose branch refs are moved into packed-refs.
+         *  @param args
+         */
+        void run(String[] args) {
+            super.run(args);
+            Refs.pack();
+            ObjectStore.repack(Gitlet.ABS_BLOB_FOLDER, blobBases());
+            ObjectStore.repack(Gitlet.ABS_CHUNK_FOLDER, new HashMap<>());
+            ObjectStore.repack(Gitlet.ABS_TREE_FOLDER, new HashMap<>());
+            ObjectStore.repack(Gitlet.ABS_COMMIT_FOLDER,
+                new HashMap<String, String>());
+        }
 
-            for (java.util.Map.Entry<String, String> file
-                : commit.getTrackedFiles().entrySet()) {
-                Utils.writeContents(
-                    new File(System.getProperty("user.dir"), file.getKey()),
-                    Gitlet.Blob.fromHash(file.getValue()).getContents()
-                );
+        /**
+         * walk every commit, oldest first, and map each blob to the
+         * blob its file had before it was introduced.
+         * @return blob to base blob, in the order blobs were introduced
+         */
+        static java.util.LinkedHashMap<String, String> blobBases() {
+            java.util.ArrayList<Gitlet.Commit> commits =
+                new java.util.ArrayList<>();
+            for (String id : ObjectStore.ids(Gitlet.ABS_COMMIT_FOLDER)) {
+                commits.add(Gitlet.Commit.fromHash(id));
+            }
+            commits.sort(java.util.Comparator.comparing(
+                Gitlet.Commit::getTimestamp));
+            HashMap<String, String> latest = new HashMap<>();
+            java.util.HashSet<String> seen = new java.util.HashSet<>();
+            java.util.LinkedHashMap<String, String> bases =
+                new java.util.LinkedHashMap<>();
+            for (Gitlet.Commit commit : commits) {
+                for (java.util.Map.Entry<String, String> file
+                    : commit.getTrackedFiles().entrySet()) {
+                    String previous = latest.put(file.getKey(),
+                        file.getValue());
+                    if (seen.add(file.getValue()) && previous != null) {
+                        bases.put(file.getValue(), previous);
+                    }
+                }
+            }
+            return bases;
+        }
+    }
+
+    /**
+     * monitor.
+     */
+    static class MonitorCommand extends Command {
+        MonitorCommand(String name, int argLen) {
+            super(name, argLen);
+        }
+        /** Starts, stops or runs the file-system Monitor that lets
+         *  status look only at the paths changed since the last command:
+         *  "monitor start" runs it in the background, "monitor stop"
+         *  stops it and "monitor run" runs it in the foreground.
+         *  @param args
+         */
+        void run(String[] args) {
+            super.run(args);
+            switch (args[0]) {
+            case "start":
+                Monitor.start();
+                break;
+            case "stop":
+                Monitor.stop();
+                break;
+            case "run":
+                Monitor.run();
+                break;
+            default:
+                throw Utils.error("invalid argument count.");
             }
-            Gitlet.GITLET_OBJECT.save();
         }
     }
 
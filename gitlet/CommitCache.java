@@ -0,0 +1,130 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * The commits loaded by this process, least recently used first, so
+ * that a commit reached again through a branch, HEAD, an id or a child's
+ * parent link is decoded only once.
+ *
+ * Every load goes through Gitlet#getCommit. The cache holds at most the
+ * "commitCache" setting's worth of bytes (default 64 MB): a commit
+ * counts the size of its encoding plus OVERHEAD, and once its files are
+ * flattened (Commit#getTrackedFiles) BYTES_PER_FILE more for each file.
+ * Loaded commits do not hold on to their parents, so walking a long
+ * history keeps no more than that in memory.
+ *
+ * Hits and misses are counted and printed with the "stats" setting.
+ *
+ * @author Solomon Cheung
+ */
+class CommitCache {
+
+    /** bytes a commit counts besides its encoding. */
+    static final long OVERHEAD = 256;
+
+    /** bytes a commit counts for each of its flattened files. */
+    static final long BYTES_PER_FILE = 40;
+
+    /** cached commits by id, least recently used first. */
+    private static final LinkedHashMap<String, Entry> COMMITS =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /** total size of the cached commits. */
+    private static long _size;
+
+    /** lookups that found their commit. */
+    private static long _hits;
+
+    /** lookups that did not. */
+    private static long _misses;
+
+    /**
+     * the cached commit ID.
+     * @param id full commit id
+     * @return commit, or null if it is not cached
+     */
+    static Gitlet.Commit get(String id) {
+        Entry entry = COMMITS.get(id);
+        if (entry == null) {
+            _misses += 1;
+            return null;
+        }
+        _hits += 1;
+        return entry._commit;
+    }
+
+    /**
+     * cache COMMIT, just decoded from BYTES bytes, as ID.
+     * @param id full commit id
+     * @param commit commit
+     * @param bytes size of its encoding
+     */
+    static void put(String id, Gitlet.Commit commit, long bytes) {
+        Entry old = COMMITS.put(id, new Entry(commit, bytes + OVERHEAD));
+        if (old != null) {
+            _size -= old._size;
+        }
+        _size += bytes + OVERHEAD;
+        evict();
+    }
+
+    /**
+     * count BYTES more for the commit ID, if COMMIT is the one cached.
+     * @param id full commit id
+     * @param commit commit
+     * @param bytes bytes it now holds besides its encoding
+     */
+    static void grew(String id, Gitlet.Commit commit, long bytes) {
+        Entry entry = COMMITS.get(id);
+        if (entry != null && entry._commit == commit) {
+            entry._size += bytes;
+            _size += bytes;
+            evict();
+        }
+    }
+
+    /**
+     * drop least recently used commits until the cache fits the
+     * "commitCache" setting.
+     */
+    private static void evict() {
+        long limit = Config.getLong("commitCache", 64L << 20);
+        Iterator<Entry> lru = COMMITS.values().iterator();
+        while (_size > limit && lru.hasNext()) {
+            _size -= lru.next()._size;
+            lru.remove();
+        }
+    }
+
+    /**
+     * a summary of the lookups so far, printed after each command when
+     * the "stats" setting is true.
+     * @return one line of text
+     */
+    static String stats() {
+        return String.format("commits: %d decoded, %d cache hits, "
+            + "%d cached (%d bytes)", _misses, _hits, COMMITS.size(), _size);
+    }
+
+    /**
+     * a cached commit and the bytes it counts.
+     */
+    private static class Entry {
+        /** the commit. */
+        private final Gitlet.Commit _commit;
+        /** bytes it counts. */
+        private long _size;
+
+        /**
+         * an entry for COMMIT counting SIZE bytes.
+         * @param commit commit
+         * @param size bytes
+         */
+        Entry(Gitlet.Commit commit, long size) {
+            _commit = commit;
+            _size = size;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sorted index of every commit id, used to resolve abbreviated ids
+ * without listing the commit folder.
+ *
+ * The index is two files in .gitlet. INDEX_FILENAME holds IDX_MAGIC, a
+ * version int, the id count, a fan-out table of 256 ints (as in a pack
+ * .idx) and the sorted raw ids; it is memory-mapped and binary searched.
+ * TAIL_FILENAME holds the raw ids of commits saved since, in the order
+ * they were saved. Commit.save adds its id to a list in memory, and
+ * flush() appends the list to the tail through Durability once the
+ * commits are in place, before the state naming them is saved, so the
+ * index never lists a commit that was not published. A crash during the
+ * append leaves a partial id at the end of the tail, which is ignored
+ * and written over. Once the tail holds TAIL_LIMIT ids it is merged
+ * into a rewritten sorted file.
+ *
+ * A repository made before the index existed gets one built from its
+ * commit folder the first time an id is resolved or a commit is saved.
+ *
+ * @author Solomon Cheung
+ */
+class CommitIndex {
+
+    /** sorted index file name in .gitlet. */
+    static final String INDEX_FILENAME = "commit-index";
+
+    /** unsorted tail file name in .gitlet. */
+    static final String TAIL_FILENAME = "commit-index.tail";
+
+    /** first bytes of the sorted index file. */
+    static final byte[] IDX_MAGIC = {'G', 'C', 'I', 'X'};
+
+    /** format version of the sorted index file. */
+    static final int VERSION = 1;
+
+    /** ids the tail may hold before it is merged into the index. */
+    static final int TAIL_LIMIT = 1024;
+
+    /** length of a raw commit id. */
+    private static final int ID_LENGTH = Pack.ID_LENGTH;
+
+    /** size of the fan-out table. */
+    private static final int FANOUT = 256;
+
+    /** offset of the fan-out table. */
+    private static final int FANOUT_OFFSET = 12;
+
+    /** offset of the sorted ids. */
+    private static final int IDS_OFFSET = FANOUT_OFFSET + 4 * FANOUT;
+
+    /** the mapped index file, or null before it is first needed. */
+    private static MappedByteBuffer _index;
+
+    /** the file _index is a map of. */
+    private static File _indexFile;
+
+    /** number of ids in _index. */
+    private static int _count;
+
+    /** ids of the commits saved by this command and not yet flushed. */
+    private static final ArrayList<String> ADDED = new ArrayList<>();
+
+    /**
+     * record that commit ID has been saved. It is added to the index by
+     * the next flush().
+     * @param id full hex commit id
+     */
+    static void add(String id) {
+        ADDED.add(id);
+    }
+
+    /**
+     * forget the ids added since the last flush, as the command that
+     * saved their commits failed and Durability.abort() dropped them.
+     */
+    static void discard() {
+        ADDED.clear();
+    }
+
+    /**
+     * commit() the objects of the Durability transaction, then append
+     * the ids of the commits saved since the last flush to the tail,
+     * merging the tail into the index if it is full.
+     */
+    static void flush() {
+        if (ADDED.isEmpty()) {
+            return;
+        }
+        Durability.commit();
+        if (!file(INDEX_FILENAME).exists()) {
+            rebuild();
+        }
+        File tail = file(TAIL_FILENAME);
+        byte[] record = new byte[ADDED.size() * ID_LENGTH];
+        for (int i = 0; i < ADDED.size(); i += 1) {
+            System.arraycopy(Pack.fromHex(ADDED.get(i)), 0, record,
+                i * ID_LENGTH, ID_LENGTH);
+        }
+        if (tail.isFile()) {
+            Durability.append(tail,
+                tail.length() / ID_LENGTH * ID_LENGTH, record);
+        } else {
+            Durability.writeState(tail, record);
+        }
+        ADDED.clear();
+        if (tail.length() >= (long) TAIL_LIMIT * ID_LENGTH) {
+            List<byte[]> ids = tailIds();
+            load();
+            for (int i = 0; i < _count; i += 1) {
+                ids.add(raw(i));
+            }
+            write(ids);
+        }
+    }
+
+    /**
+     * the ids of commits that start with the hex PREFIX, stopping after
+     * LIMIT of them. Takes time logarithmic in the number of commits,
+     * plus the size of the tail.
+     * @param prefix start of the ids wanted
+     * @param limit most ids to return
+     * @return matching full ids, sorted
+     */
+    static List<String> resolve(String prefix, int limit) {
+        ArrayList<String> ids = new ArrayList<>();
+        if (!prefix.matches("[0-9a-f]*")
+            || prefix.length() > Utils.UID_LENGTH) {
+            return ids;
+        }
+        load();
+        byte[] key = Pack.fromHex(prefix + (prefix.length() % 2 == 0
+            ? "" : "0"));
+        for (int i = lowerBound(key); i < _count && ids.size() < limit;
+             i += 1) {
+            String id = ObjectStore.toHex(raw(i));
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            ids.add(id);
+        }
+        for (byte[] raw : tailIds()) {
+            String id = ObjectStore.toHex(raw);
+            if (id.startsWith(prefix) && !ids.contains(id)) {
+                ids.add(id);
+            }
+        }
+        for (String id : ADDED) {
+            if (id.startsWith(prefix) && !ids.contains(id)) {
+                ids.add(id);
+            }
+        }
+        ids.sort(null);
+        return ids.size() > limit ? ids.subList(0, limit) : ids;
+    }
+
+    /**
+     * rewrite the index from the ids in the commit folder, emptying
+     * the tail.
+     */
+    static void rebuild() {
+        ArrayList<byte[]> ids = new ArrayList<>();
+        for (String id : ObjectStore.ids(Gitlet.ABS_COMMIT_FOLDER)) {
+            ids.add(Pack.fromHex(id));
+        }
+        write(ids);
+    }
+
+    /**
+     * write IDS, deduplicated and sorted, as the new index, atomically,
+     * and remove the tail.
+     * @param ids raw ids
+     */
+    private static void write(List<byte[]> ids) {
+        ids.sort(Arrays::compareUnsigned);
+        ArrayList<byte[]> distinct = new ArrayList<>();
+        for (byte[] id : ids) {
+            if (distinct.isEmpty() || !Arrays.equals(id,
+                    distinct.get(distinct.size() - 1))) {
+                distinct.add(id);
+            }
+        }
+        File target = file(INDEX_FILENAME);
+        File tmp = file(INDEX_FILENAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(
+                     tmp.toPath())))) {
+            out.write(IDX_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(distinct.size());
+            int[] fanout = new int[FANOUT];
+            for (byte[] id : distinct) {
+                fanout[id[0] & 0xff] += 1;
+            }
+            int total = 0;
+            for (int b = 0; b < FANOUT; b += 1) {
+                total += fanout[b];
+                out.writeInt(total);
+            }
+            for (byte[] id : distinct) {
+                out.write(id);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Durability.replace(tmp, target);
+        file(TAIL_FILENAME).delete();
+        _index = null;
+    }
+
+    /**
+     * map the index file, building it first if there is none.
+     */
+    private static void load() {
+        File target = file(INDEX_FILENAME);
+        if (_index != null && target.equals(_indexFile)) {
+            return;
+        }
+        if (!target.exists()) {
+            rebuild();
+        }
+        try (FileChannel ch = FileChannel.open(target.toPath(),
+                 StandardOpenOption.READ)) {
+            _index = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        byte[] magic = new byte[IDX_MAGIC.length];
+        _index.get(0, magic);
+        if (!Arrays.equals(magic, IDX_MAGIC)
+            || _index.getInt(4) != VERSION) {
+            throw Utils.error("Bad commit index: %s", target);
+        }
+        _indexFile = target;
+        _count = _index.getInt(8);
+    }
+
+    /**
+     * the ids in the tail, in the order they were added, without a
+     * partial id a crash left at its end.
+     * @return raw ids
+     */
+    private static List<byte[]> tailIds() {
+        ArrayList<byte[]> ids = new ArrayList<>();
+        File tail = file(TAIL_FILENAME);
+        if (!tail.exists()) {
+            return ids;
+        }
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(tail.toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        for (int i = 0; i + ID_LENGTH <= bytes.length; i += ID_LENGTH) {
+            ids.add(Arrays.copyOfRange(bytes, i, i + ID_LENGTH));
+        }
+        return ids;
+    }
+
+    /**
+     * the Ith id of the index.
+     * @param i index
+     * @return raw id
+     */
+    private static byte[] raw(int i) {
+        byte[] id = new byte[ID_LENGTH];
+        _index.get(IDS_OFFSET + i * ID_LENGTH, id);
+        return id;
+    }
+
+    /**
+     * index of the first id not less than KEY in its first KEY.length
+     * bytes.
+     * @param key raw id prefix
+     * @return index in [0, _count]
+     */
+    private static int lowerBound(byte[] key) {
+        int lo = 0;
+        int hi = _count;
+        if (key.length > 0) {
+            int b = key[0] & 0xff;
+            lo = b == 0 ? 0 : _index.getInt(FANOUT_OFFSET + 4 * (b - 1));
+            hi = _index.getInt(FANOUT_OFFSET + 4 * b);
+        }
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Arrays.compareUnsigned(raw(mid), 0, key.length,
+                    key, 0, key.length) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * the file NAME in .gitlet.
+     * @param name file name
+     * @return file
+     */
+    private static File file(String name) {
+        return new File(System.getProperty("user.dir"),
+            Gitlet.GITLET_FOLDER + "/" + name);
+    }
+}
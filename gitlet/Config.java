@@ -0,0 +1,114 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+
+/**
+ * Repository settings. A setting KEY is looked up first as the system
+ * property gitlet.KEY (e.g. java -Dgitlet.compression=6 gitlet.Main ...)
+ * and then in the key=value file .gitlet/config.
+ *
+ * @author Solomon Cheung
+ */
+class Config {
+
+    /**
+     * config file name in .gitlet.
+     */
+    static final String CONFIG_FILENAME = "config";
+
+    /**
+     * settings read from .gitlet/config, loaded on first use.
+     */
+    private static Properties _file;
+
+    /**
+     * get the setting KEY.
+     * @param key setting name
+     * @param def value used when the setting is absent
+     * @return the setting
+     */
+    static String get(String key, String def) {
+        String value = System.getProperty("gitlet." + key);
+        if (value != null) {
+            return value;
+        }
+        return fileSettings().getProperty(key, def);
+    }
+
+    /**
+     * get the integer setting KEY.
+     * @param key setting name
+     * @param def value used when the setting is absent
+     * @return the setting
+     * @throws GitletException setting is not an integer.
+     */
+    static int getInt(String key, int def) {
+        String value = get(key, null);
+        if (value == null) {
+            return def;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException excp) {
+            throw Utils.error("Bad value for %s: %s", key, value);
+        }
+    }
+
+    /**
+     * get the long integer setting KEY.
+     * @param key setting name
+     * @param def value used when the setting is absent
+     * @return the setting
+     * @throws GitletException setting is not an integer.
+     */
+    static long getLong(String key, long def) {
+        String value = get(key, null);
+        if (value == null) {
+            return def;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException excp) {
+            throw Utils.error("Bad value for %s: %s", key, value);
+        }
+    }
+
+    /**
+     * get the boolean setting KEY.
+     * @param key setting name
+     * @param def value used when the setting is absent
+     * @return the setting
+     */
+    static boolean getBoolean(String key, boolean def) {
+        String value = get(key, null);
+        if (value == null) {
+            return def;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    /**
+     * the settings in .gitlet/config (empty if there is none). Settings
+     * may be read from several threads (see WorkTree).
+     * @return settings
+     */
+    private static synchronized Properties fileSettings() {
+        if (_file == null) {
+            _file = new Properties();
+            File config = new File(System.getProperty("user.dir"),
+                Gitlet.GITLET_FOLDER + "/" + CONFIG_FILENAME);
+            if (config.isFile()) {
+                try (InputStream in = Files.newInputStream(config.toPath())) {
+                    _file.load(in);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+        return _file;
+    }
+}
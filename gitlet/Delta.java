@@ -0,0 +1,234 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+/**
+ * Binary deltas: an edit script that rebuilds a target byte array from a
+ * base byte array. Used to store revisions of a file inside packs as
+ * their differences from an earlier revision.
+ *
+ * A delta is the varint length of the base, the varint length of the
+ * target, then a sequence of instructions: COPY, varint offset, varint
+ * length (copy bytes of the base), or INSERT, varint length, and that
+ * many literal bytes.
+ *
+ * Matches are found by indexing the base in BLOCK-byte blocks and
+ * sliding a rolling hash over the target, so encoding takes time linear
+ * in the sizes of both inputs.
+ *
+ * @author Solomon Cheung
+ */
+class Delta {
+
+    /** instruction: copy a range of the base. */
+    static final int COPY = 0;
+
+    /** instruction: insert literal bytes. */
+    static final int INSERT = 1;
+
+    /** size of the blocks of the base that matches are found from. */
+    static final int BLOCK = 16;
+
+    /** multiplier of the rolling hash. */
+    private static final int PRIME = 0x01000193;
+
+    /** PRIME to the power BLOCK - 1, to roll a byte out of the hash. */
+    private static final int PRIME_TOP = pow(PRIME, BLOCK - 1);
+
+    /**
+     * the delta that turns BASE into TARGET.
+     * @param base base bytes
+     * @param target target bytes
+     * @return delta
+     */
+    static byte[] encode(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        HashMap<Integer, Integer> index = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            index.putIfAbsent(hash(base, i), i);
+        }
+        int pending = 0;
+        int i = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            Integer at = index.get(h);
+            if (at != null && equal(base, at, target, i, BLOCK)) {
+                int start = at;
+                int len = BLOCK;
+                while (start + len < base.length && i + len < target.length
+                       && base[start + len] == target[i + len]) {
+                    len += 1;
+                }
+                int back = 0;
+                while (back < i - pending && start - back > 0
+                       && base[start - back - 1] == target[i - back - 1]) {
+                    back += 1;
+                }
+                insert(out, target, pending, i - back);
+                out.write(COPY);
+                writeVarint(out, start - back);
+                writeVarint(out, len + back);
+                i += len;
+                pending = i;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+            } else {
+                if (i + BLOCK < target.length) {
+                    h = (h - target[i] * PRIME_TOP) * PRIME + target[i + BLOCK];
+                }
+                i += 1;
+            }
+        }
+        insert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * rebuild the target of DELTA from BASE.
+     * @param base base bytes
+     * @param delta delta made by encode
+     * @return target bytes
+     * @throws GitletException delta does not belong to BASE, or is
+     *         truncated or corrupt.
+     */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        if (readVarint(delta, pos) != base.length) {
+            throw Utils.error("Delta does not match its base.");
+        }
+        byte[] target = new byte[(int) readVarint(delta, pos)];
+        int t = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]];
+            pos[0] += 1;
+            if (op == COPY) {
+                long offset = readVarint(delta, pos);
+                long len = readVarint(delta, pos);
+                if (offset + len > base.length || t + len > target.length) {
+                    throw Utils.error("Delta is corrupt.");
+                }
+                System.arraycopy(base, (int) offset, target, t, (int) len);
+                t += len;
+            } else if (op == INSERT) {
+                int len = (int) readVarint(delta, pos);
+                if (pos[0] + len > delta.length) {
+                    throw Utils.error("Delta is truncated.");
+                }
+                if (t + len > target.length) {
+                    throw Utils.error("Delta is corrupt.");
+                }
+                System.arraycopy(delta, pos[0], target, t, len);
+                pos[0] += len;
+                t += len;
+            } else {
+                throw Utils.error("Bad delta instruction %d.", op);
+            }
+        }
+        if (t != target.length) {
+            throw Utils.error("Delta is truncated.");
+        }
+        return target;
+    }
+
+    /**
+     * write an INSERT of TARGET[FROM..TO) to OUT, if it is not empty.
+     * @param out delta being built
+     * @param target target bytes
+     * @param from first byte
+     * @param to end of range
+     */
+    private static void insert(ByteArrayOutputStream out, byte[] target,
+        int from, int to) {
+        if (from < to) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /**
+     * hash of the BLOCK bytes of B starting at I.
+     * @param b bytes
+     * @param i start
+     * @return hash
+     */
+    private static int hash(byte[] b, int i) {
+        int h = 0;
+        for (int k = 0; k < BLOCK; k += 1) {
+            h = h * PRIME + b[i + k];
+        }
+        return h;
+    }
+
+    /**
+     * X to the power N, modulo 2^32.
+     * @param x base
+     * @param n exponent
+     * @return power
+     */
+    private static int pow(int x, int n) {
+        int r = 1;
+        for (int k = 0; k < n; k += 1) {
+            r *= x;
+        }
+        return r;
+    }
+
+    /**
+     * are A[I..I+LEN) and B[J..J+LEN) equal?
+     * @param a first array
+     * @param i start in A
+     * @param b second array
+     * @param j start in B
+     * @param len length
+     * @return true if equal
+     */
+    private static boolean equal(byte[] a, int i, byte[] b, int j, int len) {
+        return java.util.Arrays.equals(a, i, i + len, b, j, j + len);
+    }
+
+    /**
+     * write V to OUT in 7-bit groups, low group first.
+     * @param out stream
+     * @param v non-negative value
+     */
+    static void writeVarint(ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7fL) != 0) {
+            out.write((int) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    /**
+     * read a varint from B at POS[0], advancing POS[0] past it.
+     * @param b bytes
+     * @param pos one-element array holding the position
+     * @return value
+     * @throws GitletException B ends inside the varint, or it is too
+     *         long.
+     */
+    static long readVarint(byte[] b, int[] pos) {
+        long v = 0;
+        int shift = 0;
+        while (true) {
+            if (pos[0] >= b.length) {
+                throw Utils.error("Delta is truncated.");
+            }
+            if (shift > 56) {
+                throw Utils.error("Delta is corrupt.");
+            }
+            int c = b[pos[0]] & 0xff;
+            pos[0] += 1;
+            v |= (long) (c & 0x7f) << shift;
+            if ((c & 0x80) == 0) {
+                return v;
+            }
+            shift += 7;
+        }
+    }
+}
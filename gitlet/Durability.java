@@ -0,0 +1,264 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * How files in .gitlet reach the disk. Every file is written to a
+ * temporary file in its own folder and renamed into place, so readers
+ * and crashes only ever see the old or the new version. The
+ * "durability" setting decides when data is forced to the disk:
+ *
+ *      none      never; a crash may lose recent commands.
+ *      command   (default) each command is one transaction. New objects
+ *                stay in their temporary files until commit(), which
+ *                forces them all, renames them into place, forces their
+ *                folders once each, and only then replaces the state
+ *                file. A crash leaves the state of the last command.
+ *      paranoid  as command, but every object is also forced and
+ *                renamed as soon as it is written.
+ *
+ * Objects may be published from several threads at once, as add stores
+ * them; the pending objects are only touched while holding the class.
+ *
+ * @author Solomon Cheung
+ */
+class Durability {
+
+    /** setting value: never force. */
+    static final String NONE = "none";
+
+    /** setting value: force once per command. */
+    static final String COMMAND = "command";
+
+    /** setting value: force every file as it is written. */
+    static final String PARANOID = "paranoid";
+
+    /** the mode in use, from the "durability" setting. */
+    private static String _mode;
+
+    /** objects written in this transaction: object file to the
+     *  temporary file holding it. */
+    private static final LinkedHashMap<File, File> _pending =
+        new LinkedHashMap<>();
+
+    /**
+     * the durability mode.
+     * @return NONE, COMMAND or PARANOID
+     * @throws GitletException the setting is not one of those.
+     */
+    static String mode() {
+        if (_mode == null) {
+            String mode = Config.get("durability", COMMAND).trim();
+            if (!mode.equals(NONE) && !mode.equals(COMMAND)
+                && !mode.equals(PARANOID)) {
+                throw Utils.error("Bad value for durability: %s", mode);
+            }
+            _mode = mode;
+        }
+        return _mode;
+    }
+
+    /**
+     * make the finished temporary file TMP the object file TARGET, now
+     * or at the next commit(), depending on the mode. TMP belongs to
+     * this class afterwards.
+     * @param tmp temporary file in the folder of TARGET's fan-out folder
+     * @param target object file
+     * @throws IOException
+     */
+    static synchronized void publish(File tmp, File target)
+        throws IOException {
+        switch (mode()) {
+        case COMMAND:
+            _pending.put(target, tmp);
+            break;
+        case PARANOID:
+            force(tmp);
+            target.getParentFile().mkdirs();
+            Files.move(tmp.toPath(), target.toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+            forceFolder(target.getParentFile());
+            break;
+        default:
+            target.getParentFile().mkdirs();
+            Files.move(tmp.toPath(), target.toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * the temporary file holding object file TARGET if it was written in
+     * this transaction and is not in place yet.
+     * @param target object file
+     * @return temporary file, or null
+     */
+    static synchronized File pending(File target) {
+        return _pending.get(target);
+    }
+
+    /**
+     * whether TMP is the temporary file of an object pending in this
+     * transaction, which must not be linked or made read-only, as
+     * commit() still forces it.
+     * @param tmp a file
+     * @return true if it is pending
+     */
+    static synchronized boolean isPending(File tmp) {
+        return _pending.containsValue(tmp);
+    }
+
+    /**
+     * put every pending object in place durably: force them all, rename
+     * them all, then force each folder they went into.
+     */
+    static synchronized void commit() {
+        if (_pending.isEmpty()) {
+            return;
+        }
+        try {
+            for (File tmp : _pending.values()) {
+                force(tmp);
+            }
+            LinkedHashSet<File> folders = new LinkedHashSet<>();
+            for (Map.Entry<File, File> entry : _pending.entrySet()) {
+                File target = entry.getKey();
+                if (target.exists()) {
+                    entry.getValue().delete();
+                    continue;
+                }
+                target.getParentFile().mkdirs();
+                Files.move(entry.getValue().toPath(), target.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+                folders.add(target.getParentFile());
+                folders.add(target.getParentFile().getParentFile());
+            }
+            for (File folder : folders) {
+                forceFolder(folder);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _pending.clear();
+    }
+
+    /**
+     * drop every pending object of a failed transaction, deleting its
+     * temporary file, so nothing it wrote is ever put in place.
+     */
+    static synchronized void abort() {
+        for (File tmp : _pending.values()) {
+            tmp.delete();
+        }
+        _pending.clear();
+    }
+
+    /**
+     * replace TARGET with the finished temporary file TMP, in the same
+     * folder, forcing it first unless the mode is NONE.
+     * @param tmp temporary file
+     * @param target file to create or replace
+     */
+    static void replace(File tmp, File target) {
+        try {
+            boolean durable = !mode().equals(NONE);
+            if (durable) {
+                force(tmp);
+            }
+            Files.move(tmp.toPath(), target.toPath(),
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+            if (durable) {
+                forceFolder(target.getParentFile());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * commit() the objects of this transaction, then replace TARGET
+     * with CONTENTS.
+     * @param target state file
+     * @param contents its new contents
+     */
+    static void writeState(File target, byte[] contents) {
+        commit();
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("tmp_", null, target.getParentFile());
+            Files.write(tmp.toPath(), contents);
+            replace(tmp, target);
+            tmp = null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * commit() the objects of this transaction, then append RECORD to
+     * TARGET where its valid contents end, at LENGTH, cutting off
+     * anything after that (such as a record torn by a crash), and force
+     * it unless the mode is NONE.
+     * @param target journal file
+     * @param length length of its valid contents
+     * @param record bytes to append
+     */
+    static void append(File target, long length, byte[] record) {
+        commit();
+        try (FileChannel ch = FileChannel.open(target.toPath(),
+                 StandardOpenOption.WRITE)) {
+            if (ch.size() != length) {
+                ch.truncate(length);
+            }
+            ByteBuffer buf = ByteBuffer.wrap(record);
+            long pos = length;
+            while (buf.hasRemaining()) {
+                pos += ch.write(buf, pos);
+            }
+            if (!mode().equals(NONE)) {
+                ch.force(false);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * force the contents of FILE to the disk.
+     * @param file file
+     * @throws IOException
+     */
+    private static void force(File file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath(),
+                 StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+    }
+
+    /**
+     * force the entries of FOLDER to the disk, where the platform
+     * supports opening folders.
+     * @param folder folder
+     */
+    private static void forceFolder(File folder) {
+        try (FileChannel ch = FileChannel.open(folder.toPath(),
+                 StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException excp) {
+            return;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package gitlet;
 
 import java.util.HashMap;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.Map.Entry;
 import java.sql.Timestamp;
 import java.io.File;
@@ -49,17 +50,46 @@ public class Gitlet implements Serializable {
      */
     static final String ABS_BLOB_FOLDER = GITLET_FOLDER
         + "/" + BLOB_FOLDER;
+    /**
+     * folder for the chunks of large blobs (see Chunker).
+     */
+    static final String CHUNK_FOLDER = "chunks";
+    /**
+     * absolute gitlet chunk folder.
+     */
+    static final String ABS_CHUNK_FOLDER = GITLET_FOLDER
+        + "/" + CHUNK_FOLDER;
+    /**
+     * folder for the Trees of commits' snapshots (see Tree).
+     */
+    static final String TREE_FOLDER = "trees";
+    /**
+     * absolute gitlet tree folder.
+     */
+    static final String ABS_TREE_FOLDER = GITLET_FOLDER
+        + "/" + TREE_FOLDER;
 
     /**
-     * maps branch names to branches.
+     * maps branch names to the branches read from Refs or added by this
+     * command.
      */
     private TreeMap<String, Branch> _branches = new TreeMap<>();
 
     /**
-     * current branch.
+     * names of the branches removed by this command.
+     */
+    private transient TreeSet<String> _removedBranches = new TreeSet<>();
+
+    /**
+     * current branch; null until read from Refs or set.
      */
     private Branch _headBranch = null;
 
+    /**
+     * whether setHeadBranch was called since the last save.
+     */
+    private transient boolean _headMoved;
+
     /**
      * staged file names.
      */
@@ -70,38 +100,158 @@ public class Gitlet implements Serializable {
      */
     private StagingArea _removingArea = new StagingArea();
 
+    /**
+     * the head commit as last loaded by getHead(), so that it is read
+     * once per command.
+     */
+    private transient Commit _head;
+
+    /**
+     * the journal that save() appends this object's changes to; null
+     * for an object not loaded from .gitlet, or while it is being
+     * loaded, so that no changes are recorded.
+     */
+    private transient StateJournal _journal;
+
     /**
      * get the hash from the file specified by fileName in HEAD.
      * @param fileName
      * @return gethashinHeadFromFileName
      */
     static String getHashInHeadFromFileName(String fileName) {
-        return Gitlet.GITLET_OBJECT.getHead().getTrackedFiles().get(fileName);
+        return Gitlet.GITLET_OBJECT.getHead().getHashFromFileName(fileName);
     }
 
     /**
      * return the gitlet object file in the .gitlet folder.
      *
+     * Files written by older versions are read through Legacy. The
+     * changes recorded in the StateJournal since the file was written
+     * are then replayed. Branches are read from Refs as they are asked
+     * for; files written before there were Refs hold the branches
+     * instead, which the next save() moves into Refs.
      * @return an instance of gitlet.
      * @throws IllegalArgumentException file not found.
-     * @see Utils#readObject
      */
     static Gitlet loadGitlet() {
         File gitletFile = new File(System.getProperty("user.dir"),
             ABS_GITLET_OBJECT_FILENAME);
+        Gitlet gitlet;
+        StateJournal journal;
         if (!gitletFile.exists()) {
-            return new Gitlet();
+            gitlet = new Gitlet();
+            journal = new StateJournal(null);
+        } else {
+            byte[] bytes = Utils.readContents(gitletFile);
+            if (Codec.isLegacy(bytes)) {
+                gitlet = Legacy.readState(bytes);
+                journal = new StateJournal(null);
+            } else {
+                gitlet = decode(bytes);
+                journal = new StateJournal(bytes);
+            }
+        }
+        journal.replay(gitlet);
+        if (!gitlet._branches.isEmpty()) {
+            journal.rewrite();
+        }
+        gitlet._journal = journal;
+        return gitlet;
+    }
+
+    /**
+     * the encoding of the gitlet object (see Codec): the branches sorted
+     * by name, the name of the head branch, then the staging and
+     * removing areas. Branches are kept in Refs, so an object loaded
+     * from .gitlet is written with none and an empty head name.
+     * @return encoded bytes
+     */
+    byte[] encode() {
+        Codec.Output out = new Codec.Output(Codec.STATE);
+        if (_journal != null) {
+            out.writeVarint(0);
+            out.writeString("");
+        } else {
+            out.writeVarint(_branches.size());
+            String previous = "";
+            for (Branch branch : _branches.values()) {
+                branch.encode(out, previous);
+                previous = branch.getName();
+            }
+            out.writeString(_headBranch == null ? ""
+                : _headBranch.getName());
+        }
+        _stagingArea.encode(out);
+        _removingArea.encode(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * the gitlet object encoded in BYTES by encode().
+     * @param bytes encoded bytes
+     * @return gitlet object
+     */
+    static Gitlet decode(byte[] bytes) {
+        Codec.Input in = new Codec.Input(bytes);
+        if (in.readHeader() != Codec.STATE) {
+            throw Utils.error("Not an encoded gitlet object.");
         }
-        return Utils.readObject(gitletFile, Gitlet.class);
+        Gitlet gitlet = new Gitlet();
+        int count = in.readCount();
+        String previous = "";
+        for (int i = 0; i < count; i += 1) {
+            Branch branch = Branch.decode(in, previous);
+            gitlet.addBranch(branch);
+            previous = branch.getName();
+        }
+        String head = in.readString();
+        if (!head.isEmpty()) {
+            gitlet.setHeadBranch(gitlet.getBranch(head));
+        }
+        gitlet._stagingArea.decode(in);
+        gitlet._removingArea.decode(in);
+        return gitlet;
+    }
+
+    /**
+     * load the commit with the full hash HASH from .gitlet, or take it
+     * from the CommitCache if this process loaded it already.
+     * Only that one commit file is read; its parents are resolved lazily
+     * through Commit#getParent and Merge#getParent2 as they are walked.
+     * @param hash full commit hash
+     * @return commit
+     * @throws GitletException commit file missing.
+     */
+    static Commit getCommit(String hash) {
+        Commit cached = CommitCache.get(hash);
+        if (cached != null) {
+            return cached;
+        }
+        if (!ObjectStore.contains(ABS_COMMIT_FOLDER, hash)) {
+            throw Utils.error("Gitlet::getCommit FILE MISSING "
+            + "SOMETHING WENT WRONG @ %s",
+            ABS_COMMIT_FOLDER + "/" + hash);
+        }
+
+        byte[] bytes = ObjectStore.read(ABS_COMMIT_FOLDER, hash);
+        Commit commit = Codec.isLegacy(bytes) ? Legacy.readCommit(hash, bytes)
+            : Commit.decode(bytes);
+        commit._id = hash;
+        CommitCache.put(hash, commit, bytes.length);
+        return commit;
     }
 
     /**
      * Get the head commit currently being tracked.
-     * Returns getHeadBranch().getCommit().
+     * Returns getHeadBranch().getCommit(), loading it only when the head
+     * has moved since the last call.
      * @return headbranchCommit
      */
     public Commit getHead() {
-        return getHeadBranch().getCommit();
+        if (_head == null || !_head.getID().equals(getHeadHash())) {
+            _head = getHeadBranch().getCommit();
+        }
+        return _head;
     }
 
     /**
@@ -113,28 +263,70 @@ public class Gitlet implements Serializable {
     }
 
     /**
-     * get the head branch.
+     * get the head branch, reading HEAD the first time.
      * @return headBranch
      */
     public Branch getHeadBranch() {
+        if (_headBranch == null && !_headMoved && _journal != null) {
+            String name = Refs.head();
+            if (name != null) {
+                _headBranch = getBranch(name);
+            }
+        }
         return _headBranch;
     }
 
     /**
-     * get the map of all branches.
+     * get the map of all branches. This lists every ref; changes go
+     * through addBranch and removeBranch.
      * @return TreeMap of branches
      */
     TreeMap<String, Branch> getBranches() {
-        return _branches;
+        TreeMap<String, Branch> branches = new TreeMap<>();
+        if (_journal != null) {
+            for (java.util.Map.Entry<String, String> ref
+                     : Refs.all().entrySet()) {
+                if (!_removedBranches.contains(ref.getKey())) {
+                    branches.put(ref.getKey(),
+                        loadedBranch(ref.getKey(), ref.getValue()));
+                }
+            }
+        }
+        branches.putAll(_branches);
+        return branches;
     }
 
     /**
-     * get a branch by name.
+     * get a branch by name, reading its ref the first time.
      * @param branch
      * @return an instance of branch.
      */
     public Branch getBranch(String branch) {
-        return _branches.get(branch);
+        Branch loaded = _branches.get(branch);
+        if (loaded == null && _journal != null
+            && !_removedBranches.contains(branch)) {
+            String id = Refs.read(branch);
+            if (id != null) {
+                loaded = loadedBranch(branch, id);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * the branch NAME as read from its ref, pointing at ID.
+     * @param name branch name
+     * @param id commit id in the ref
+     * @return the branch already loaded, or a new one
+     */
+    private Branch loadedBranch(String name, String id) {
+        Branch branch = _branches.get(name);
+        if (branch == null) {
+            branch = new Branch(name, id);
+            branch._savedHash = id;
+            _branches.put(name, branch);
+        }
+        return branch;
     }
 
     /**
@@ -159,6 +351,7 @@ public class Gitlet implements Serializable {
      */
     public void setHeadBranch(Branch b) {
         _headBranch = b;
+        _headMoved = true;
     }
 
     /**
@@ -167,6 +360,7 @@ public class Gitlet implements Serializable {
      */
     public void addBranch(Branch branch) {
         _branches.put(branch.getName(), branch);
+        _removedBranches.remove(branch.getName());
     }
 
     /**
@@ -175,68 +369,102 @@ public class Gitlet implements Serializable {
      * @return removed branch
      */
     public Branch removeBranch(Branch branch) {
+        _removedBranches.add(branch.getName());
         return _branches.remove(branch.getName());
     }
 
     /**
-     * save the gitlet object file in the .gitlet folder.
+     * save the gitlet object in the .gitlet folder. This ends the
+     * command's transaction: the objects it wrote are made durable
+     * first and new commits added to the CommitIndex, and then either a
+     * record of the changes is appended to the StateJournal or the
+     * gitlet object file is replaced atomically (see Durability). The
+     * Materializer's record of the working files this command changed
+     * is then no longer needed.
      */
     public void save() {
-        Utils.writeObject(new File(System.getProperty("user.dir"),
-            ABS_GITLET_OBJECT_FILENAME), this);
+        CommitIndex.flush();
+        if (_journal == null) {
+            Durability.writeState(new File(System.getProperty("user.dir"),
+                ABS_GITLET_OBJECT_FILENAME), encode());
+        } else {
+            saveRefs();
+            _journal.save(this);
+        }
+        Materializer.saved();
     }
 
-    public java.util.HashMap<String, Boolean> unstagedFiles() {
-        java.util.HashMap<String, Boolean> files = new
-            java.util.HashMap<String, Boolean>();
-
-        for (Entry<String, String> stagedFileEntry : _stagingArea.getFiles().entrySet()) {
-            File file = new File(System.getProperty("user.dir"), stagedFileEntry.getKey());
-
-            if (!file.exists()) {
-                if (!_removingArea.hasFile(stagedFileEntry.getKey())) {
-                    files.put(stagedFileEntry.getKey(), true);
-                }
-                continue;
-            }
-
-            Blob tmpBlob = Blob.fromFileName(stagedFileEntry.getKey());
-
-            if (!tmpBlob.getId().equals(stagedFileEntry.getValue())) {
-                files.put(stagedFileEntry.getKey(), false);
+    /**
+     * write the branches created, moved or removed since the last save,
+     * and HEAD if it moved, in one Refs.Transaction.
+     */
+    private void saveRefs() {
+        Refs.Transaction refs = new Refs.Transaction();
+        for (String name : _removedBranches) {
+            refs.delete(name);
+        }
+        for (Branch branch : _branches.values()) {
+            if (!branch._commitHash.equals(branch._savedHash)) {
+                refs.update(branch._name, branch._savedHash,
+                    branch._commitHash);
             }
         }
+        if (_headMoved && _headBranch != null) {
+            refs.setHead(_headBranch.getName());
+        }
+        refs.commit();
+        for (Branch branch : _branches.values()) {
+            branch._savedHash = branch._commitHash;
+        }
+        _removedBranches.clear();
+        _headMoved = false;
+    }
 
-        for (Entry<String, String> commitFileEntry : getHead().getTrackedFiles().entrySet()) {
-            if (_stagingArea.isStaged(commitFileEntry.getKey())) {
-                continue;
+    /**
+     * the staged and tracked files that differ in the working directory,
+     * in path order. Their blob ids are looked up in parallel (see
+     * WorkTree).
+     * @return file names, mapped to true if deleted or false if modified
+     */
+    public java.util.TreeMap<String, Boolean> unstagedFiles() {
+        java.util.TreeMap<String, Boolean> files = new
+            java.util.TreeMap<String, Boolean>();
+        java.util.ArrayList<String> names = new java.util.ArrayList<>();
+        java.util.ArrayList<String> expected = new java.util.ArrayList<>();
+        _stagingArea.getFiles().forEach((name, id) -> {
+            names.add(name);
+            expected.add(id);
+        });
+        getHead().getTrackedFiles().forEach((name, id) -> {
+            if (!_stagingArea.isStaged(name)) {
+                names.add(name);
+                expected.add(id);
             }
-
-            File file = new File(System.getProperty("user.dir"), commitFileEntry.getKey());
-
-            if (!file.exists()) {
-                if (!_removingArea.hasFile(commitFileEntry.getKey())) {
-                    files.put(commitFileEntry.getKey(), true);
+        });
+
+        String[] ids = WorkTree.hash(names);
+        for (int i = 0; i < ids.length; i += 1) {
+            String name = names.get(i);
+            if (ids[i] == null) {
+                if (!_removingArea.hasFile(name)) {
+                    files.put(name, true);
                 }
-                continue;
-            }
-            Blob tmpBlob = Blob.fromFileName(commitFileEntry.getKey());
-            if (!tmpBlob.getId().equals(commitFileEntry.getValue())) {
-                files.put(commitFileEntry.getKey(), false);
+            } else if (!ids[i].equals(expected.get(i))) {
+                files.put(name, false);
             }
         }
-
         return files;
     }
 
-
+    /**
+     * the plain files of the working directory that are neither tracked
+     * nor staged, sorted. Those not tracked come from UntrackedCache.
+     * @return file names
+     */
     public java.util.List<String> untrackedFiles() {
         java.util.ArrayList<String> files = new java.util.ArrayList<String>();
-        java.util.List<String> localFiles = Utils.plainFilenamesIn(
-            new File(System.getProperty("user.dir")));
-        for (String file : localFiles) {
-            if (getHead().getTrackedFiles().get(file) == null
-                && !_stagingArea.isStaged(file)) {
+        for (String file : UntrackedCache.candidates(getHead())) {
+            if (!_stagingArea.isStaged(file)) {
                 files.add(file);
             }
         }
@@ -245,19 +473,44 @@ public class Gitlet implements Serializable {
 
     /**
      * blob file.
+     * A blob is identified by the sha1 of its bytes. Blobs read from the
+     * working directory or from .gitlet only remember where their bytes
+     * are; contents are streamed when hashed, stored or written out.
      */
     public static class Blob implements Serializable {
         /**
-         * contents of a file.
+         * hash ID of the contents.
+         */
+        private String _id;
+
+        /**
+         * working file holding the contents, for blobs made by
+         * fromFileName.
          */
-        private String _contents;
+        private transient File _source;
 
         /**
-         * contents accessor.
+         * contents of a blob built in memory (e.g. a merge conflict),
+         * null otherwise. Blobs with neither _source nor _contents are
+         * read from their object in .gitlet.
+         */
+        private byte[] _contents;
+
+        /**
+         * contents accessor. Reads the whole blob as UTF-8 text, so only
+         * use it where text is needed, such as merge conflicts.
          * @return contents
          */
         public String getContents() {
-            return  _contents;
+            if (_contents != null) {
+                return new String(_contents,
+                    java.nio.charset.StandardCharsets.UTF_8);
+            }
+            if (_source != null) {
+                return Utils.readContentsAsString(_source);
+            }
+            return new String(ObjectStore.read(ABS_BLOB_FOLDER, _id),
+                java.nio.charset.StandardCharsets.UTF_8);
         }
 
         /**
@@ -265,29 +518,38 @@ public class Gitlet implements Serializable {
          * @param content
          */
         Blob(String content) {
-            _contents = content;
+            _contents = content.getBytes(
+                java.nio.charset.StandardCharsets.UTF_8);
+            _id = Utils.sha1(_contents);
+        }
+
+        /**
+         * initialize a blob whose contents are in SOURCE.
+         * @param id hash of the contents
+         * @param source file holding the contents
+         */
+        private Blob(String id, File source) {
+            _id = id;
+            _source = source;
         }
 
         /**
          * load the blob from its file in .gitlet.
-         * @see Utils#readContents(File)
          * @param hash
          * @return blob
          */
         static Blob fromHash(String hash) {
-            File targetFile = new File(System.getProperty("user.dir"),
-                ABS_BLOB_FOLDER + "/" + hash);
-
-            if (!targetFile.exists()) {
+            if (!ObjectStore.contains(ABS_BLOB_FOLDER, hash)) {
                 throw Utils.error("Blob::fromHash FILE MISSING "
                 + "SOMETHING WENT WRONG @ %s", ABS_BLOB_FOLDER + "/" + hash);
             }
 
-            return new Blob(Utils.readContentsAsString(targetFile));
+            return new Blob(hash, null);
         }
 
         /**
-         * load the file into a blob.
+         * load the file into a blob, hashing it as a stream unless the
+         * StatCache knows its hash.
          * @param fileName
          * @throws IllegalArgumentException file not valid, ioexcept
          * @return Blob Object from file
@@ -295,26 +557,46 @@ public class Gitlet implements Serializable {
         static Blob fromFileName(String fileName) {
             File stagingFile = new File(System.getProperty("user.dir"),
                 fileName);
-            return new Blob(Utils.readContentsAsString(stagingFile));
+            return new Blob(StatCache.hash(stagingFile), stagingFile);
         }
 
         /**
-         * compute and get the hash ID for the blob.
-         * @see Utils#sha1
+         * get the hash ID for the blob.
          * @return sha1
          */
         String getId() {
-            return Utils.sha1(_contents);
+            return _id;
         }
 
         /**
-         * saves the blob in .gitlet.
-         * @see Utils#writeContents
+         * saves the blob in .gitlet, unless it is already there. A
+         * working file that changed since it was hashed is stored as it
+         * is now, and the blob takes its new id.
+         * @see ObjectStore#store
          */
         void save() {
-            Utils.writeContents(new File(System.getProperty("user.dir"),
-                ABS_BLOB_FOLDER + "/" + getId()),
-                _contents);
+            if (_contents != null) {
+                ObjectStore.store(ABS_BLOB_FOLDER, _id, _contents);
+            } else if (_source != null) {
+                _id = ObjectStore.store(ABS_BLOB_FOLDER, _id, _source);
+            }
+        }
+
+        /**
+         * write the contents of the blob to TARGET,
+         * creating or overwriting it, and record it in the StatCache.
+         * @param target file to write
+         */
+        void writeTo(File target) {
+            if (_contents != null) {
+                ObjectStore.detach(target);
+                Utils.writeContents(target, _contents);
+            } else if (_source != null) {
+                ObjectStore.copy(_source, target);
+            } else {
+                ObjectStore.copyTo(ABS_BLOB_FOLDER, _id, target);
+            }
+            StatCache.record(target, _id);
         }
     }
 
@@ -326,25 +608,16 @@ public class Gitlet implements Serializable {
          * set of filenames in the staging area.
          * (the value is the blob hash string).
          */
-        private TreeMap<String, String> _area = new TreeMap<String, String>();
+        private Manifest _area = new Manifest();
 
         /**
          * area accessor.
          * @return _area
          */
-        public TreeMap<String, String> getArea() {
+        public Manifest getArea() {
             return _area;
         }
 
-        /**
-         * add the filename blob map to the staging area.
-         * @param fileName file name
-         */
-        void stage(String fileName) {
-            Blob file = Blob.fromFileName(fileName);
-            _area.put(fileName, file.getId());
-        }
-
         /**
          * add the filename blob map to the staging area.
          * @param fileName file name
@@ -352,6 +625,9 @@ public class Gitlet implements Serializable {
          */
         void stage(String fileName, String hash) {
             _area.put(fileName, hash);
+            if (_journal != null) {
+                _journal.stage(journalArea(), fileName, hash);
+            }
         }
 
         /**
@@ -360,6 +636,9 @@ public class Gitlet implements Serializable {
          */
         void unstage(String fileName) {
             _area.remove(fileName);
+            if (_journal != null) {
+                _journal.unstage(journalArea(), fileName);
+            }
         }
 
         /**
@@ -367,6 +646,18 @@ public class Gitlet implements Serializable {
          */
         void clear() {
             _area.clear();
+            if (_journal != null) {
+                _journal.clear(journalArea(), Gitlet.this);
+            }
+        }
+
+        /**
+         * the area byte that names this area in the StateJournal.
+         * @return StateJournal.STAGING or StateJournal.REMOVING
+         */
+        private int journalArea() {
+            return this == _stagingArea ? StateJournal.STAGING
+                : StateJournal.REMOVING;
         }
 
         /**
@@ -400,9 +691,44 @@ public class Gitlet implements Serializable {
         /**
          * returns _area.
          */
-        TreeMap<String, String> getFiles() {
+        Manifest getFiles() {
             return _area;
         }
+
+        /**
+         * write the area to OUT: its size, then each file name and
+         * whether a blob id follows it (removals have none).
+         * @param out encoding buffer
+         */
+        void encode(Codec.Output out) {
+            out.writeVarint(_area.size());
+            String previous = "";
+            for (Entry<String, String> entry : _area.entrySet()) {
+                out.writeKey(previous, entry.getKey());
+                if (entry.getValue().isEmpty()) {
+                    out.writeVarint(0);
+                } else {
+                    out.writeVarint(1);
+                    out.writeId(entry.getValue());
+                }
+                previous = entry.getKey();
+            }
+        }
+
+        /**
+         * read the entries written by encode from IN into the area.
+         * @param in value being decoded
+         */
+        void decode(Codec.Input in) {
+            int count = in.readCount();
+            String previous = "";
+            for (int i = 0; i < count; i += 1) {
+                String fileName = in.readKey(previous);
+                _area.append(fileName, in.readVarint() == 0 ? ""
+                    : in.readId());
+                previous = fileName;
+            }
+        }
     }
 
     static class Commit implements Serializable {
@@ -419,12 +745,39 @@ public class Gitlet implements Serializable {
         }
 
         /**
-         * hash for parent commit.
+         * hash for parent commit, null for the initial commit.
+         */
+        private String _parentHash;
+
+        /**
+         * parent commit of a commit made by this process; loaded commits
+         * look their parent up through the CommitCache instead.
+         * never written to disk.
          */
-        private Commit _parentCommit;
+        private transient Commit _parentCommit;
 
         public Commit getParentCommit() {
-            return _parentCommit;
+            return getParent();
+        }
+
+        /**
+         * hash of the parent commit.
+         * @return _parentHash, null for the initial commit
+         */
+        String getParentHash() {
+            return _parentHash;
+        }
+
+        /**
+         * hashes of every parent of this commit, first parent first.
+         * @return list of parent hashes (empty for the initial commit)
+         */
+        java.util.List<String> getParentHashes() {
+            java.util.ArrayList<String> hashes = new java.util.ArrayList<>();
+            if (_parentHash != null) {
+                hashes.add(_parentHash);
+            }
+            return hashes;
         }
 
         /**
@@ -437,20 +790,88 @@ public class Gitlet implements Serializable {
         }
 
         /**
-         * mapping of tracked file names to hash values for blobs.
+         * id of the root Tree of the commit's snapshot. null for a commit
+         * read from a version that stored _trackedFiles, until
+         * getTreeHash() is called, and for a new initial commit.
+         */
+        private String _treeHash;
+
+        /**
+         * files tracked or untracked since the commit was created, not
+         * yet applied to _treeHash: file name to blob hash, or to null
+         * if untracked.
+         */
+        private transient TreeMap<String, String> _changes = new
+            TreeMap<String, String>();
+
+        /**
+         * mapping of tracked file names to hash values for blobs, built
+         * from the Tree on first use.
          */
-        private HashMap<String, String> _trackedFiles = new
-            HashMap<String, String>();
+        private Manifest _trackedFiles;
 
-        public HashMap<String, String> getTrackedFiles() {
+        /**
+         * every tracked file. Reads all of the commit's Trees the first
+         * time; prefer getHashFromFileName for single files.
+         * @return file names to blob hashes
+         */
+        public Manifest getTrackedFiles() {
+            if (_trackedFiles == null) {
+                _trackedFiles = _treeHash == null ? new Manifest()
+                    : Tree.flatten(_treeHash);
+                for (java.util.Map.Entry<String, String> change
+                    : _changes.entrySet()) {
+                    if (change.getValue() == null) {
+                        _trackedFiles.remove(change.getKey());
+                    } else {
+                        _trackedFiles.put(change.getKey(), change.getValue());
+                    }
+                }
+                if (_id != null) {
+                    CommitCache.grew(_id, this, _trackedFiles.size()
+                        * CommitCache.BYTES_PER_FILE);
+                }
+            }
             return _trackedFiles;
         }
 
+        /**
+         * id of the root Tree of the commit's snapshot, storing the
+         * Trees that changed since the commit was created or, for a
+         * commit of an older version, all of them.
+         * @return tree id
+         */
+        String getTreeHash() {
+            if (_treeHash == null && _trackedFiles != null) {
+                _treeHash = Tree.write(_trackedFiles);
+                _changes.clear();
+            } else if (_treeHash == null || !_changes.isEmpty()) {
+                _treeHash = Tree.update(_treeHash, _changes);
+                _changes.clear();
+            }
+            return _treeHash;
+        }
+
+        /**
+         * the id of the commit's root Tree if one is stored, without
+         * writing one as getTreeHash() would.
+         * @return tree id, or null for a commit read from a version 1
+         *         encoding or changed since it was loaded
+         */
+        String storedTreeHash() {
+            return _changes.isEmpty() ? _treeHash : null;
+        }
+
         /**
          * whether the commit is a merge.
          */
         protected boolean _isMerge;
 
+        /**
+         * cached hash ID of the commit, see getID().
+         */
+        private transient String _id;
+
         /**
          * shhhhh we don't talk about this.
          */
@@ -474,57 +895,207 @@ public class Gitlet implements Serializable {
             _message = message;
             _parentCommit = parentCommit;
             if (parentCommit != null) {
-                for (java.util.Map.Entry<String, String> entry
-                    : parentCommit.getTrackedFiles().entrySet()) {
-                    _trackedFiles.put(entry.getKey(), entry.getValue());
-                }
+                _parentHash = parentCommit.getID();
+                _treeHash = parentCommit.getTreeHash();
+            }
+        }
+
+        /**
+         * a commit with the given contents, as read back from a version
+         * that stored the tracked files in the commit.
+         * @param message log message
+         * @param timestamp commit time
+         * @param parents parent hashes, first parent first (0 to 2)
+         * @param files tracked file names and blob hashes
+         * @return a Commit, or a Merge if there are two parents
+         */
+        static Commit restore(String message, Timestamp timestamp,
+            java.util.List<String> parents, java.util.Map<String, String>
+            files) {
+            Commit commit = restore(message, timestamp, parents);
+            commit._trackedFiles = new Manifest(files);
+            return commit;
+        }
+
+        /**
+         * a commit with the given contents and no files yet.
+         * @param message log message
+         * @param timestamp commit time
+         * @param parents parent hashes, first parent first (0 to 2)
+         * @return a Commit, or a Merge if there are two parents
+         */
+        private static Commit restore(String message, Timestamp timestamp,
+            java.util.List<String> parents) {
+            Commit commit;
+            if (parents.size() == 2) {
+                Merge merge = new Merge(message);
+                merge._parent2Hash = parents.get(1);
+                commit = merge;
+            } else {
+                commit = new Commit(message, null);
+            }
+            commit._timestamp = timestamp;
+            commit._parentHash = parents.isEmpty() ? null : parents.get(0);
+            return commit;
+        }
+
+        /**
+         * the encoding of the commit (see Codec): message, timestamp,
+         * parent hashes, then the id of its root Tree.
+         * @return encoded bytes
+         */
+        byte[] encode() {
+            Codec.Output out = new Codec.Output(
+                _isMerge ? Codec.MERGE : Codec.COMMIT);
+            out.writeString(_message);
+            out.writeSignedVarint(_timestamp == null ? 0
+                : _timestamp.getTime());
+            java.util.List<String> parents = getParentHashes();
+            out.writeVarint(parents.size());
+            for (String parent : parents) {
+                out.writeId(parent);
+            }
+            out.writeId(getTreeHash());
+            return out.toByteArray();
+        }
+
+        /**
+         * the commit encoded in BYTES by encode(), or by a version 1
+         * encoder, which wrote the tracked files sorted by name in place
+         * of the Tree.
+         * @param bytes encoded bytes
+         * @return commit
+         */
+        static Commit decode(byte[] bytes) {
+            Codec.Input in = new Codec.Input(bytes);
+            int type = in.readHeader();
+            if (type != Codec.COMMIT && type != Codec.MERGE) {
+                throw Utils.error("Not an encoded commit.");
             }
+            String message = in.readString();
+            Timestamp timestamp = new Timestamp(in.readSignedVarint());
+            int count = in.readCount();
+            java.util.ArrayList<String> parents = new java.util.ArrayList<>();
+            for (int i = 0; i < count; i += 1) {
+                parents.add(in.readId());
+            }
+            if (in.version() >= 2) {
+                Commit commit = restore(message, timestamp, parents);
+                commit._treeHash = in.readId();
+                return commit;
+            }
+            count = in.readCount();
+            HashMap<String, String> files = new HashMap<>(count * 2);
+            String previous = "";
+            for (int i = 0; i < count; i += 1) {
+                String fileName = in.readKey(previous);
+                files.put(fileName, in.readId());
+                previous = fileName;
+            }
+            return restore(message, timestamp, parents, files);
         }
 
         /**
-         * load the commit from it's file in .gitlet.
+         * load the commit from it's file in .gitlet. HASH may be
+         * abbreviated to any prefix that only one commit id starts with.
          * @param hash
          * @return Object from hash
+         * @throws IllegalArgumentException no commit with that id.
+         * @throws GitletException more than one commit has that prefix.
          */
         static Commit fromHash(String hash) {
             if (hash.length() < magicNumber) {
-                for (String a : Utils.plainFilenamesIn(ABS_COMMIT_FOLDER)) {
-                    if (a.substring(0, hash.length()).equals(hash)) {
-                        hash = a;
-                        break;
-                    }
+                java.util.List<String> ids = CommitIndex.resolve(hash, 2);
+                if (ids.size() > 1) {
+                    throw Utils.error("Commit id %s is ambiguous.", hash);
+                }
+                if (ids.size() == 1) {
+                    hash = ids.get(0);
                 }
             }
 
-            File targetFile = new File(System.getProperty("user.dir"),
-                ABS_COMMIT_FOLDER + "/" + hash);
-
-            if (!targetFile.exists()) {
-                throw Utils.error("Commit::fromHash FILE MISSING "
-                    + "SOMETHING WENT WRONG @ %d",
-                    ABS_COMMIT_FOLDER + "/" + hash);
+            if (!ObjectStore.contains(ABS_COMMIT_FOLDER, hash)) {
+                throw new IllegalArgumentException(String.format(
+                    "Commit::fromHash FILE MISSING @ %s",
+                    ABS_COMMIT_FOLDER + "/" + hash));
             }
 
-            return Utils.readObject(targetFile, Commit.class);
+            return getCommit(hash);
         }
 
         /**
-         * get the blob hash of a tracked filename
-         *  (stored in the tracked files).
+         * get the blob hash of a tracked filename, reading only the
+         *  Trees on its path.
          * @param fileName
-         * @return file from tracked files
+         * @return file from tracked files, or null
          */
         String getHashFromFileName(String fileName) {
-            return _trackedFiles.get(fileName);
+            if (_trackedFiles != null) {
+                return _trackedFiles.get(fileName);
+            }
+            if (_changes.containsKey(fileName)) {
+                return _changes.get(fileName);
+            }
+            return _treeHash == null ? null
+                : Tree.lookup(_treeHash, fileName);
         }
 
         /**
-         * compute and get the hash ID for the commit.
+         * get the hash ID for the commit.
+         * The ID is the sha1 of canonicalBytes(); it is computed at most
+         * once per change to the commit and is taken from the file name
+         * when the commit is loaded, so reading a commit never rehashes it.
          *
          * @return hashID
          */
         String getID() {
-            return Utils.sha1(Utils.serialize(this));
+            if (_id == null) {
+                _id = Utils.sha1(canonicalBytes());
+            }
+            return _id;
+        }
+
+        /**
+         * the canonical encoding that a commit's ID is computed from:
+         * message, timestamp, parent hashes, and the id of the root
+         * Tree, which stands for the tracked files. Independent of how
+         * the commit is encoded. Commits of older versions hashed their
+         * sorted files instead; their IDs are never recomputed.
+         *
+         * @return canonical bytes
+         */
+        byte[] canonicalBytes() {
+            try {
+                java.io.ByteArrayOutputStream bytes =
+                    new java.io.ByteArrayOutputStream();
+                java.io.DataOutputStream out =
+                    new java.io.DataOutputStream(bytes);
+                writeString(out, _message);
+                out.writeLong(_timestamp == null ? 0 : _timestamp.getTime());
+                java.util.List<String> parents = getParentHashes();
+                out.writeInt(parents.size());
+                for (String parent : parents) {
+                    writeString(out, parent);
+                }
+                writeString(out, getTreeHash());
+                out.close();
+                return bytes.toByteArray();
+            } catch (java.io.IOException excp) {
+                throw Utils.error("Internal error encoding commit.");
+            }
+        }
+
+        /**
+         * write S to OUT as a length-prefixed UTF-8 string.
+         * @param out stream
+         * @param s string
+         * @throws java.io.IOException
+         */
+        private static void writeString(java.io.DataOutputStream out,
+            String s) throws java.io.IOException {
+            byte[] b = s.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            out.writeInt(b.length);
+            out.write(b);
         }
 
         /**
@@ -533,15 +1104,17 @@ public class Gitlet implements Serializable {
          */
         void setTimestamp(Timestamp timestamp) {
             this._timestamp = timestamp;
+            _id = null;
         }
 
         /**
-         * saves the commit in .gitlet.
-         *
+         * saves the commit and the Trees it changed in .gitlet, fixing
+         * its ID, and adds it to the CommitIndex.
          */
         void save() {
-            Utils.writeObject(new File(System.getProperty("user.dir"),
-                ABS_COMMIT_FOLDER + "/" + getID()), this);
+            _id = Utils.sha1(canonicalBytes());
+            ObjectStore.store(ABS_COMMIT_FOLDER, _id, encode());
+            CommitIndex.add(_id);
         }
 
         /**
@@ -551,7 +1124,7 @@ public class Gitlet implements Serializable {
          * @return true if being tracked.
          */
         boolean isTracked(String fileName) {
-            return _trackedFiles.containsKey(fileName);
+            return getHashFromFileName(fileName) != null;
         }
 
         /**
@@ -562,7 +1135,13 @@ public class Gitlet implements Serializable {
          * @return return value of put()
          */
         String trackFile(String fileName, String sha1) {
-            return _trackedFiles.put(fileName, sha1);
+            _id = null;
+            String old = getHashFromFileName(fileName);
+            _changes.put(fileName, sha1);
+            if (_trackedFiles != null) {
+                _trackedFiles.put(fileName, sha1);
+            }
+            return old;
         }
 
         /**
@@ -572,14 +1151,23 @@ public class Gitlet implements Serializable {
          * @return removed file
          */
         String unTrackFile(String fileName) {
-            return _trackedFiles.remove(fileName);
+            _id = null;
+            String old = getHashFromFileName(fileName);
+            _changes.put(fileName, null);
+            if (_trackedFiles != null) {
+                _trackedFiles.remove(fileName);
+            }
+            return old;
         }
 
         /**
-         * returns the parent commit.
+         * returns the parent commit, through the CommitCache.
          */
         Commit getParent() {
-            return _parentCommit;
+            if (_parentCommit != null || _parentHash == null) {
+                return _parentCommit;
+            }
+            return getCommit(_parentHash);
         }
 
         public String toString() {
@@ -603,7 +1191,13 @@ public class Gitlet implements Serializable {
         /**
          * hash for secondary parent commit for a merge.
          */
-        private Commit _parent2;
+        private String _parent2Hash;
+
+        /**
+         * secondary parent of a merge made by this process; loaded
+         * merges look it up through the CommitCache instead.
+         */
+        private transient Commit _parent2;
 
         /**
          * runs Commit's constructor first and then sets 2nd parent.
@@ -614,14 +1208,42 @@ public class Gitlet implements Serializable {
         Merge(Commit parent1, Commit parent2, String message) {
             super(message, parent1);
             _parent2 = parent2;
+            _parent2Hash = parent2.getID();
+            _isMerge = true;
+        }
+
+        /**
+         * a merge whose parents are set by Commit#restore.
+         * @param message
+         */
+        private Merge(String message) {
+            super(message, null);
             _isMerge = true;
         }
 
         /**
-         * returns the 2nd parent commit.
+         * returns the 2nd parent commit, through the CommitCache.
          */
         Commit getParent2() {
-            return _parent2;
+            if (_parent2 != null) {
+                return _parent2;
+            }
+            return getCommit(_parent2Hash);
+        }
+
+        /**
+         * hash of the 2nd parent commit.
+         * @return _parent2Hash
+         */
+        String getParent2Hash() {
+            return _parent2Hash;
+        }
+
+        @Override
+        java.util.List<String> getParentHashes() {
+            java.util.List<String> hashes = super.getParentHashes();
+            hashes.add(_parent2Hash);
+            return hashes;
         }
 
         public String toString() {
@@ -631,8 +1253,8 @@ public class Gitlet implements Serializable {
             return String.format(
                 "commit %s\nMerge: %s %s\nDate: %s\n%s",
                 getID(),
-                getParentCommit().getID().substring(0, 7),
-                getParent2().getID().substring(0, 7),
+                getParentHash().substring(0, 7),
+                _parent2Hash.substring(0, 7),
                 dateFormat.format(getTimestamp()),
                 getMessage());
         }
@@ -647,6 +1269,11 @@ public class Gitlet implements Serializable {
          * hash for last commit of the branch.
          */
         private String _commitHash;
+        /**
+         * hash in the branch's ref when it was read or last saved; null
+         * for a branch not yet in Refs.
+         */
+        private transient String _savedHash;
 
         /**
          * initialize and store a branch with a given name and head commit.
@@ -663,16 +1290,7 @@ public class Gitlet implements Serializable {
          *
          */
         Commit getCommit() {
-            File targetFile = new File(System.getProperty("user.dir"),
-                ABS_COMMIT_FOLDER + "/" + _commitHash);
-
-            if (!targetFile.exists()) {
-                throw Utils.error("Branch::getCommit FILE MISSING "
-                + "SOMETHING WENT WRONG @ %s",
-                ABS_COMMIT_FOLDER + "/" + _commitHash);
-            }
-
-            return Utils.readObject(targetFile, Commit.class);
+            return Gitlet.getCommit(_commitHash);
         }
 
         /**
@@ -698,5 +1316,27 @@ public class Gitlet implements Serializable {
         String getName() {
             return _name;
         }
+
+        /**
+         * write the branch to OUT: its name, as a key following the
+         * name PREVIOUS, and the raw hash of its commit.
+         * @param out encoding buffer
+         * @param previous name of the branch written before, or ""
+         */
+        void encode(Codec.Output out, String previous) {
+            out.writeKey(previous, _name);
+            out.writeId(_commitHash);
+        }
+
+        /**
+         * read a branch written by encode from IN.
+         * @param in value being decoded
+         * @param previous name of the branch read before, or ""
+         * @return branch
+         */
+        static Branch decode(Codec.Input in, String previous) {
+            String name = in.readKey(previous);
+            return new Branch(name, in.readId());
+        }
     }
 }
@@ -0,0 +1,410 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads repository state and commits written with Java serialization,
+ * before Codec existed.
+ *
+ * Those files name the classes gitlet.Gitlet, Gitlet$Commit and so on,
+ * with serialVersionUIDs that changed whenever the classes did, so they
+ * cannot be read into the current classes. Instead each stream class is
+ * mapped to a class here with the same fields, chosen by the fields the
+ * stream declares, and the result is converted.
+ *
+ * There are two shapes of commit. The original one holds its parents as
+ * whole Commit objects, so its parent ids are not stored: they are found
+ * by matching the parents against the other commits in the repository,
+ * which are read for that the first time a process needs them and
+ * recorded in .gitlet/legacy-parents, so that later processes read the
+ * ids from there instead of every commit. Later shapes hold parent
+ * hashes.
+ *
+ * @author Solomon Cheung
+ */
+class Legacy {
+
+    /** file in .gitlet recording the parent ids of original-shape
+     *  commits. */
+    static final String PARENTS_FILENAME = "legacy-parents";
+
+    /** parent ids of the original-shape commits, by commit id, as read
+     *  from or written to _parentsFile; null until first needed. */
+    private static HashMap<String, List<String>> _parents;
+
+    /** the file _parents belongs to. */
+    private static File _parentsFile;
+
+    /**
+     * the gitlet object serialized in BYTES.
+     * @param bytes Java serialization stream
+     * @return gitlet object
+     */
+    static Gitlet readState(byte[] bytes) {
+        State state = (State) read(bytes);
+        Gitlet gitlet = new Gitlet();
+        for (Map.Entry<String, Branch> entry : state._branches.entrySet()) {
+            gitlet.addBranch(new Gitlet.Branch(entry.getKey(),
+                entry.getValue()._commitHash));
+        }
+        if (state._headBranch != null) {
+            gitlet.setHeadBranch(gitlet.getBranch(state._headBranch._name));
+        }
+        for (Map.Entry<String, String> entry
+            : state._stagingArea._area.entrySet()) {
+            gitlet.getStagingArea().stage(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, String> entry
+            : state._removingArea._area.entrySet()) {
+            gitlet.getRemovingArea().stage(entry.getKey(), entry.getValue());
+        }
+        return gitlet;
+    }
+
+    /**
+     * the commit ID serialized in BYTES.
+     * @param id commit id
+     * @param bytes Java serialization stream
+     * @return commit
+     */
+    static Gitlet.Commit readCommit(String id, byte[] bytes) {
+        Object commit = read(bytes);
+        ArrayList<String> parents = new ArrayList<>();
+        if (commit instanceof LinkedCommit) {
+            LinkedCommit linked = (LinkedCommit) commit;
+            parents.addAll(linkedParents(id));
+            return Gitlet.Commit.restore(linked._message, linked._timestamp,
+                parents, linked._trackedFiles);
+        }
+        Commit hashed = (Commit) commit;
+        if (hashed._parentHash != null) {
+            parents.add(hashed._parentHash);
+        }
+        if (hashed instanceof Merge) {
+            parents.add(((Merge) hashed)._parent2Hash);
+        }
+        return Gitlet.Commit.restore(hashed._message, hashed._timestamp,
+            parents, hashed._trackedFiles);
+    }
+
+    /**
+     * the object serialized in BYTES, as one of the classes here.
+     * @param bytes Java serialization stream
+     * @return object
+     */
+    private static Object read(byte[] bytes) {
+        try (ObjectInputStream in =
+                 new LegacyInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        } catch (IOException | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * the parent ids of the original-shape commit ID: from
+     * .gitlet/legacy-parents, or found by matching every original-shape
+     * commit of the repository against the others' parents and recorded
+     * there if ID is not listed yet.
+     * @param id commit id
+     * @return its parent ids, first parent first
+     * @throws GitletException no commit of the repository matches one of
+     *         its parents.
+     */
+    private static List<String> linkedParents(String id) {
+        File file = new File(System.getProperty("user.dir"),
+            Gitlet.GITLET_FOLDER + "/" + PARENTS_FILENAME);
+        if (_parents == null || !file.equals(_parentsFile)) {
+            _parents = readParents(file);
+            _parentsFile = file;
+        }
+        List<String> parents = _parents.get(id);
+        if (parents == null) {
+            _parents = findParents();
+            writeParents(file, _parents);
+            parents = _parents.get(id);
+            if (parents == null) {
+                throw Utils.error("Missing commit %s.", id);
+            }
+        }
+        return parents;
+    }
+
+    /**
+     * the parent ids of every original-shape commit of the repository,
+     * found by fingerprint: each commit's embedded parents are matched
+     * against the commits stored.
+     * @return parent ids by commit id
+     * @throws GitletException no commit matches a parent.
+     */
+    private static HashMap<String, List<String>> findParents() {
+        IdentityHashMap<LinkedCommit, String> memo = new IdentityHashMap<>();
+        HashMap<String, LinkedCommit> commits = new HashMap<>();
+        HashMap<String, String> ids = new HashMap<>();
+        for (String id : ObjectStore.ids(Gitlet.ABS_COMMIT_FOLDER)) {
+            byte[] bytes = ObjectStore.read(Gitlet.ABS_COMMIT_FOLDER, id);
+            if (Codec.isLegacy(bytes)) {
+                Object commit = read(bytes);
+                if (commit instanceof LinkedCommit) {
+                    commits.put(id, (LinkedCommit) commit);
+                    ids.put(fingerprint((LinkedCommit) commit, memo), id);
+                }
+            }
+        }
+        HashMap<String, List<String>> parents = new HashMap<>();
+        for (Map.Entry<String, LinkedCommit> entry : commits.entrySet()) {
+            LinkedCommit commit = entry.getValue();
+            ArrayList<String> found = new ArrayList<>();
+            if (commit._parentCommit != null) {
+                found.add(linkedId(commit._parentCommit, ids, memo));
+            }
+            if (commit instanceof LinkedMerge) {
+                found.add(linkedId(((LinkedMerge) commit)._parent2, ids,
+                    memo));
+            }
+            parents.put(entry.getKey(), found);
+        }
+        return parents;
+    }
+
+    /**
+     * the id of the original-shape commit COMMIT, which was serialized
+     * inside one of its children.
+     * @param commit parent commit
+     * @param ids commit ids by fingerprint
+     * @param memo fingerprints already computed
+     * @return its id
+     * @throws GitletException no commit of the repository matches.
+     */
+    private static String linkedId(LinkedCommit commit,
+        HashMap<String, String> ids,
+        IdentityHashMap<LinkedCommit, String> memo) {
+        String id = ids.get(fingerprint(commit, memo));
+        if (id == null) {
+            throw Utils.error("Missing parent of commit \"%s\".",
+                commit._message);
+        }
+        return id;
+    }
+
+    /**
+     * the parent ids recorded in FILE.
+     * @param file .gitlet/legacy-parents
+     * @return parent ids by commit id; empty if FILE is missing or
+     *         cannot be read
+     */
+    private static HashMap<String, List<String>> readParents(File file) {
+        HashMap<String, List<String>> parents = new HashMap<>();
+        if (!file.isFile()) {
+            return parents;
+        }
+        try {
+            Codec.Input in = new Codec.Input(Utils.readContents(file));
+            if (in.readHeader() != Codec.LEGACY_PARENTS) {
+                return new HashMap<>();
+            }
+            int count = in.readCount();
+            for (int i = 0; i < count; i += 1) {
+                String id = in.readId();
+                int n = in.readCount();
+                ArrayList<String> ids = new ArrayList<>(n);
+                for (int k = 0; k < n; k += 1) {
+                    ids.add(in.readId());
+                }
+                parents.put(id, ids);
+            }
+        } catch (GitletException | IllegalArgumentException excp) {
+            return new HashMap<>();
+        }
+        return parents;
+    }
+
+    /**
+     * record PARENTS in FILE. It only saves work later, so a failure to
+     * write it is ignored.
+     * @param file .gitlet/legacy-parents
+     * @param parents parent ids by commit id
+     */
+    private static void writeParents(File file,
+        Map<String, List<String>> parents) {
+        if (!file.getParentFile().isDirectory()) {
+            return;
+        }
+        Codec.Output out = new Codec.Output(Codec.LEGACY_PARENTS);
+        out.writeVarint(parents.size());
+        for (Map.Entry<String, List<String>> entry
+                 : new TreeMap<>(parents).entrySet()) {
+            out.writeId(entry.getKey());
+            out.writeVarint(entry.getValue().size());
+            for (String parent : entry.getValue()) {
+                out.writeId(parent);
+            }
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            Files.write(tmp.toPath(), out.toByteArray());
+        } catch (IOException excp) {
+            tmp.delete();
+            return;
+        }
+        Durability.replace(tmp, file);
+    }
+
+    /**
+     * a hash of everything COMMIT and its ancestors hold, so that equal
+     * commits read from different files match.
+     * @param commit commit
+     * @param memo fingerprints already computed
+     * @return hex fingerprint
+     */
+    private static String fingerprint(LinkedCommit commit,
+        IdentityHashMap<LinkedCommit, String> memo) {
+        if (commit == null) {
+            return "";
+        }
+        String fingerprint = memo.get(commit);
+        if (fingerprint == null) {
+            fingerprint = Utils.sha1(commit._message,
+                String.valueOf(commit._timestamp == null ? 0
+                    : commit._timestamp.getTime()),
+                new TreeMap<>(commit._trackedFiles).toString(),
+                fingerprint(commit._parentCommit, memo),
+                commit instanceof LinkedMerge
+                    ? fingerprint(((LinkedMerge) commit)._parent2, memo) : "");
+            memo.put(commit, fingerprint);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * reads old streams into the classes here: each gitlet class named
+     * in the stream is replaced by the class here with its fields.
+     */
+    private static class LegacyInputStream extends ObjectInputStream {
+
+        /**
+         * read a Java serialization stream from IN.
+         * @param in stream
+         * @throws IOException
+         */
+        LegacyInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor()
+            throws IOException, ClassNotFoundException {
+            ObjectStreamClass desc = super.readClassDescriptor();
+            Class<?> local;
+            switch (desc.getName()) {
+            case "gitlet.Gitlet":
+                local = State.class;
+                break;
+            case "gitlet.Gitlet$StagingArea":
+                local = State.StagingArea.class;
+                break;
+            case "gitlet.Gitlet$Branch":
+                local = Branch.class;
+                break;
+            case "gitlet.Gitlet$Commit":
+                local = desc.getField("_parentCommit") != null
+                    ? LinkedCommit.class : Commit.class;
+                break;
+            case "gitlet.Gitlet$Merge":
+                local = desc.getField("_parent2") != null
+                    ? LinkedMerge.class : Merge.class;
+                break;
+            default:
+                return desc;
+            }
+            return ObjectStreamClass.lookup(local);
+        }
+    }
+
+    /** fields of the serialized Gitlet. */
+    @SuppressWarnings("serial")
+    static class State implements Serializable {
+        /** branches by name. */
+        private TreeMap<String, Branch> _branches;
+        /** head branch. */
+        private Branch _headBranch;
+        /** staged files. */
+        private StagingArea _stagingArea;
+        /** files staged for removal. */
+        private StagingArea _removingArea;
+
+        /** fields of a serialized Gitlet.StagingArea. */
+        @SuppressWarnings("serial")
+        class StagingArea implements Serializable {
+            /** file names and blob hashes. */
+            private TreeMap<String, String> _area;
+        }
+    }
+
+    /** fields of a serialized Gitlet.Branch. */
+    @SuppressWarnings("serial")
+    static class Branch implements Serializable {
+        /** name. */
+        private String _name;
+        /** hash of its commit. */
+        private String _commitHash;
+    }
+
+    /** fields of a serialized Gitlet.Commit holding parent hashes. */
+    @SuppressWarnings("serial")
+    static class Commit implements Serializable {
+        /** log message. */
+        private String _message;
+        /** parent hash. */
+        private String _parentHash;
+        /** commit time. */
+        private Timestamp _timestamp;
+        /** tracked file names and blob hashes. */
+        private HashMap<String, String> _trackedFiles;
+        /** is it a merge? */
+        protected boolean _isMerge;
+    }
+
+    /** fields of a serialized Gitlet.Merge holding parent hashes. */
+    @SuppressWarnings("serial")
+    static class Merge extends Commit {
+        /** second parent hash. */
+        private String _parent2Hash;
+    }
+
+    /** fields of an original serialized Gitlet.Commit. */
+    @SuppressWarnings("serial")
+    static class LinkedCommit implements Serializable {
+        /** log message. */
+        private String _message;
+        /** parent. */
+        private LinkedCommit _parentCommit;
+        /** commit time. */
+        private Timestamp _timestamp;
+        /** tracked file names and blob hashes. */
+        private HashMap<String, String> _trackedFiles;
+        /** is it a merge? */
+        protected boolean _isMerge;
+    }
+
+    /** fields of an original serialized Gitlet.Merge. */
+    @SuppressWarnings("serial")
+    static class LinkedMerge extends LinkedCommit {
+        /** second parent. */
+        private LinkedCommit _parent2;
+    }
+}
@@ -34,8 +34,13 @@ public class Main {
         String[] newArgs = new String[args.length - 1];
         System.arraycopy(args, 1, newArgs, 0, args.length - 1);
 
+        boolean done = false;
         try {
+            if (!args[0].equals("init")) {
+                Materializer.recover();
+            }
             fCommand.run(newArgs);
+            done = true;
         } catch (GitletException e) {
             System.out.println("Incorrect operands.");
             if (!e.getMessage().equals("invalid argument count.")) {
@@ -44,5 +49,22 @@ public class Main {
         } catch (Exception e) {
             e.printStackTrace();
         }
+        if (done) {
+            Durability.commit();
+            CommitIndex.flush();
+        } else {
+            Durability.abort();
+            CommitIndex.discard();
+        }
+        Monitor.settle();
+        if (StatCache.save()) {
+            Monitor.save();
+        }
+        UntrackedCache.save();
+        if (Config.getBoolean("stats", false)) {
+            System.err.println(ObjectStore.stats());
+            System.err.println(CommitCache.stats());
+            System.err.println(Materializer.stats());
+        }
     }
 }
@@ -0,0 +1,368 @@
+package gitlet;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+/**
+ * A compact map from file paths to object ids, used for the files of a
+ * commit and for the staging and removing areas.
+ *
+ * Entries are kept in two parallel arrays sorted by path: the paths,
+ * interned so that every Manifest holding a path shares one String, and
+ * the ids as 20 raw bytes each, all in one byte array. Lookups are
+ * binary searches. Ids are converted to and from hex only as they are
+ * put and got; the value "" (a removal) is stored as NULL_ID.
+ *
+ * Changes go to a small sorted overlay first and are merged into the
+ * arrays when it grows past a fraction of their size, or before the
+ * entries are iterated, so a long run of puts does not shift the arrays
+ * once per put. Iteration is in path order, through entrySet() or,
+ * without allocating entries for the paths, forEach.
+ *
+ * @author Solomon Cheung
+ */
+class Manifest extends AbstractMap<String, String> implements Serializable {
+
+    /** the raw id standing for the value "". */
+    static final byte[] NULL_ID = new byte[Pack.ID_LENGTH];
+
+    /** length of a raw id. */
+    private static final int ID_LENGTH = Pack.ID_LENGTH;
+
+    /** changes the overlay may hold beyond an eighth of the arrays. */
+    private static final int OVERLAY_SLACK = 64;
+
+    /** the one String of each path seen by this process. */
+    private static final HashMap<String, String> PATHS = new HashMap<>();
+
+    /** sorted paths; only the first _length are used. */
+    private String[] _paths;
+
+    /** raw ids, ID_LENGTH bytes per path. */
+    private byte[] _ids;
+
+    /** number of entries in the arrays. */
+    private int _length;
+
+    /** changes not merged into the arrays yet: path to new hex id, or
+     *  to null if removed. */
+    private TreeMap<String, String> _overlay = new TreeMap<>();
+
+    /** number of entries, counting the overlay. */
+    private int _size;
+
+    /**
+     * an empty manifest.
+     */
+    Manifest() {
+        this(0);
+    }
+
+    /**
+     * an empty manifest with room for CAPACITY entries.
+     * @param capacity expected number of entries
+     */
+    Manifest(int capacity) {
+        _paths = new String[capacity];
+        _ids = new byte[capacity * ID_LENGTH];
+    }
+
+    /**
+     * a manifest of the entries of FILES.
+     * @param files paths to hex ids or ""
+     */
+    Manifest(Map<String, String> files) {
+        this(files.size());
+        for (Map.Entry<String, String> entry
+            : new TreeMap<>(files).entrySet()) {
+            append(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * the shared String equal to PATH.
+     * @param path file path
+     * @return interned path
+     */
+    static String intern(String path) {
+        String shared = PATHS.putIfAbsent(path, path);
+        return shared == null ? path : shared;
+    }
+
+    /**
+     * add PATH, which must sort after every path added so far, with the
+     * id ID. Used to build a manifest in order without the overlay.
+     * @param path file path
+     * @param id hex id or ""
+     */
+    void append(String path, String id) {
+        if (!_overlay.isEmpty()) {
+            merge();
+        }
+        if (_length > 0 && _paths[_length - 1].compareTo(path) >= 0) {
+            throw new IllegalArgumentException(
+                "Manifest paths appended out of order: " + path);
+        }
+        reserve(_length + 1);
+        _paths[_length] = intern(path);
+        setId(_length, id);
+        _length += 1;
+        _size += 1;
+    }
+
+    @Override
+    public int size() {
+        return _size;
+    }
+
+    @Override
+    public boolean containsKey(Object path) {
+        return get(path) != null;
+    }
+
+    @Override
+    public String get(Object path) {
+        if (!(path instanceof String)) {
+            return null;
+        }
+        if (_overlay.containsKey(path)) {
+            return _overlay.get(path);
+        }
+        int i = find(path);
+        return i < 0 ? null : id(i);
+    }
+
+    @Override
+    public String put(String path, String id) {
+        if (id == null) {
+            throw new NullPointerException("Manifest values cannot be null");
+        }
+        if (!isId(id)) {
+            throw new IllegalArgumentException("Not an object id: " + id);
+        }
+        String old = get(path);
+        if (old == null) {
+            _size += 1;
+        }
+        _overlay.put(intern(path), id);
+        mergeIfLarge();
+        return old;
+    }
+
+    @Override
+    public String remove(Object path) {
+        String old = get(path);
+        if (old != null) {
+            _size -= 1;
+            _overlay.put((String) path, null);
+            mergeIfLarge();
+        }
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        _paths = new String[0];
+        _ids = new byte[0];
+        _length = 0;
+        _overlay.clear();
+        _size = 0;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super String> action) {
+        merge();
+        for (int i = 0; i < _length; i += 1) {
+            action.accept(_paths[i], id(i));
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                merge();
+                return new Iterator<>() {
+                    private int _next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return _next < _length;
+                    }
+
+                    @Override
+                    public Map.Entry<String, String> next() {
+                        if (_next >= _length) {
+                            throw new NoSuchElementException();
+                        }
+                        _next += 1;
+                        return new SimpleImmutableEntry<>(
+                            _paths[_next - 1], id(_next - 1));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return _size;
+            }
+        };
+    }
+
+    /**
+     * index of PATH in the arrays.
+     * @param path file path
+     * @return its index, or a negative number if it is not there
+     */
+    private int find(Object path) {
+        return Arrays.binarySearch(_paths, 0, _length, (String) path);
+    }
+
+    /**
+     * the id at index I of the arrays.
+     * @param i index
+     * @return hex id, or "" for NULL_ID
+     */
+    private String id(int i) {
+        int off = i * ID_LENGTH;
+        if (Arrays.equals(_ids, off, off + ID_LENGTH,
+                NULL_ID, 0, ID_LENGTH)) {
+            return "";
+        }
+        char[] hex = new char[2 * ID_LENGTH];
+        for (int k = 0; k < ID_LENGTH; k += 1) {
+            int b = _ids[off + k] & 0xff;
+            hex[2 * k] = Character.forDigit(b >> 4, 16);
+            hex[2 * k + 1] = Character.forDigit(b & 0xf, 16);
+        }
+        return new String(hex);
+    }
+
+    /**
+     * set the id at index I of the arrays to ID.
+     * @param i index
+     * @param id hex id or ""
+     */
+    private void setId(int i, String id) {
+        parseId(id, _ids, i * ID_LENGTH);
+    }
+
+    /**
+     * can ID be a value: "" or a hex object id? Checked as it is put,
+     * so that a bad id is refused then rather than when the overlay is
+     * merged.
+     * @param id value
+     * @return true if it can
+     */
+    private static boolean isId(String id) {
+        if (id.isEmpty()) {
+            return true;
+        }
+        if (id.length() != 2 * ID_LENGTH) {
+            return false;
+        }
+        for (int k = 0; k < id.length(); k += 1) {
+            if (Character.digit(id.charAt(k), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * write ID as raw bytes into IDS at OFF.
+     * @param id hex id, or "" for NULL_ID
+     * @param ids raw ids
+     * @param off offset in IDS
+     */
+    private static void parseId(String id, byte[] ids, int off) {
+        if (id.isEmpty()) {
+            System.arraycopy(NULL_ID, 0, ids, off, ID_LENGTH);
+            return;
+        }
+        if (id.length() != 2 * ID_LENGTH) {
+            throw new IllegalArgumentException("Not an object id: " + id);
+        }
+        for (int k = 0; k < ID_LENGTH; k += 1) {
+            int hi = Character.digit(id.charAt(2 * k), 16);
+            int lo = Character.digit(id.charAt(2 * k + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new IllegalArgumentException("Not an object id: " + id);
+            }
+            ids[off + k] = (byte) (hi << 4 | lo);
+        }
+    }
+
+    /**
+     * make room in the arrays for N entries.
+     * @param n number of entries
+     */
+    private void reserve(int n) {
+        if (n > _paths.length) {
+            int capacity = Math.max(n, Math.max(8, 2 * _paths.length));
+            _paths = Arrays.copyOf(_paths, capacity);
+            _ids = Arrays.copyOf(_ids, capacity * ID_LENGTH);
+        }
+    }
+
+    /**
+     * merge the overlay into the arrays once it holds more changes than
+     * an eighth of them.
+     */
+    private void mergeIfLarge() {
+        if (_overlay.size() > OVERLAY_SLACK + _length / 8) {
+            merge();
+        }
+    }
+
+    /**
+     * merge the overlay into the arrays, in one pass over both.
+     */
+    private void merge() {
+        if (_overlay.isEmpty()) {
+            return;
+        }
+        String[] paths = new String[_size];
+        byte[] ids = new byte[_size * ID_LENGTH];
+        int n = 0;
+        int i = 0;
+        for (Map.Entry<String, String> change : _overlay.entrySet()) {
+            String path = change.getKey();
+            int end = i;
+            while (end < _length && _paths[end].compareTo(path) < 0) {
+                end += 1;
+            }
+            System.arraycopy(_paths, i, paths, n, end - i);
+            System.arraycopy(_ids, i * ID_LENGTH, ids, n * ID_LENGTH,
+                (end - i) * ID_LENGTH);
+            n += end - i;
+            i = end;
+            if (i < _length && _paths[i].equals(path)) {
+                i += 1;
+            }
+            if (change.getValue() != null) {
+                paths[n] = path;
+                parseId(change.getValue(), ids, n * ID_LENGTH);
+                n += 1;
+            }
+        }
+        System.arraycopy(_paths, i, paths, n, _length - i);
+        System.arraycopy(_ids, i * ID_LENGTH, ids, n * ID_LENGTH,
+            (_length - i) * ID_LENGTH);
+        n += _length - i;
+        _paths = paths;
+        _ids = ids;
+        _length = n;
+        _overlay.clear();
+    }
+}
@@ -0,0 +1,416 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Moves the working directory from one commit to another for checkout
+ * of a branch, reset and a fast-forward merge, touching only the paths
+ * whose blob ids differ.
+ *
+ * The paths are found with Tree#modified in both directions, so
+ * directories whose Trees are the same in both commits are not read,
+ * and files that are the same are neither deleted nor rewritten: their
+ * contents, mtimes and StatCache entries stay as they are. The callers
+ * have already checked that no working file differs from what the
+ * staging areas and the current commit say it is, so the paths staged
+ * for addition or removal are the only others that may need writing or
+ * deleting.
+ *
+ * Files are deleted first, then written. More than BATCH writes go
+ * through a pipeline: the calling thread looks each blob up and reads
+ * (inflating it if it is compressed) the next one while a pool of
+ * "threads" writers writes those already read. The bytes read but not
+ * yet written are held under the "checkout.inflight" setting (default
+ * 64 MB), so the reader waits for the writers rather than filling the
+ * heap. Blobs stored uncompressed are copied by their writer with
+ * FileChannel#transferTo, and chunked blobs are written by the reader
+ * itself; only the reader touches the ObjectStore's caches. If a write
+ * fails, no more are started, those already started finish, and the
+ * first failure is thrown.
+ *
+ * Before it changes anything, update() writes .gitlet/checkout, which
+ * lists each path with its blob id before and after, and the commits
+ * moved from and to. Gitlet#save deletes it once the new head is saved.
+ * If it is still there when the next command starts, that command ran
+ * out before saving, and recover() puts every listed path back as it
+ * was (or, if the head did move to the new commit, finishes the move).
+ *
+ * Files written and deleted are counted and printed with the "stats"
+ * setting.
+ *
+ * @author Solomon Cheung
+ */
+class Materializer {
+
+    /** record file name in .gitlet. */
+    static final String FILENAME = "checkout";
+
+    /** writes done on the calling thread, without a pipeline. */
+    static final int BATCH = 32;
+
+    /** working files written. */
+    private static long _written;
+
+    /** working files deleted. */
+    private static long _deleted;
+
+    /** whether this process wrote the record. */
+    private static boolean _recorded;
+
+    /**
+     * make the working files, which are those of FROM with the areas
+     * STAGED and REMOVED applied, the files of TO.
+     * @param from commit the working directory is at
+     * @param to commit to move it to
+     * @param staged files staged for addition, with their blob ids
+     * @param removed files staged for removal
+     */
+    static void update(Gitlet.Commit from, Gitlet.Commit to,
+        Manifest staged, Manifest removed) {
+        TreeMap<String, Change> changes = changes(from, to, staged, removed);
+        if (changes.isEmpty()) {
+            return;
+        }
+        record(from.getID(), to.getID(), changes);
+        apply(changes, false);
+    }
+
+    /**
+     * the working files that differ between FROM, with the areas STAGED
+     * and REMOVED applied, and TO.
+     * @param from commit the working directory is at
+     * @param to commit to move it to
+     * @param staged files staged for addition, with their blob ids
+     * @param removed files staged for removal
+     * @return changes, in path order
+     */
+    static TreeMap<String, Change> changes(Gitlet.Commit from,
+        Gitlet.Commit to, Manifest staged, Manifest removed) {
+        TreeMap<String, Change> changes = new TreeMap<>();
+        if (!from.getID().equals(to.getID())) {
+            Map<String, String> after = Tree.modified(from.getTreeHash(),
+                to.getTreeHash());
+            Map<String, String> before = Tree.modified(to.getTreeHash(),
+                from.getTreeHash());
+            for (Map.Entry<String, String> file : after.entrySet()) {
+                String old = before.get(file.getKey());
+                changes.put(file.getKey(), new Change(old != null ? old
+                    : from.getHashFromFileName(file.getKey()),
+                    file.getValue()));
+            }
+            for (Map.Entry<String, String> file : before.entrySet()) {
+                if (!after.containsKey(file.getKey())) {
+                    changes.put(file.getKey(), new Change(file.getValue(),
+                        to.getHashFromFileName(file.getKey())));
+                }
+            }
+        }
+        for (Map.Entry<String, String> file : staged.entrySet()) {
+            String want = to.getHashFromFileName(file.getKey());
+            if (file.getValue().equals(want)) {
+                changes.remove(file.getKey());
+            } else {
+                changes.put(file.getKey(), new Change(file.getValue(),
+                    want == null ? "" : want));
+            }
+        }
+        for (String name : removed.keySet()) {
+            String want = to.getHashFromFileName(name);
+            if (want != null) {
+                changes.put(name, new Change("", want));
+            } else {
+                changes.remove(name);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * forget the record of the update this command made, now that the
+     * head it moved to is saved.
+     */
+    static void saved() {
+        if (_recorded) {
+            recordFile().delete();
+            _recorded = false;
+        }
+    }
+
+    /**
+     * finish or undo an update whose command did not save its new head:
+     * move the listed paths forward if the head is the commit moved to,
+     * or back otherwise, then delete the record.
+     */
+    static void recover() {
+        if (!recordFile().isFile()) {
+            return;
+        }
+        recover(Gitlet.GITLET_OBJECT.getHeadBranch() == null ? null
+            : Gitlet.GITLET_OBJECT.getHeadHash());
+    }
+
+    /**
+     * recover() with the head at the commit HEAD.
+     * @param head id of the head commit, or null if there is none
+     */
+    static void recover(String head) {
+        File file = recordFile();
+        if (!file.isFile()) {
+            return;
+        }
+        String from;
+        String to;
+        TreeMap<String, Change> changes = new TreeMap<>();
+        try {
+            Codec.Input in = new Codec.Input(Utils.readContents(file));
+            if (in.readHeader() != Codec.CHECKOUT) {
+                throw Utils.error("Not a checkout record.");
+            }
+            from = in.readId();
+            to = in.readId();
+            int count = in.readCount();
+            String previous = "";
+            for (int i = 0; i < count; i += 1) {
+                previous = in.readKey(previous);
+                String before = in.readVarint() == 0 ? "" : in.readId();
+                String after = in.readVarint() == 0 ? "" : in.readId();
+                changes.put(previous, new Change(before, after));
+            }
+        } catch (GitletException | IllegalArgumentException excp) {
+            file.delete();
+            return;
+        }
+        apply(changes, from.equals(to) || !to.equals(head));
+        file.delete();
+    }
+
+    /**
+     * write or delete each working file in CHANGES.
+     * @param changes changes, in path order
+     * @param back whether to put the files as they were before
+     */
+    static void apply(TreeMap<String, Change> changes, boolean back) {
+        File dir = new File(System.getProperty("user.dir"));
+        ArrayList<String> writes = new ArrayList<>();
+        for (Map.Entry<String, Change> change : changes.entrySet()) {
+            String id = change.getValue().id(back);
+            if (id.isEmpty()) {
+                delete(dir, new File(dir, change.getKey()));
+            } else {
+                writes.add(change.getKey());
+            }
+        }
+        int threads = WorkTree.threads();
+        if (writes.size() <= BATCH || threads <= 1) {
+            for (String name : writes) {
+                File target = new File(dir, name);
+                target.getParentFile().mkdirs();
+                Gitlet.Blob.fromHash(changes.get(name).id(back))
+                    .writeTo(target);
+                _written += 1;
+            }
+        } else {
+            pipeline(dir, writes, changes, back, threads);
+        }
+    }
+
+    /**
+     * write the working files WRITES with the blobs CHANGES gives them,
+     * reading on this thread and writing on THREADS others.
+     * @param dir working directory
+     * @param writes paths to write, in order
+     * @param changes changes
+     * @param back whether to write the blobs they had before
+     * @param threads number of writers
+     */
+    private static void pipeline(File dir, ArrayList<String> writes,
+        TreeMap<String, Change> changes, boolean back, int threads) {
+        int limit = (int) Math.min(Integer.MAX_VALUE, Math.max(1,
+            Config.getLong("checkout.inflight", 64L << 20)));
+        Semaphore inflight = new Semaphore(limit);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        ExecutorService writers = Executors.newFixedThreadPool(threads,
+            task -> {
+                Thread thread = new Thread(task, "gitlet-checkout");
+                thread.setDaemon(true);
+                return thread;
+            });
+        try {
+            for (String name : writes) {
+                if (failure.get() != null) {
+                    break;
+                }
+                String id = changes.get(name).id(back);
+                File target = new File(dir, name);
+                target.getParentFile().mkdirs();
+                ObjectStore.Region region = ObjectStore.locate(
+                    Gitlet.ABS_BLOB_FOLDER, id);
+                if (region == null) {
+                    throw Utils.error("Blob::fromHash FILE MISSING "
+                        + "SOMETHING WENT WRONG @ %s",
+                        Gitlet.ABS_BLOB_FOLDER + "/" + id);
+                }
+                int method = ObjectStore.method(region);
+                if (method == ObjectStore.CHUNKED
+                    || method != ObjectStore.STORED && method >= 0
+                    && region.getLength() > limit) {
+                    ObjectStore.copyTo(Gitlet.ABS_BLOB_FOLDER, id, target);
+                    StatCache.record(target, id);
+                    _written += 1;
+                    continue;
+                }
+                byte[] contents = null;
+                long skip = method == ObjectStore.STORED
+                    ? ObjectStore.HEADER_LENGTH : 0;
+                long size = region.getLength() - skip;
+                if (method != ObjectStore.STORED && method >= 0) {
+                    contents = ObjectStore.read(Gitlet.ABS_BLOB_FOLDER, id);
+                    size = contents.length;
+                }
+                int permits = (int) Math.max(1, Math.min(limit, size));
+                inflight.acquireUninterruptibly(permits);
+                byte[] bytes = contents;
+                writers.execute(() -> {
+                    try {
+                        if (failure.get() == null) {
+                            if (bytes != null) {
+                                ObjectStore.detach(target);
+                                Files.write(target.toPath(), bytes);
+                            } else {
+                                ObjectStore.materialize(region, skip, target);
+                            }
+                            StatCache.record(target, id);
+                        }
+                    } catch (IOException excp) {
+                        failure.compareAndSet(null,
+                            new IllegalArgumentException(excp.getMessage()));
+                    } catch (RuntimeException excp) {
+                        failure.compareAndSet(null, excp);
+                    } finally {
+                        inflight.release(permits);
+                    }
+                });
+                _written += 1;
+            }
+        } finally {
+            writers.shutdown();
+            boolean done = false;
+            while (!done) {
+                try {
+                    done = writers.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException excp) {
+                    continue;
+                }
+            }
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /**
+     * write .gitlet/checkout, listing CHANGES made in moving from the
+     * commit FROM to the commit TO, durably before any of them is made.
+     * @param from commit id moved from
+     * @param to commit id moved to
+     * @param changes changes
+     */
+    private static void record(String from, String to,
+        TreeMap<String, Change> changes) {
+        Codec.Output out = new Codec.Output(Codec.CHECKOUT);
+        out.writeId(from);
+        out.writeId(to);
+        out.writeVarint(changes.size());
+        String previous = "";
+        for (Map.Entry<String, Change> change : changes.entrySet()) {
+            out.writeKey(previous, change.getKey());
+            for (String id : new String[] {change.getValue()._before,
+                                           change.getValue()._after}) {
+                if (id.isEmpty()) {
+                    out.writeVarint(0);
+                } else {
+                    out.writeVarint(1);
+                    out.writeId(id);
+                }
+            }
+            previous = change.getKey();
+        }
+        Durability.writeState(recordFile(), out.toByteArray());
+        _recorded = true;
+    }
+
+    /**
+     * delete the working file TARGET, and the folders above it up to DIR
+     * that it leaves empty.
+     * @param dir working directory
+     * @param target working file
+     */
+    private static void delete(File dir, File target) {
+        if (target.isDirectory() || !target.delete()) {
+            return;
+        }
+        _deleted += 1;
+        File parent = target.getParentFile();
+        while (!parent.equals(dir) && parent.delete()) {
+            parent = parent.getParentFile();
+        }
+    }
+
+    /**
+     * the record file.
+     * @return .gitlet/checkout
+     */
+    private static File recordFile() {
+        return new File(System.getProperty("user.dir"),
+            Gitlet.GITLET_FOLDER + "/" + FILENAME);
+    }
+
+    /**
+     * a summary of the working files changed, printed after each
+     * command when the "stats" setting is true.
+     * @return one line of text
+     */
+    static String stats() {
+        return String.format("working tree: %d written, %d deleted",
+            _written, _deleted);
+    }
+
+    /**
+     * the blob ids a working file has before and after an update.
+     */
+    static class Change {
+        /** blob id before, or "" if there is no such file. */
+        private final String _before;
+        /** blob id after, or "" if there is no such file. */
+        private final String _after;
+
+        /**
+         * a file going from the blob BEFORE to the blob AFTER.
+         * @param before blob id before, or "" or null for none
+         * @param after blob id after, or "" or null for none
+         */
+        Change(String before, String after) {
+            _before = before == null ? "" : before;
+            _after = after == null ? "" : after;
+        }
+
+        /**
+         * the blob id the file must have.
+         * @param back whether it is being put back as it was
+         * @return blob id, or "" if it must not exist
+         */
+        String id(boolean back) {
+            return back ? _before : _after;
+        }
+    }
+}
@@ -0,0 +1,820 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A file-system monitor, so that status and the checks of checkout,
+ * reset and merge look only at the paths that changed since the last
+ * command instead of every tracked file.
+ *
+ * "gitlet monitor start" runs "gitlet monitor run" in the background.
+ * That process watches every directory of the working tree with a
+ * WatchService and appends a line to .gitlet/monitor/journal for each
+ * path that changes:
+ *
+ *      gitlet-monitor SESSION PID    first line
+ *      f PATH                        the file PATH changed
+ *      d PATH/                       anything under PATH may have changed
+ *      c NAME                        the cookie NAME was seen
+ *      *                             events were lost
+ *      r                             the journal was replaced
+ *
+ * A command asks what changed by creating a cookie file in the monitor
+ * folder and waiting for its line, so every change made before the
+ * command started is in the journal above it. The changes are those
+ * between the offset saved in .gitlet/monitor/token by the last command
+ * that asked and the cookie. Files that did not change are looked up in
+ * StatCache without a stat, and the top-level names saved with the token
+ * stand in for a listing of the working directory.
+ *
+ * Whenever the monitor cannot answer (it is not running, the token is
+ * from another session, events were lost, or the cookie does not appear
+ * within COOKIE_TIMEOUT) the command scans the working tree instead, and
+ * saves a token so the next command can use the monitor again.
+ *
+ * @author Solomon Cheung
+ */
+class Monitor {
+
+    /** monitor folder, relative to the working directory. */
+    static final String FOLDER = Gitlet.GITLET_FOLDER + "/monitor";
+
+    /** journal file name in FOLDER. */
+    static final String JOURNAL = "journal";
+
+    /** token file name in FOLDER. */
+    static final String TOKEN = "token";
+
+    /** file that tells the monitor to stop, in FOLDER. */
+    static final String STOP = "stop";
+
+    /** log of the background process, in FOLDER. */
+    static final String LOG = "log";
+
+    /** prefix of cookie file names. */
+    static final String COOKIE = "cookie-";
+
+    /** first word of the journal. */
+    static final String HEADER = "gitlet-monitor";
+
+    /** journal size past which the monitor starts a new session. */
+    static final long JOURNAL_LIMIT = 4 * 1024 * 1024;
+
+    /** milliseconds a command waits for its cookie. */
+    static final long COOKIE_TIMEOUT = 1000;
+
+    /** milliseconds "monitor start" and "monitor stop" wait. */
+    static final long START_TIMEOUT = 10000;
+
+    /** whether this command asked the monitor yet. */
+    private static boolean _queried;
+
+    /** answer of the monitor to this command, or null if there is
+     *  none. */
+    private static Changes _changes;
+
+    /** top-level names of the working directory listed by this command,
+     *  or null if it did not list them. */
+    private static List<String> _listed;
+
+    /**
+     * what changed in the working tree since the last command that
+     * asked, asking the monitor on first use.
+     * @return changes, or null if no monitor is running
+     */
+    static Changes changes() {
+        if (!_queried) {
+            _queried = true;
+            _changes = query();
+        }
+        return _changes;
+    }
+
+    /**
+     * note that this command listed the working directory.
+     * @param names top-level names, sorted
+     */
+    static void listed(List<String> names) {
+        _listed = names;
+    }
+
+    /**
+     * before the StatCache index is written: drop the entries the next
+     * command could otherwise trust without a stat although this command
+     * did not check them, those of changed paths or, if the changes are
+     * not known, of all paths.
+     */
+    static void settle() {
+        if (_changes == null) {
+            return;
+        }
+        if (_changes.known()) {
+            StatCache.forgetUnseen(_changes::changed);
+        } else {
+            StatCache.forgetUnseen(path -> true);
+        }
+    }
+
+    /**
+     * save the token of this command's query, once the StatCache index
+     * it describes is written. The token is not forced to the disk: a
+     * lost token only makes the next command look at more changes.
+     */
+    static void save() {
+        if (_changes == null) {
+            return;
+        }
+        List<String> names = _listed != null ? _listed : _changes.names();
+        Codec.Output out = new Codec.Output(Codec.MONITOR);
+        out.writeString(_changes._session);
+        out.writeVarint(_changes._offset);
+        out.write(names == null ? 0 : 1);
+        if (names != null) {
+            out.writeVarint(names.size());
+            String previous = "";
+            for (String name : names) {
+                out.writeKey(previous, name);
+                previous = name;
+            }
+        }
+        File target = file(TOKEN);
+        File tmp = new File(target.getPath() + ".tmp");
+        try {
+            Files.write(tmp.toPath(), out.toByteArray());
+            Files.move(tmp.toPath(), target.toPath(),
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * is the "monitor" setting on (the default)?
+     * @return true if commands may ask a running monitor
+     */
+    static boolean enabled() {
+        return Config.getBoolean("monitor", true) && StatCache.enabled();
+    }
+
+    /**
+     * ask the running monitor what changed since the saved token.
+     * @return changes, unknown if the token cannot be used, or null if
+     *         the monitor did not answer
+     */
+    private static Changes query() {
+        if (!enabled()) {
+            return null;
+        }
+        File journal = file(JOURNAL);
+        String[] header = header(journal);
+        if (header == null || !alive(header[2])) {
+            return null;
+        }
+        Changes token = readToken();
+        boolean known = token != null && token._session.equals(header[1]);
+        long start = known ? token._offset : 0;
+        String cookie = COOKIE + ProcessHandle.current().pid() + "-"
+            + System.nanoTime();
+        File cookieFile = file(cookie);
+        try (FileChannel in = FileChannel.open(journal.toPath(),
+                 StandardOpenOption.READ)) {
+            Files.write(cookieFile.toPath(), new byte[0]);
+            Changes changes = new Changes(header[1], known,
+                known ? token._names : null);
+            long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(COOKIE_TIMEOUT);
+            long pos = start;
+            while (System.nanoTime() < deadline) {
+                byte[] bytes = new byte[(int) Math.max(0,
+                    Math.min(in.size() - pos, Integer.MAX_VALUE - 8))];
+                in.read(ByteBuffer.wrap(bytes), pos);
+                int lineStart = 0;
+                for (int i = 0; i < bytes.length; i += 1) {
+                    if (bytes[i] != '\n') {
+                        continue;
+                    }
+                    String line = new String(bytes, lineStart,
+                        i - lineStart, StandardCharsets.UTF_8);
+                    lineStart = i + 1;
+                    if (line.equals("r")) {
+                        return null;
+                    } else if (line.equals("c " + cookie)) {
+                        changes._offset = pos + lineStart;
+                        return changes;
+                    } else {
+                        changes.add(line);
+                    }
+                }
+                pos += lineStart;
+                Thread.sleep(1);
+            }
+            return null;
+        } catch (IOException excp) {
+            return null;
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            cookieFile.delete();
+        }
+    }
+
+    /**
+     * the token saved by the last command that asked.
+     * @return session, offset and names of the token, or null if there
+     *         is none that can be read
+     */
+    private static Changes readToken() {
+        File token = file(TOKEN);
+        if (!token.isFile()) {
+            return null;
+        }
+        try {
+            Codec.Input in = new Codec.Input(Utils.readContents(token));
+            if (in.readHeader() != Codec.MONITOR) {
+                return null;
+            }
+            List<String> names = null;
+            String session = in.readString();
+            long offset = in.readVarint();
+            if (in.readByte() != 0) {
+                int n = in.readCount();
+                names = new ArrayList<>(n);
+                String previous = "";
+                for (int i = 0; i < n; i += 1) {
+                    previous = in.readKey(previous);
+                    names.add(previous);
+                }
+            }
+            Changes changes = new Changes(session, true, names);
+            changes._offset = offset;
+            return changes;
+        } catch (GitletException | IllegalArgumentException excp) {
+            return null;
+        }
+    }
+
+    /**
+     * the words of the first line of JOURNAL.
+     * @param journal journal file
+     * @return HEADER, session and pid, or null if JOURNAL is missing or
+     *         not a journal
+     */
+    private static String[] header(File journal) {
+        if (!journal.isFile()) {
+            return null;
+        }
+        try (FileChannel in = FileChannel.open(journal.toPath(),
+                 StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(256);
+            in.read(buf, 0);
+            String text = new String(buf.array(), 0, buf.position(),
+                StandardCharsets.UTF_8);
+            int end = text.indexOf('\n');
+            String[] words = end < 0 ? new String[0]
+                : text.substring(0, end).split(" ");
+            if (words.length != 3 || !words[0].equals(HEADER)) {
+                return null;
+            }
+            return words;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /**
+     * is the process PID running?
+     * @param pid process id, in decimal
+     * @return true if so
+     */
+    private static boolean alive(String pid) {
+        try {
+            return ProcessHandle.of(Long.parseLong(pid))
+                .map(ProcessHandle::isAlive).orElse(false);
+        } catch (NumberFormatException excp) {
+            return false;
+        }
+    }
+
+    /**
+     * the file NAME of the monitor folder.
+     * @param name file name
+     * @return file
+     */
+    private static File file(String name) {
+        return new File(System.getProperty("user.dir"),
+            FOLDER + "/" + name);
+    }
+
+    /**
+     * the pid of the running monitor.
+     * @return pid, or null if no monitor is running
+     */
+    private static String running() {
+        String[] header = header(file(JOURNAL));
+        return header != null && alive(header[2]) ? header[2] : null;
+    }
+
+    /**
+     * start a monitor in the background, running "monitor run" in a new
+     * JVM with this one's class path and gitlet settings, and wait until
+     * it is watching.
+     */
+    static void start() {
+        if (running() != null) {
+            System.out.println("A monitor is already running.");
+            return;
+        }
+        file("").mkdirs();
+        ArrayList<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator
+            + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith("gitlet.")) {
+                command.add("-D" + key + "=" + System.getProperty(key));
+            }
+        }
+        command.add(Main.class.getName());
+        command.add("monitor");
+        command.add("run");
+        Process process;
+        try {
+            process = new ProcessBuilder(command)
+                .directory(new File(System.getProperty("user.dir")))
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(file(LOG)))
+                .start();
+            process.getOutputStream().close();
+        } catch (IOException excp) {
+            System.out.println("Cannot start a monitor: "
+                + excp.getMessage());
+            return;
+        }
+        String pid = Long.toString(process.pid());
+        long deadline = System.currentTimeMillis() + START_TIMEOUT;
+        while (System.currentTimeMillis() < deadline && process.isAlive()) {
+            if (pid.equals(running())) {
+                return;
+            }
+            sleep(10);
+        }
+        System.out.println("The monitor did not start; see " + FOLDER
+            + "/" + LOG + ".");
+    }
+
+    /**
+     * stop the running monitor and wait for it to exit.
+     */
+    static void stop() {
+        String pid = running();
+        if (pid == null) {
+            System.out.println("No monitor is running.");
+            return;
+        }
+        try {
+            Files.write(file(STOP).toPath(), new byte[0]);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        long deadline = System.currentTimeMillis() + START_TIMEOUT;
+        while (System.currentTimeMillis() < deadline && alive(pid)) {
+            sleep(10);
+        }
+        if (alive(pid)) {
+            System.out.println("The monitor did not stop.");
+        }
+    }
+
+    /**
+     * sleep for MILLIS milliseconds.
+     * @param millis milliseconds
+     */
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * watch the working tree and journal its changes until told to stop
+     * or the monitor folder goes away.
+     */
+    static void run() {
+        if (running() != null) {
+            System.out.println("A monitor is already running.");
+            return;
+        }
+        try {
+            new Watcher().watch();
+        } catch (IOException excp) {
+            System.out.println("Monitor stopped: " + excp.getMessage());
+        } finally {
+            file(JOURNAL).delete();
+            file(STOP).delete();
+        }
+    }
+
+    /**
+     * the changes reported by the monitor for one query.
+     */
+    static class Changes {
+
+        /** session of the monitor. */
+        private final String _session;
+
+        /** whether the changes since the token are known; if not, every
+         *  path must be treated as changed. */
+        private boolean _known;
+
+        /** journal offset after the cookie. */
+        private long _offset;
+
+        /** changed files. */
+        private final HashSet<String> _files = new HashSet<>();
+
+        /** directories under which anything may have changed, each
+         *  followed by '/'. */
+        private final HashSet<String> _dirs = new HashSet<>();
+
+        /** top-level names at the token, or null if unknown. */
+        private final List<String> _names;
+
+        /** top-level names now, or null until computed. */
+        private List<String> _current;
+
+        /**
+         * changes in SESSION, KNOWN or not, since a token that saved the
+         * top-level NAMES.
+         * @param session session of the monitor
+         * @param known whether the token is of SESSION
+         * @param names top-level names, or null if unknown
+         */
+        Changes(String session, boolean known, List<String> names) {
+            _session = session;
+            _known = known;
+            _names = names;
+        }
+
+        /**
+         * add the journal line LINE.
+         * @param line line, without its newline
+         */
+        void add(String line) {
+            if (line.equals("*")) {
+                _known = false;
+            } else if (line.startsWith("f ")) {
+                _files.add(line.substring(2));
+            } else if (line.startsWith("d ")) {
+                _dirs.add(line.substring(2));
+            }
+        }
+
+        /**
+         * are the changes known?
+         * @return false if every path must be treated as changed
+         */
+        boolean known() {
+            return _known;
+        }
+
+        /**
+         * may PATH have changed?
+         * @param path path relative to the working directory
+         * @return true if so
+         */
+        boolean changed(String path) {
+            if (!_known || _files.contains(path)) {
+                return true;
+            }
+            if (_dirs.isEmpty()) {
+                return false;
+            }
+            for (int slash = path.indexOf(Tree.SEPARATOR); slash >= 0;
+                 slash = path.indexOf(Tree.SEPARATOR, slash + 1)) {
+                if (_dirs.contains(path.substring(0, slash + 1))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * the names in the working directory, without .gitlet, from
+         * those saved with the token and the changes, checking only the
+         * names that changed.
+         * @return names, sorted, or null if they are not known
+         */
+        List<String> names() {
+            if (_current != null || !_known || _names == null) {
+                return _current;
+            }
+            TreeSet<String> names = new TreeSet<>(_names);
+            HashSet<String> top = new HashSet<>();
+            for (String file : _files) {
+                if (file.indexOf(Tree.SEPARATOR) < 0) {
+                    top.add(file);
+                }
+            }
+            for (String dir : _dirs) {
+                if (dir.indexOf(Tree.SEPARATOR) == dir.length() - 1) {
+                    top.add(dir.substring(0, dir.length() - 1));
+                }
+            }
+            File root = new File(System.getProperty("user.dir"));
+            for (String name : top) {
+                if (name.equals(Gitlet.GITLET_FOLDER)) {
+                    continue;
+                }
+                if (Files.exists(new File(root, name).toPath(),
+                        LinkOption.NOFOLLOW_LINKS)) {
+                    names.add(name);
+                } else {
+                    names.remove(name);
+                }
+            }
+            _current = new ArrayList<>(names);
+            return _current;
+        }
+    }
+
+    /**
+     * the watching side of the monitor.
+     */
+    private static class Watcher {
+
+        /** the working directory. */
+        private final Path _root =
+            new File(System.getProperty("user.dir")).toPath();
+
+        /** the monitor folder. */
+        private final Path _folder = file("").toPath();
+
+        /** the watch service. */
+        private final WatchService _service;
+
+        /** watched directories by key. */
+        private final HashMap<WatchKey, Path> _dirs = new HashMap<>();
+
+        /** keys by watched directory. */
+        private final HashMap<Path, WatchKey> _keys = new HashMap<>();
+
+        /** the journal, open for appending. */
+        private FileChannel _journal;
+
+        /**
+         * a watcher of the working tree.
+         * @throws IOException no watch service.
+         */
+        Watcher() throws IOException {
+            _service = FileSystems.getDefault().newWatchService();
+        }
+
+        /**
+         * register every directory of the working tree, start a session
+         * and journal changes until told to stop.
+         * @throws IOException watching or journaling failed.
+         */
+        void watch() throws IOException {
+            try {
+                Files.deleteIfExists(_folder.resolve(STOP));
+                register(_root);
+                register(_folder);
+                newSession(false);
+                while (true) {
+                    WatchKey key = _service.take();
+                    LinkedHashSet<String> lines = new LinkedHashSet<>();
+                    ArrayList<String> cookies = new ArrayList<>();
+                    boolean stop = false;
+                    while (key != null) {
+                        stop |= process(key, lines, cookies);
+                        key = _service.poll();
+                    }
+                    for (String cookie : cookies) {
+                        lines.add("c " + cookie);
+                    }
+                    append(lines);
+                    if (stop) {
+                        return;
+                    }
+                    if (_journal.size() > JOURNAL_LIMIT) {
+                        newSession(true);
+                    }
+                }
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+            } finally {
+                _service.close();
+                if (_journal != null) {
+                    _journal.close();
+                }
+            }
+        }
+
+        /**
+         * add the changes of the events of KEY to LINES and the cookies
+         * seen to COOKIES.
+         * @param key signalled key
+         * @param lines journal lines
+         * @param cookies cookie names
+         * @return true if the monitor must stop
+         * @throws IOException a new directory cannot be watched.
+         */
+        private boolean process(WatchKey key, Collection<String> lines,
+            List<String> cookies) throws IOException {
+            Path dir = _dirs.get(key);
+            if (dir == null) {
+                key.cancel();
+                return false;
+            }
+            boolean stop = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    lines.add("*");
+                    continue;
+                }
+                Path child = dir.resolve((Path) event.context());
+                if (dir.equals(_folder)) {
+                    String name = child.getFileName().toString();
+                    if (name.equals(STOP)) {
+                        stop = true;
+                    } else if (name.startsWith(COOKIE) && event.kind()
+                        == StandardWatchEventKinds.ENTRY_CREATE) {
+                        cookies.add(name);
+                    }
+                    continue;
+                }
+                String path = relative(child);
+                if (path == null) {
+                    continue;
+                }
+                if (path.indexOf('\n') >= 0) {
+                    lines.add("*");
+                    continue;
+                }
+                lines.add("f " + path);
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                    && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                    register(child);
+                    lines.add("d " + path + Tree.SEPARATOR);
+                } else if (event.kind()
+                    == StandardWatchEventKinds.ENTRY_DELETE
+                    && _keys.containsKey(child)) {
+                    unregister(child);
+                    lines.add("d " + path + Tree.SEPARATOR);
+                }
+            }
+            if (!key.reset()) {
+                _dirs.remove(key);
+                _keys.remove(dir);
+                if (dir.equals(_folder) || dir.equals(_root)) {
+                    return true;
+                }
+                String path = relative(dir);
+                if (path != null) {
+                    lines.add("d " + path + Tree.SEPARATOR);
+                }
+            }
+            return stop;
+        }
+
+        /**
+         * the path of FILE relative to the working directory.
+         * @param file file in the working tree
+         * @return path with '/' separators, or null for .gitlet and the
+         *         files in it
+         */
+        private String relative(Path file) {
+            String path = _root.relativize(file).toString()
+                .replace(File.separatorChar, Tree.SEPARATOR);
+            if (path.equals(Gitlet.GITLET_FOLDER)
+                || path.startsWith(Gitlet.GITLET_FOLDER + Tree.SEPARATOR)) {
+                return null;
+            }
+            return path;
+        }
+
+        /**
+         * watch DIR and every directory under it, except .gitlet (the
+         * monitor folder is registered on its own).
+         * @param dir directory
+         * @throws IOException a directory cannot be watched.
+         */
+        private void register(Path dir) throws IOException {
+            Path gitlet = _root.resolve(Gitlet.GITLET_FOLDER);
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path d,
+                    BasicFileAttributes attrs) throws IOException {
+                    if (d.equals(gitlet) && !dir.equals(_folder)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    WatchKey key = d.register(_service,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                    _dirs.put(key, d);
+                    _keys.put(d, key);
+                    return dir.equals(_folder) ? FileVisitResult.SKIP_SUBTREE
+                        : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file,
+                    IOException excp) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        /**
+         * stop watching DIR and the directories under it.
+         * @param dir directory
+         */
+        private void unregister(Path dir) {
+            ArrayList<Path> gone = new ArrayList<>();
+            for (Path d : _keys.keySet()) {
+                if (d.startsWith(dir)) {
+                    gone.add(d);
+                }
+            }
+            for (Path d : gone) {
+                WatchKey key = _keys.remove(d);
+                _dirs.remove(key);
+                key.cancel();
+            }
+        }
+
+        /**
+         * append LINES to the journal in one write.
+         * @param lines journal lines
+         * @throws IOException the journal cannot be written.
+         */
+        private void append(Collection<String> lines) throws IOException {
+            if (lines.isEmpty()) {
+                return;
+            }
+            StringBuilder text = new StringBuilder();
+            for (String line : lines) {
+                text.append(line).append('\n');
+            }
+            ByteBuffer buf = ByteBuffer.wrap(
+                text.toString().getBytes(StandardCharsets.UTF_8));
+            while (buf.hasRemaining()) {
+                _journal.write(buf);
+            }
+        }
+
+        /**
+         * start a new session with an empty journal, telling readers of
+         * the old journal, if REPLACE, that it was replaced.
+         * @param replace whether a journal of this monitor exists
+         * @throws IOException the journal cannot be written.
+         */
+        private void newSession(boolean replace) throws IOException {
+            if (replace) {
+                append(List.of("r"));
+                _journal.close();
+            }
+            String pid = Long.toString(ProcessHandle.current().pid());
+            String session = Utils.sha1(pid, Long.toString(System.nanoTime()),
+                Long.toString(System.currentTimeMillis()));
+            Path journal = _folder.resolve(JOURNAL);
+            Path tmp = _folder.resolve(JOURNAL + ".tmp");
+            Files.write(tmp, (HEADER + " " + session + " " + pid + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+            Durability.replace(tmp.toFile(), journal.toFile());
+            _journal = FileChannel.open(journal, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        }
+    }
+}
@@ -0,0 +1,1325 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Content-addressed storage for the objects kept in .gitlet.
+ * Objects live in a folder (e.g. Gitlet.ABS_BLOB_FOLDER), fanned out by
+ * the sha1 of their contents: object ab12... is stored as ab/12...
+ * Objects in the old flat layout (folder/ab12...) are moved into place
+ * the first time they are looked up or enumerated. Everything here works
+ * on bounded buffers, so the size of an object never decides how much
+ * heap is used.
+ *
+ * An object file starts with a header, MAGIC followed by one byte naming
+ * how the rest is stored (STORED, DEFLATED or DELTA). Files without the
+ * header were written before it existed and hold the contents as they
+ * are. DELTA objects only occur in packs: the header is followed by the
+ * raw id of a base object of the same folder and a deflated Delta that
+ * rebuilds the object from that base. Recently read bases are kept in a
+ * small cache so reading along a delta chain stays cheap.
+ *
+ * Files of at least the "chunk.threshold" setting's size (default 8 MB,
+ * 0 for never) are stored CHUNKED: cut into content-defined chunks (see
+ * Chunker) that are stored as objects of Gitlet.ABS_CHUNK_FOLDER, and an
+ * object whose header is followed by the raw ids of its chunks in order.
+ * An edit to such a file only stores the chunks it touched.
+ *
+ * New objects are written to a temporary file and handed to Durability,
+ * which renames them into place; until then they are read from the
+ * temporary file.
+ *
+ * Objects are either loose (one file each, as above) or packed (see
+ * Pack); lookups try loose objects first, then every pack of the folder.
+ * repack moves all of a folder's objects into a single pack.
+ *
+ * Working files are written from objects by materialize(), as the
+ * "checkout.mode" setting says: COPY (default) copies the contents,
+ * with FileChannel#transferTo for uncompressed objects; REFLINK and
+ * HARDLINK store new blobs below the chunk threshold without a header,
+ * so that the object file holds exactly the file's contents, and make
+ * working files reflinks or read-only hard links of such loose objects,
+ * falling back to a copy where the filesystem cannot. A working file is
+ * never written in place while it is a hard link (see detach()).
+ *
+ * @author Solomon Cheung
+ */
+class ObjectStore {
+
+    /** number of hex digits of an object hash used as its directory. */
+    static final int FANOUT_LENGTH = 2;
+
+    /** size of the buffers used to hash and copy objects. */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /** first bytes of every object file that has a header. */
+    static final byte[] MAGIC = {(byte) 0xc7, 'g', 'l', 't'};
+
+    /** length of the object header. */
+    static final int HEADER_LENGTH = MAGIC.length + 1;
+
+    /** header method: contents follow the header as they are. */
+    static final byte STORED = 0;
+
+    /** header method: contents follow the header deflated. */
+    static final byte DEFLATED = 1;
+
+    /** header method: a base id and a deflated delta follow the header. */
+    static final byte DELTA = 2;
+
+    /** header method: the raw ids of the object's chunks follow. */
+    static final byte CHUNKED = 3;
+
+    /** checkout mode: copy objects to working files. */
+    static final String COPY = "copy";
+
+    /** checkout mode: clone headerless blobs with a reflink. */
+    static final String REFLINK = "reflink";
+
+    /** checkout mode: hard link headerless blobs, read-only. */
+    static final String HARDLINK = "hardlink";
+
+    /** size below which no reflink is tried, as starting cp(1) costs
+     *  more than copying the file. */
+    static final long REFLINK_MIN = 1 << 20;
+
+    /** number of object files written by this process. */
+    private static int _objectsWritten;
+
+    /** total size of the object files written by this process. */
+    private static long _bytesWritten;
+
+    /** number of objects not written because they were already stored. */
+    private static int _objectsDeduplicated;
+
+    /** size of the contents of those objects. */
+    private static long _bytesDeduplicated;
+
+    /**
+     * deflate level for new objects, from the "compression" setting.
+     * 0 stores objects uncompressed, 1-9 as for java.util.zip.Deflater.
+     */
+    private static int _level = -1;
+
+    /**
+     * size from which files are stored CHUNKED, from the
+     * "chunk.threshold" setting; 0 for never.
+     */
+    private static long _chunkThreshold = -1;
+
+    /** the "checkout.mode" setting; null until read. */
+    private static String _mode;
+
+    /** whether a reflink has failed, so none is tried again. */
+    private static volatile boolean _noReflink;
+
+    /**
+     * the size from which files are stored CHUNKED.
+     * @return size in bytes, 0 for never
+     */
+    static long chunkThreshold() {
+        if (_chunkThreshold < 0) {
+            setChunkThreshold(Config.getLong("chunk.threshold", 8L << 20));
+        }
+        return _chunkThreshold;
+    }
+
+    /**
+     * set the size from which files are stored CHUNKED.
+     * @param threshold size in bytes, 0 for never
+     */
+    static void setChunkThreshold(long threshold) {
+        if (threshold < 0) {
+            throw Utils.error("Bad chunk threshold: %d", threshold);
+        }
+        _chunkThreshold = threshold;
+    }
+
+    /**
+     * the deflate level new objects are written with.
+     * @return level, 0 for none
+     */
+    static int compressionLevel() {
+        if (_level < 0) {
+            setCompressionLevel(Config.getInt("compression", 0));
+        }
+        return _level;
+    }
+
+    /**
+     * set the deflate level new objects are written with.
+     * @param level 0 for none, or 1-9
+     */
+    static void setCompressionLevel(int level) {
+        if (level < Deflater.NO_COMPRESSION
+            || level > Deflater.BEST_COMPRESSION) {
+            throw Utils.error("Bad compression level: %d", level);
+        }
+        _level = level;
+    }
+
+    /**
+     * the way working files are written from objects, from the
+     * "checkout.mode" setting.
+     * @return COPY, REFLINK or HARDLINK
+     */
+    static String checkoutMode() {
+        if (_mode == null) {
+            setCheckoutMode(Config.get("checkout.mode", COPY));
+        }
+        return _mode;
+    }
+
+    /**
+     * set the way working files are written from objects.
+     * @param mode COPY, REFLINK or HARDLINK
+     */
+    static void setCheckoutMode(String mode) {
+        if (!mode.equals(COPY) && !mode.equals(REFLINK)
+            && !mode.equals(HARDLINK)) {
+            throw Utils.error("Bad checkout mode: %s", mode);
+        }
+        _mode = mode;
+    }
+
+    /**
+     * return a fresh SHA-1 digest.
+     * @return digest
+     */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /**
+     * hex representation of a digest, as produced by Utils#sha1.
+     * @param digest raw digest bytes
+     * @return lower-case hex string
+     */
+    static String toHex(byte[] digest) {
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i += 1) {
+            hex[2 * i] = Character.forDigit((digest[i] >> 4) & 0xf, 16);
+            hex[2 * i + 1] = Character.forDigit(digest[i] & 0xf, 16);
+        }
+        return new String(hex);
+    }
+
+    /**
+     * compute the sha1 of FILE's contents without loading it in memory.
+     * @param file a normal file
+     * @return hex sha1
+     * @throws IllegalArgumentException file not readable.
+     */
+    static String hash(File file) {
+        MessageDigest md = newDigest();
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                 StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+            while (in.read(buf) != -1) {
+                buf.flip();
+                md.update(buf);
+                buf.clear();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return toHex(md.digest());
+    }
+
+    /**
+     * the file an object with hash ID is stored in, migrating it from
+     * the flat layout if it is still there.
+     * @param folder object folder, relative to the working directory
+     * @param id object hash
+     * @return object file
+     */
+    static File objectFile(String folder, String id) {
+        File dir = new File(System.getProperty("user.dir"), folder);
+        if (id.length() <= FANOUT_LENGTH) {
+            return new File(dir, id);
+        }
+        File file = fanoutFile(dir, id);
+        if (!file.exists()) {
+            File flat = new File(dir, id);
+            if (flat.isFile()) {
+                migrate(flat, file);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * the fan-out location of the object ID in the object folder DIR.
+     * @param dir object folder
+     * @param id object hash
+     * @return object file
+     */
+    private static File fanoutFile(File dir, String id) {
+        return new File(dir, id.substring(0, FANOUT_LENGTH) + "/"
+            + id.substring(FANOUT_LENGTH));
+    }
+
+    /**
+     * is the object ID present in FOLDER?
+     * @param folder object folder
+     * @param id object hash
+     * @return true if stored
+     */
+    static boolean contains(String folder, String id) {
+        return locate(folder, id) != null;
+    }
+
+    /**
+     * is the object ID present in FOLDER as a loose object?
+     * @param folder object folder
+     * @param id object hash
+     * @return true if stored loose
+     */
+    static boolean containsLoose(String folder, String id) {
+        File file = objectFile(folder, id);
+        return file.isFile() || Durability.pending(file) != null;
+    }
+
+    /**
+     * the packs of each object folder, by its absolute path, so that
+     * changing the working directory never shows another repository's
+     * packs. Loaded on first use.
+     */
+    private static java.util.HashMap<File, List<Pack>> _packs =
+        new java.util.HashMap<>();
+
+    /**
+     * the packs of FOLDER.
+     * @param folder object folder
+     * @return packs
+     */
+    static synchronized List<Pack> packs(String folder) {
+        File dir = new File(System.getProperty("user.dir"), folder);
+        List<Pack> packs = _packs.get(dir);
+        if (packs == null) {
+            packs = Pack.load(folder);
+            _packs.put(dir, packs);
+        }
+        return packs;
+    }
+
+    /**
+     * make PACKS the packs of FOLDER.
+     * @param folder object folder
+     * @param packs its packs
+     */
+    private static synchronized void setPacks(String folder,
+        List<Pack> packs) {
+        _packs.put(new File(System.getProperty("user.dir"), folder), packs);
+    }
+
+    /**
+     * where the stored bytes of object ID of FOLDER are. The packs are
+     * searched first, as in a packed folder most objects are there and
+     * finding one in a mapped index needs no system call; the loose
+     * object file is only looked for after that.
+     * @param folder object folder
+     * @param id object hash
+     * @return its region, or null if there is no such object
+     */
+    static Region locate(String folder, String id) {
+        for (Pack pack : packs(folder)) {
+            int i = pack.find(id);
+            if (i >= 0) {
+                return new Region(pack, i);
+            }
+        }
+        File file = objectFile(folder, id);
+        if (file.isFile()) {
+            return new Region(file, 0, file.length());
+        }
+        File pending = Durability.pending(file);
+        if (pending != null) {
+            return new Region(pending, 0, pending.length());
+        }
+        return null;
+    }
+
+    /**
+     * the region of a file holding the stored bytes (header included)
+     * of one object: a whole loose object file, or a part of a pack.
+     */
+    static class Region {
+        /** file holding the object. */
+        private final File _file;
+        /** position of the object in _file. */
+        private final long _offset;
+        /** number of bytes of the object. */
+        private final long _length;
+        /** the pack _file is the .pack of, or null for another file. */
+        private final Pack _pack;
+
+        /**
+         * the LENGTH bytes of FILE starting at OFFSET.
+         * @param file file
+         * @param offset start
+         * @param length length
+         */
+        Region(File file, long offset, long length) {
+            _file = file;
+            _offset = offset;
+            _length = length;
+            _pack = null;
+        }
+
+        /**
+         * the object at index I of PACK, read through the pack's
+         * channel.
+         * @param pack pack
+         * @param i index of the object
+         */
+        Region(Pack pack, int i) {
+            _file = pack.getPackFile();
+            _offset = pack.offset(i);
+            _length = pack.length(i);
+            _pack = pack;
+        }
+
+        /**
+         * file holding the object.
+         * @return _file
+         */
+        File getFile() {
+            return _file;
+        }
+
+        /**
+         * position of the object in its file.
+         * @return _offset
+         */
+        long getOffset() {
+            return _offset;
+        }
+
+        /**
+         * number of bytes of the object.
+         * @return _length
+         */
+        long getLength() {
+            return _length;
+        }
+
+        /**
+         * open a stream over the region.
+         * @return stream
+         */
+        InputStream open() {
+            if (_pack != null) {
+                return _pack.open(_offset, _length);
+            }
+            return Pack.openRegion(_file, _offset, _length);
+        }
+
+        /**
+         * copy the region, from SKIP bytes in, to the end of OUT.
+         * @param out channel to write
+         * @param skip number of leading bytes to leave out
+         * @throws IOException
+         */
+        void transferTo(FileChannel out, long skip) throws IOException {
+            if (_pack != null) {
+                transferTo(_pack.channel(), out, skip);
+                return;
+            }
+            try (FileChannel in = FileChannel.open(_file.toPath(),
+                     StandardOpenOption.READ)) {
+                transferTo(in, out, skip);
+            }
+        }
+
+        /**
+         * copy the region of IN, from SKIP bytes in, to the end of OUT.
+         * @param in channel of _file
+         * @param out channel to write
+         * @param skip number of leading bytes to leave out
+         * @throws IOException
+         */
+        private void transferTo(FileChannel in, FileChannel out, long skip)
+            throws IOException {
+            long pos = _offset + skip;
+            long end = _offset + _length;
+            while (pos < end) {
+                pos += in.transferTo(pos, end - pos, out);
+            }
+        }
+
+        /**
+         * copy the whole region to the end of OUT.
+         * @param out channel to write
+         * @throws IOException
+         */
+        void transferTo(FileChannel out) throws IOException {
+            transferTo(out, 0);
+        }
+    }
+
+    /**
+     * the hashes of all objects in FOLDER, sorted.
+     * Migrates any objects still in the flat layout.
+     * @param folder object folder
+     * @return sorted object hashes
+     */
+    static List<String> ids(String folder) {
+        return ids(folder, "");
+    }
+
+    /**
+     * the hashes of the objects in FOLDER that start with PREFIX, sorted.
+     * Only the fan-out directories that can hold such objects are listed,
+     * so with a PREFIX of at least FANOUT_LENGTH digits that is just one.
+     * The top level of FOLDER holds at most one entry per fan-out
+     * directory once migrated, so it is cheap to check for flat objects;
+     * any found are moved into place, and the folder is listed again so
+     * that the fan-out directories they made are included.
+     * @param folder object folder
+     * @param prefix start of the hashes wanted
+     * @return sorted object hashes
+     */
+    static List<String> ids(String folder, String prefix) {
+        File dir = new File(System.getProperty("user.dir"), folder);
+        ArrayList<String> ids = new ArrayList<>();
+        String[] names = dir.list();
+        if (names == null) {
+            return ids;
+        }
+        boolean migrated = false;
+        for (String name : names) {
+            if (isHash(name)) {
+                migrate(new File(dir, name), fanoutFile(dir, name));
+                migrated = true;
+            }
+        }
+        if (migrated) {
+            names = dir.list();
+        }
+        if (prefix.length() >= FANOUT_LENGTH) {
+            String fan = prefix.substring(0, FANOUT_LENGTH);
+            addIds(ids, new File(dir, fan), fan, prefix);
+        } else {
+            for (String name : names) {
+                if (name.length() == FANOUT_LENGTH && name.startsWith(prefix)) {
+                    addIds(ids, new File(dir, name), name, prefix);
+                }
+            }
+        }
+        List<Pack> packs = packs(folder);
+        for (Pack pack : packs) {
+            pack.addIds(ids, prefix);
+        }
+        Collections.sort(ids);
+        if (!packs.isEmpty()) {
+            dedup(ids);
+        }
+        return ids;
+    }
+
+    /**
+     * remove adjacent duplicates from the sorted list IDS.
+     * @param ids sorted list
+     */
+    private static void dedup(List<String> ids) {
+        int j = 0;
+        for (int i = 0; i < ids.size(); i += 1) {
+            if (j == 0 || !ids.get(i).equals(ids.get(j - 1))) {
+                ids.set(j, ids.get(i));
+                j += 1;
+            }
+        }
+        ids.subList(j, ids.size()).clear();
+    }
+
+    /**
+     * move every object of FOLDER, loose or packed, into one new pack,
+     * then delete the loose objects and old packs.
+     * The new pack is complete before anything is deleted, so a
+     * failure part way leaves every object readable.
+     * @param folder object folder
+     * @param bases suggested delta base for objects, see Pack#write
+     */
+    static void repack(String folder, java.util.Map<String, String> bases) {
+        List<String> ids = ids(folder);
+        List<Pack> old = packs(folder);
+        if (ids.isEmpty() || (old.size() <= 1 && looseCount(folder) == 0
+            && bases.isEmpty())) {
+            return;
+        }
+        Pack pack = Pack.write(folder, ids, bases);
+        ArrayList<Pack> packs = new ArrayList<>();
+        packs.add(pack);
+        setPacks(folder, packs);
+        for (String id : ids) {
+            objectFile(folder, id).delete();
+        }
+        File dir = new File(System.getProperty("user.dir"), folder);
+        String[] names = dir.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.length() == FANOUT_LENGTH) {
+                    new File(dir, name).delete();
+                }
+            }
+        }
+        for (Pack p : old) {
+            if (!p.getPackFile().equals(pack.getPackFile())) {
+                p.delete();
+            }
+        }
+    }
+
+    /**
+     * the number of loose objects of FOLDER.
+     * @param folder object folder
+     * @return count
+     */
+    private static int looseCount(String folder) {
+        File dir = new File(System.getProperty("user.dir"), folder);
+        int count = 0;
+        String[] names = dir.list();
+        if (names != null) {
+            for (String name : names) {
+                String[] objects = name.length() == FANOUT_LENGTH
+                    ? new File(dir, name).list() : null;
+                count += objects == null ? 0 : objects.length;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * add to IDS the hashes of the objects in the fan-out directory DIR,
+     * named FAN, that start with PREFIX.
+     * @param ids list to add to
+     * @param dir fan-out directory
+     * @param fan name of DIR
+     * @param prefix start of the hashes wanted
+     */
+    private static void addIds(List<String> ids, File dir, String fan,
+        String prefix) {
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            String id = fan + name;
+            if (isHash(id) && id.startsWith(prefix)) {
+                ids.add(id);
+            }
+        }
+    }
+
+    /**
+     * is NAME a full object hash?
+     * @param name file name
+     * @return true if NAME is UID_LENGTH hex digits
+     */
+    static boolean isHash(String name) {
+        if (name.length() != Utils.UID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i += 1) {
+            if (Character.digit(name.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * move the flat-layout object FLAT to its fan-out location TARGET.
+     * If TARGET is already there, as when another command migrated it
+     * first, FLAT is a copy of it and is deleted.
+     * @param flat object file in the old layout
+     * @param target object file in the fan-out layout
+     */
+    private static void migrate(File flat, File target) {
+        try {
+            target.getParentFile().mkdirs();
+            Files.move(flat.toPath(), target.toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            if (!target.isFile()) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            flat.delete();
+        }
+    }
+
+    /**
+     * copy SOURCE into FOLDER, hashing it while it is copied, and
+     * return its hash. The copy goes to a temporary file that is renamed
+     * to its hash once complete, so a reader never sees a partial object.
+     * Files of at least chunkThreshold() bytes are stored CHUNKED.
+     * @param folder object folder
+     * @param source file to store
+     * @return hex sha1 of the contents
+     */
+    static String store(String folder, File source) {
+        return store(folder, null, source);
+    }
+
+    /**
+     * store SOURCE, whose hash was ID, in FOLDER. Nothing is read or
+     * written if the object ID is already stored. Otherwise the contents
+     * are hashed as they are copied, and the object is stored under that
+     * hash, so a file changed since ID was computed is stored as it is
+     * now rather than under a name that does not match it.
+     * @param folder object folder
+     * @param id hash of the contents, or null if not known
+     * @param source file to store
+     * @return hex sha1 of the contents stored
+     */
+    static String store(String folder, String id, File source) {
+        if (id != null && contains(folder, id)) {
+            deduplicated(source.length());
+            return id;
+        }
+        long threshold = chunkThreshold();
+        try (InputStream in = Files.newInputStream(source.toPath())) {
+            if (threshold > 0 && source.length() >= threshold) {
+                return storeChunked(folder, in);
+            }
+            return store(folder, null, in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * store CONTENTS as the object ID in FOLDER, unless it is already
+     * stored.
+     * @param folder object folder
+     * @param id hash of contents
+     * @param contents object bytes
+     */
+    static void store(String folder, String id, byte[] contents) {
+        if (contains(folder, id)) {
+            deduplicated(contents.length);
+            return;
+        }
+        store(folder, id, new java.io.ByteArrayInputStream(contents));
+    }
+
+    /**
+     * write the bytes of IN as an object of FOLDER, with a header and
+     * compressed at compressionLevel(), or as they are if it is a blob
+     * and the checkout mode links blobs.
+     * @param folder object folder
+     * @param id hash of the contents, or null to compute it while copying
+     * @param in contents
+     * @return hash of the contents
+     */
+    private static String store(String folder, String id, InputStream in) {
+        File dir = new File(System.getProperty("user.dir"), folder);
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("tmp_", null, dir);
+            MessageDigest md = id == null ? newDigest() : null;
+            boolean raw = folder.equals(Gitlet.ABS_BLOB_FOLDER)
+                && !checkoutMode().equals(COPY);
+            long length;
+            try (OutputStream file = Files.newOutputStream(tmp.toPath())) {
+                length = raw ? encodeRaw(in, file, md) : encode(in, file, md);
+            }
+            if (md != null) {
+                id = toHex(md.digest());
+            }
+            if (!contains(folder, id)) {
+                publish(tmp, objectFile(folder, id));
+                tmp = null;
+            } else {
+                deduplicated(length);
+            }
+            return id;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * store the bytes of IN as a CHUNKED object of FOLDER, storing
+     * each chunk not already in the chunk folder. Only one chunk of IN
+     * is held in memory at a time, besides the list of chunk ids.
+     * @param folder object folder
+     * @param in contents
+     * @return hash of the contents
+     * @throws IOException
+     */
+    private static String storeChunked(String folder, InputStream in)
+        throws IOException {
+        new File(System.getProperty("user.dir"),
+            Gitlet.ABS_CHUNK_FOLDER).mkdirs();
+        MessageDigest whole = newDigest();
+        java.io.ByteArrayOutputStream object =
+            new java.io.ByteArrayOutputStream();
+        object.write(MAGIC);
+        object.write(CHUNKED);
+        byte[] buf = new byte[2 * Chunker.MAX_SIZE];
+        int start = 0;
+        int end = 0;
+        boolean eof = false;
+        while (true) {
+            if (!eof && end - start < Chunker.MAX_SIZE) {
+                System.arraycopy(buf, start, buf, 0, end - start);
+                end -= start;
+                start = 0;
+                int n = in.readNBytes(buf, end, buf.length - end);
+                end += n;
+                eof = end < buf.length;
+            }
+            if (start == end) {
+                break;
+            }
+            int len = Chunker.cut(buf, start, end - start);
+            whole.update(buf, start, len);
+            MessageDigest md = newDigest();
+            md.update(buf, start, len);
+            byte[] raw = md.digest();
+            String chunk = toHex(raw);
+            if (!contains(Gitlet.ABS_CHUNK_FOLDER, chunk)) {
+                store(Gitlet.ABS_CHUNK_FOLDER, chunk,
+                    new java.io.ByteArrayInputStream(buf, start, len));
+            } else {
+                deduplicated(len);
+            }
+            object.write(raw);
+            start += len;
+        }
+        String id = toHex(whole.digest());
+        if (!contains(folder, id)) {
+            File dir = new File(System.getProperty("user.dir"), folder);
+            File tmp = File.createTempFile("tmp_", null, dir);
+            try {
+                Files.write(tmp.toPath(), object.toByteArray());
+                publish(tmp, objectFile(folder, id));
+                tmp = null;
+            } finally {
+                if (tmp != null) {
+                    tmp.delete();
+                }
+            }
+        } else {
+            deduplicated(object.size());
+        }
+        return id;
+    }
+
+    /**
+     * write the object whose contents are IN to OUT: a header and the
+     * contents, deflated at compressionLevel(). Does not close OUT.
+     * @param in contents
+     * @param out stream to write the object to
+     * @param md digest to update with the contents, or null
+     * @return number of bytes of contents
+     * @throws IOException
+     */
+    static long encode(InputStream in, OutputStream out, MessageDigest md)
+        throws IOException {
+        int level = compressionLevel();
+        out.write(MAGIC);
+        out.write(level == 0 ? STORED : DEFLATED);
+        Deflater deflater = level == 0 ? null : new Deflater(level);
+        try {
+            OutputStream body = deflater == null ? out
+                : new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+            byte[] buf = new byte[BUFFER_SIZE];
+            long length = 0;
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                if (md != null) {
+                    md.update(buf, 0, n);
+                }
+                body.write(buf, 0, n);
+                length += n;
+            }
+            if (deflater != null) {
+                ((DeflaterOutputStream) body).finish();
+            }
+            return length;
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * write the contents IN to OUT as they are, without a header, so
+     * that the object file can be linked as a working file. Contents
+     * that start with MAGIC are given a STORED header, so that they are
+     * not taken for one. Does not close OUT.
+     * @param in contents
+     * @param out stream to write the object to
+     * @param md digest to update with the contents, or null
+     * @return number of bytes of contents
+     * @throws IOException
+     */
+    private static long encodeRaw(InputStream in, OutputStream out,
+        MessageDigest md) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        int n = in.readNBytes(buf, 0, MAGIC.length);
+        if (Arrays.equals(buf, 0, n, MAGIC, 0, MAGIC.length)) {
+            out.write(MAGIC);
+            out.write(STORED);
+        }
+        long length = 0;
+        while (n > 0) {
+            if (md != null) {
+                md.update(buf, 0, n);
+            }
+            out.write(buf, 0, n);
+            length += n;
+            n = in.read(buf);
+        }
+        return length;
+    }
+
+    /**
+     * the stored form of a DELTA object: a header, the raw id of BASE,
+     * and DELTA deflated.
+     * @param base hex id of the base object
+     * @param delta delta rebuilding the object from BASE
+     * @return bytes to store
+     */
+    static byte[] encodeDelta(String base, byte[] delta) {
+        java.io.ByteArrayOutputStream out =
+            new java.io.ByteArrayOutputStream();
+        out.write(MAGIC, 0, MAGIC.length);
+        out.write(DELTA);
+        out.write(Pack.fromHex(base), 0, Pack.ID_LENGTH);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DeflaterOutputStream body =
+                 new DeflaterOutputStream(out, deflater)) {
+            body.write(delta);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * make the finished temporary file TMP the object file TARGET,
+     * counting it as written; see Durability#publish. TARGET appears
+     * complete or not at all. TMP is deleted or taken over either way.
+     * @param tmp temporary file
+     * @param target object file
+     * @throws IOException
+     */
+    private static synchronized void publish(File tmp, File target)
+        throws IOException {
+        if (target.exists() || Durability.pending(target) != null) {
+            tmp.delete();
+            return;
+        }
+        _objectsWritten += 1;
+        _bytesWritten += tmp.length();
+        Durability.publish(tmp, target);
+    }
+
+    /**
+     * count an object of LENGTH bytes of contents as not written because
+     * it was already stored.
+     * @param length size of its contents
+     */
+    private static synchronized void deduplicated(long length) {
+        _objectsDeduplicated += 1;
+        _bytesDeduplicated += length;
+    }
+
+    /**
+     * a summary of the objects written and deduplicated so far by this
+     * process, printed after each command when the "stats" setting is
+     * true.
+     * @return one line of text
+     */
+    static String stats() {
+        return String.format("objects: %d written (%d bytes), "
+            + "%d deduplicated (%d bytes)", _objectsWritten, _bytesWritten,
+            _objectsDeduplicated, _bytesDeduplicated);
+    }
+
+    /**
+     * how the object in REGION is stored.
+     * @param region where the object is
+     * @return STORED, DEFLATED, DELTA or CHUNKED, or -1 for an object
+     *         without a header
+     */
+    static int method(Region region) {
+        try (InputStream in = region.open()) {
+            return method(in.readNBytes(HEADER_LENGTH));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * where object ID of FOLDER is.
+     * @param folder object folder
+     * @param id object hash
+     * @return its region
+     * @throws IllegalArgumentException no such object.
+     */
+    private static Region require(String folder, String id) {
+        Region region = locate(folder, id);
+        if (region == null) {
+            throw new IllegalArgumentException(String.format(
+                "no object %s in %s", id, folder));
+        }
+        return region;
+    }
+
+    /**
+     * how the object whose first bytes are HEADER is stored.
+     * @param header the first HEADER_LENGTH bytes of an object
+     * @return STORED, DEFLATED, DELTA or CHUNKED, or -1 if HEADER is
+     *         not a header
+     */
+    private static int method(byte[] header) {
+        if (header.length < HEADER_LENGTH
+            || !Arrays.equals(header, 0, MAGIC.length,
+                MAGIC, 0, MAGIC.length)) {
+            return -1;
+        }
+        return header[MAGIC.length];
+    }
+
+    /**
+     * open the object ID in FOLDER for reading.
+     * @param folder object folder
+     * @param id object hash
+     * @return stream over the object's contents
+     */
+    static InputStream open(String folder, String id) {
+        try {
+            InputStream in = new BufferedInputStream(
+                require(folder, id).open(), BUFFER_SIZE);
+            in.mark(HEADER_LENGTH);
+            switch (method(in.readNBytes(HEADER_LENGTH))) {
+            case STORED:
+                return in;
+            case DEFLATED:
+                return new InflaterInputStream(in);
+            case DELTA:
+                String base = toHex(in.readNBytes(Pack.ID_LENGTH));
+                byte[] delta;
+                try (InputStream body = new InflaterInputStream(in)) {
+                    delta = body.readAllBytes();
+                }
+                return new java.io.ByteArrayInputStream(
+                    Delta.apply(readBase(folder, base), delta));
+            case CHUNKED:
+                java.util.Iterator<String> chunks = chunks(in).iterator();
+                in.close();
+                return new java.io.SequenceInputStream(
+                    new java.util.Enumeration<InputStream>() {
+                        @Override
+                        public boolean hasMoreElements() {
+                            return chunks.hasNext();
+                        }
+
+                        @Override
+                        public InputStream nextElement() {
+                            return open(Gitlet.ABS_CHUNK_FOLDER,
+                                chunks.next());
+                        }
+                    });
+            default:
+                in.reset();
+                return in;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * the chunk ids listed in the rest of the CHUNKED object IN.
+     * @param in stream positioned after the object's header
+     * @return hex chunk ids, in order
+     * @throws IOException
+     */
+    private static List<String> chunks(InputStream in) throws IOException {
+        byte[] raw = in.readAllBytes();
+        ArrayList<String> chunks = new ArrayList<>();
+        for (int i = 0; i + Pack.ID_LENGTH <= raw.length;
+             i += Pack.ID_LENGTH) {
+            chunks.add(toHex(Arrays.copyOfRange(raw, i, i + Pack.ID_LENGTH)));
+        }
+        return chunks;
+    }
+
+    /**
+     * read the whole object ID in FOLDER.
+     * @param folder object folder
+     * @param id object hash
+     * @return contents
+     */
+    static byte[] read(String folder, String id) {
+        try (InputStream in = open(folder, id)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * decoded objects recently used as delta bases, least recently used
+     * first, keyed by folder and id.
+     */
+    private static java.util.LinkedHashMap<String, byte[]> _bases =
+        new java.util.LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * total size of the objects in _bases.
+     */
+    private static long _basesSize;
+
+    /**
+     * read the whole object ID in FOLDER to be used as a delta base,
+     * going through the base cache. The cache holds at most the
+     * "pack.baseCache" setting's worth of bytes (default 32 MB).
+     * @param folder object folder
+     * @param id object hash
+     * @return contents
+     */
+    static byte[] readBase(String folder, String id) {
+        String key = folder + "/" + id;
+        byte[] contents = _bases.get(key);
+        if (contents != null) {
+            return contents;
+        }
+        contents = read(folder, id);
+        long limit = Config.getLong("pack.baseCache", 32L << 20);
+        if (contents.length <= limit) {
+            _bases.put(key, contents);
+            _basesSize += contents.length;
+            java.util.Iterator<byte[]> lru = _bases.values().iterator();
+            while (_basesSize > limit && lru.hasNext()) {
+                _basesSize -= lru.next().length;
+                lru.remove();
+            }
+        }
+        return contents;
+    }
+
+    /**
+     * write the object ID in FOLDER to TARGET, creating or overwriting
+     * it. Uncompressed objects move channel to channel and are never
+     * held in the heap; compressed ones are inflated a buffer at a time.
+     * The chunks of a CHUNKED object are copied in turn the same way.
+     * @param folder object folder
+     * @param id object hash
+     * @param target file to write
+     */
+    static void copyTo(String folder, String id, File target) {
+        Region region = require(folder, id);
+        int method = method(region);
+        if (method == CHUNKED) {
+            copyChunks(region, target);
+        } else if (method == DEFLATED || method == DELTA) {
+            try (InputStream in = open(folder, id)) {
+                copy(in, target);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        } else {
+            materialize(region, method == STORED ? HEADER_LENGTH : 0,
+                target);
+        }
+    }
+
+    /**
+     * write the object in REGION, leaving out its first SKIP bytes, to
+     * TARGET: as a link of the object file if the checkout mode links
+     * blobs, REGION is a whole loose object without a header that is
+     * already in place (not pending in Durability) and the filesystem
+     * allows it, and otherwise with copy(). Safe to call from
+     * several threads.
+     * @param region bytes of the object
+     * @param skip length of its header, or 0 for none
+     * @param target file to create or overwrite
+     */
+    static void materialize(Region region, long skip, File target) {
+        if (skip > 0 || checkoutMode().equals(COPY)
+            || !link(region, target)) {
+            copy(region, skip, target);
+        }
+    }
+
+    /**
+     * replace TARGET with a reflink or (read-only) hard link of the
+     * object file of REGION, as the checkout mode says.
+     * @param region a headerless object
+     * @param target file to create or overwrite
+     * @return false if REGION is not a whole published object file or
+     *         the link could not be made; TARGET may then have been
+     *         deleted
+     */
+    private static boolean link(Region region, File target) {
+        File source = region.getFile();
+        if (region.getOffset() != 0 || region.getLength() != source.length()
+            || target.isDirectory() || Durability.isPending(source)) {
+            return false;
+        }
+        boolean hardlink = checkoutMode().equals(HARDLINK);
+        if (!hardlink && (_noReflink || region.getLength() < REFLINK_MIN)) {
+            return false;
+        }
+        try {
+            Files.deleteIfExists(target.toPath());
+            if (hardlink) {
+                source.setWritable(false, false);
+                source.setReadable(true, false);
+                Files.createLink(target.toPath(), source.toPath());
+                return true;
+            }
+            Process cp = new ProcessBuilder("cp", "--reflink=always", "--",
+                source.getPath(), target.getPath())
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+            if (cp.waitFor() == 0) {
+                target.setWritable(true);
+                target.setReadable(true, false);
+                return true;
+            }
+            _noReflink = true;
+            return false;
+        } catch (IOException | UnsupportedOperationException excp) {
+            return false;
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * delete TARGET if it is one of several hard links to its file, as a
+     * working file linked to an object is, so that writing it makes a
+     * new file instead of changing the object.
+     * @param target file about to be written
+     */
+    static void detach(File target) {
+        try {
+            Object links = Files.getAttribute(target.toPath(), "unix:nlink",
+                LinkOption.NOFOLLOW_LINKS);
+            if (links instanceof Integer && (Integer) links > 1) {
+                Files.delete(target.toPath());
+            }
+        } catch (IOException | UnsupportedOperationException
+                 | IllegalArgumentException excp) {
+            return;
+        }
+    }
+
+    /**
+     * write the contents of the CHUNKED object in REGION to TARGET.
+     * @param region where the object is
+     * @param target file to create or overwrite
+     */
+    private static void copyChunks(Region region, File target) {
+        if (target.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        detach(target);
+        try (InputStream in = region.open();
+             FileChannel out = FileChannel.open(target.toPath(),
+                 StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            in.readNBytes(HEADER_LENGTH);
+            for (String chunk : chunks(in)) {
+                Region part = require(Gitlet.ABS_CHUNK_FOLDER, chunk);
+                if (method(part) == STORED) {
+                    part.transferTo(out, HEADER_LENGTH);
+                } else {
+                    try (InputStream body = open(Gitlet.ABS_CHUNK_FOLDER,
+                             chunk)) {
+                        body.transferTo(java.nio.channels.Channels
+                            .newOutputStream(out));
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * copy SOURCE to TARGET with FileChannel#transferTo.
+     * @param source file to read
+     * @param target file to create or overwrite
+     */
+    static void copy(File source, File target) {
+        copy(new Region(source, 0, source.length()), 0, target);
+    }
+
+    /**
+     * copy REGION, leaving out its first SKIP bytes, to TARGET with
+     * FileChannel#transferTo. Safe to call from several threads.
+     * @param region bytes to copy
+     * @param skip number of leading bytes to leave out
+     * @param target file to create or overwrite
+     */
+    static void copy(Region region, long skip, File target) {
+        if (target.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        detach(target);
+        try (FileChannel out = FileChannel.open(target.toPath(),
+                 StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            region.transferTo(out, skip);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * copy the rest of IN to TARGET.
+     * @param in stream to read
+     * @param target file to create or overwrite
+     */
+    static void copy(InputStream in, File target) {
+        if (target.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        detach(target);
+        try (OutputStream out = Files.newOutputStream(target.toPath())) {
+            in.transferTo(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
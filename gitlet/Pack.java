@@ -0,0 +1,578 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A pack: many objects of one object folder concatenated into a single
+ * .pack file, with a sorted .idx file that is memory-mapped and binary
+ * searched by object id. Packs live in the PACK_FOLDER of the object
+ * folder they hold objects of, as pack-SHA.pack and pack-SHA.idx; a pack
+ * only counts once its .idx exists.
+ *
+ * Each object in a pack is stored exactly as a loose object file would
+ * be (see ObjectStore), so both are read the same way, or as a DELTA
+ * against another object of the same pack. Delta chains are at most the
+ * "pack.depth" setting long (default 10).
+ *
+ * The .idx file is IDX_MAGIC, a version int, the object count, a fan-out
+ * table of 256 ints (entry b is the number of ids whose first byte is at
+ * most b), the sorted raw ids, then one long offset and one long length
+ * into the .pack for each id.
+ *
+ * @author Solomon Cheung
+ */
+class Pack {
+
+    /** folder, inside an object folder, that holds its packs. */
+    static final String PACK_FOLDER = "pack";
+
+    /** first bytes of a .pack file. */
+    static final byte[] PACK_MAGIC = {'G', 'P', 'A', 'K'};
+
+    /** first bytes of a .idx file. */
+    static final byte[] IDX_MAGIC = {'G', 'I', 'D', 'X'};
+
+    /** format version of .pack and .idx files. */
+    static final int VERSION = 1;
+
+    /** length of a raw object id. */
+    static final int ID_LENGTH = Utils.UID_LENGTH / 2;
+
+    /** size of the fan-out table in the .idx. */
+    private static final int FANOUT = 256;
+
+    /** offset of the fan-out table in the .idx. */
+    private static final int FANOUT_OFFSET = 12;
+
+    /** offset of the sorted ids in the .idx. */
+    private static final int IDS_OFFSET = FANOUT_OFFSET + 4 * FANOUT;
+
+    /** the .pack file. */
+    private final File _packFile;
+
+    /** the .idx file. */
+    private final File _idxFile;
+
+    /** the mapped .idx file. */
+    private final MappedByteBuffer _idx;
+
+    /** number of objects in the pack. */
+    private final int _count;
+
+    /** read-only channel of the .pack, opened with the .idx and shared
+     *  by every read of the pack's objects, which use positional reads
+     *  and never close it. */
+    private FileChannel _channel;
+
+    /**
+     * open the pack whose index is IDXFILE.
+     * @param idxFile .idx file
+     * @throws GitletException IDXFILE is not a whole pack index.
+     */
+    Pack(File idxFile) {
+        _idxFile = idxFile;
+        String name = idxFile.getName();
+        _packFile = new File(idxFile.getParentFile(),
+            name.substring(0, name.length() - ".idx".length()) + ".pack");
+        try (FileChannel ch = FileChannel.open(idxFile.toPath(),
+                 StandardOpenOption.READ)) {
+            _idx = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        byte[] magic = new byte[IDX_MAGIC.length];
+        if (_idx.capacity() < IDS_OFFSET) {
+            throw Utils.error("Bad pack index: %s", idxFile);
+        }
+        _idx.get(0, magic);
+        if (!Arrays.equals(magic, IDX_MAGIC) || _idx.getInt(4) != VERSION) {
+            throw Utils.error("Bad pack index: %s", idxFile);
+        }
+        _count = _idx.getInt(8);
+        if (_count < 0 || _idx.capacity()
+            != IDS_OFFSET + (long) _count * (ID_LENGTH + 16)) {
+            throw Utils.error("Bad pack index: %s", idxFile);
+        }
+        _channel = openChannel(_packFile);
+    }
+
+    /**
+     * the packs in object folder FOLDER.
+     * @param folder object folder, relative to the working directory
+     * @return packs, in no particular order
+     */
+    static List<Pack> load(String folder) {
+        File dir = new File(System.getProperty("user.dir"),
+            folder + "/" + PACK_FOLDER);
+        ArrayList<Pack> packs = new ArrayList<>();
+        String[] names = dir.list();
+        if (names != null) {
+            Arrays.sort(names);
+            for (String name : names) {
+                if (name.endsWith(".idx")) {
+                    packs.add(new Pack(new File(dir, name)));
+                }
+            }
+        }
+        return packs;
+    }
+
+    /**
+     * the .pack file.
+     * @return _packFile
+     */
+    File getPackFile() {
+        return _packFile;
+    }
+
+    /**
+     * number of objects in the pack.
+     * @return _count
+     */
+    int size() {
+        return _count;
+    }
+
+    /**
+     * the id of the Ith object, in id order.
+     * @param i index
+     * @return hex id
+     */
+    String id(int i) {
+        byte[] raw = new byte[ID_LENGTH];
+        _idx.get(IDS_OFFSET + i * ID_LENGTH, raw);
+        return ObjectStore.toHex(raw);
+    }
+
+    /**
+     * offset of the Ith object in the .pack.
+     * @param i index
+     * @return offset
+     */
+    long offset(int i) {
+        return _idx.getLong(IDS_OFFSET + _count * ID_LENGTH + i * 8);
+    }
+
+    /**
+     * length of the Ith object in the .pack.
+     * @param i index
+     * @return length
+     */
+    long length(int i) {
+        return _idx.getLong(IDS_OFFSET + _count * (ID_LENGTH + 8) + i * 8);
+    }
+
+    /**
+     * find the object with hex id ID.
+     * @param id full hex id
+     * @return its index, or -1 if it is not in the pack
+     */
+    int find(String id) {
+        if (id.length() != Utils.UID_LENGTH) {
+            return -1;
+        }
+        byte[] raw = fromHex(id);
+        int i = lowerBound(raw, raw.length);
+        if (i < _count && compare(i, raw, raw.length) == 0) {
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * add to IDS the ids in the pack that start with the hex PREFIX.
+     * @param ids list to add to
+     * @param prefix start of the ids wanted
+     */
+    void addIds(List<String> ids, String prefix) {
+        byte[] raw = fromHex(prefix.substring(0, prefix.length() & ~1));
+        int i = lowerBound(raw, raw.length);
+        for (; i < _count && compare(i, raw, raw.length) == 0; i += 1) {
+            String id = id(i);
+            if (id.startsWith(prefix)) {
+                ids.add(id);
+            }
+        }
+    }
+
+    /**
+     * index of the first id whose first LEN bytes are not less than
+     * those of KEY.
+     * @param key raw id or id prefix
+     * @param len number of bytes of KEY to compare
+     * @return index in [0, _count]
+     */
+    private int lowerBound(byte[] key, int len) {
+        int lo = 0;
+        int hi = _count;
+        if (len > 0) {
+            int b = key[0] & 0xff;
+            lo = b == 0 ? 0 : _idx.getInt(FANOUT_OFFSET + 4 * (b - 1));
+            hi = _idx.getInt(FANOUT_OFFSET + 4 * b);
+        }
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, key, len) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * compare the first LEN bytes of the Ith id with KEY.
+     * @param i index
+     * @param key raw id or id prefix
+     * @param len number of bytes to compare
+     * @return negative, zero or positive as for Comparator
+     */
+    private int compare(int i, byte[] key, int len) {
+        int base = IDS_OFFSET + i * ID_LENGTH;
+        for (int k = 0; k < len; k += 1) {
+            int c = (_idx.get(base + k) & 0xff) - (key[k] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * raw bytes of the even-length hex string HEX.
+     * @param hex hex digits
+     * @return bytes
+     */
+    static byte[] fromHex(String hex) {
+        byte[] raw = new byte[hex.length() / 2];
+        for (int i = 0; i < raw.length; i += 1) {
+            raw[i] = (byte) Integer.parseInt(
+                hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return raw;
+    }
+
+    /**
+     * the channel of the .pack, for positional reads; callers must not
+     * close it. A channel closed by a thread interrupted while reading
+     * is opened again.
+     * @return channel
+     */
+    synchronized FileChannel channel() {
+        if (!_channel.isOpen()) {
+            _channel = openChannel(_packFile);
+        }
+        return _channel;
+    }
+
+    /**
+     * open a stream over LENGTH bytes of the .pack starting at OFFSET,
+     * reading through channel().
+     * @param offset first byte
+     * @param length number of bytes
+     * @return stream, whose close() leaves the channel open
+     */
+    InputStream open(long offset, long length) {
+        return new RegionInputStream(channel(), offset, offset + length,
+            false);
+    }
+
+    /**
+     * close the pack's channel and delete its files, index first.
+     */
+    synchronized void delete() {
+        try {
+            _channel.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _idxFile.delete();
+        _packFile.delete();
+    }
+
+    /**
+     * open FILE for reading.
+     * @param file file
+     * @return channel
+     */
+    private static FileChannel openChannel(File file) {
+        try {
+            return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * write a pack of the objects IDS of object folder FOLDER, reading
+     * each from its current location, and return it.
+     * BASES maps objects to a suggested delta base, typically the previous
+     * revision of the same file, in the order the objects were created;
+     * an object is stored as a delta when that is less than half its size
+     * and keeps chains within "pack.depth". Objects over "pack.deltaLimit"
+     * bytes (default 16 MB) are never deltified.
+     * @param folder object folder
+     * @param ids sorted, distinct ids of objects in FOLDER
+     * @param bases suggested delta bases
+     * @return the new pack
+     */
+    static Pack write(String folder, List<String> ids,
+        java.util.Map<String, String> bases) {
+        java.util.Map<String, String> plan = planDeltas(ids, bases);
+        long limit = Config.getLong("pack.deltaLimit", 16L << 20);
+        File dir = new File(System.getProperty("user.dir"),
+            folder + "/" + PACK_FOLDER);
+        dir.mkdirs();
+        File packTmp = null;
+        File idxTmp = null;
+        try {
+            packTmp = File.createTempFile("tmp_", ".pack", dir);
+            idxTmp = File.createTempFile("tmp_", ".idx", dir);
+            long[] offsets = new long[ids.size()];
+            long[] lengths = new long[ids.size()];
+            MessageDigest md = ObjectStore.newDigest();
+            try (FileChannel out = FileChannel.open(packTmp.toPath(),
+                     StandardOpenOption.WRITE)) {
+                out.write(ByteBuffer.wrap(PACK_MAGIC));
+                ByteBuffer header = ByteBuffer.allocate(8);
+                header.putInt(VERSION).putInt(ids.size()).flip();
+                out.write(header);
+                for (int i = 0; i < ids.size(); i += 1) {
+                    String id = ids.get(i);
+                    ObjectStore.Region region =
+                        ObjectStore.locate(folder, id);
+                    offsets[i] = out.position();
+                    byte[] entry = null;
+                    String base = plan.get(id);
+                    if (base != null && region.getLength() <= limit
+                        && !isChunked(folder, id)
+                        && !isChunked(folder, base)) {
+                        entry = deltaEntry(folder, id, base);
+                    }
+                    if (entry == null
+                        && ObjectStore.method(region) == ObjectStore.DELTA) {
+                        java.io.ByteArrayOutputStream full =
+                            new java.io.ByteArrayOutputStream();
+                        try (InputStream in = ObjectStore.open(folder, id)) {
+                            ObjectStore.encode(in, full, null);
+                        }
+                        entry = full.toByteArray();
+                    }
+                    if (entry != null) {
+                        ByteBuffer buf = ByteBuffer.wrap(entry);
+                        while (buf.hasRemaining()) {
+                            out.write(buf);
+                        }
+                    } else {
+                        region.transferTo(out);
+                    }
+                    lengths[i] = out.position() - offsets[i];
+                    md.update(fromHex(id));
+                }
+            }
+            try (DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(
+                         Files.newOutputStream(idxTmp.toPath())))) {
+                writeIndex(out, ids, offsets, lengths);
+            }
+            String name = "pack-" + ObjectStore.toHex(md.digest());
+            File packFile = new File(dir, name + ".pack");
+            File idxFile = new File(dir, name + ".idx");
+            Durability.replace(packTmp, packFile);
+            Durability.replace(idxTmp, idxFile);
+            return new Pack(idxFile);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (packTmp != null) {
+                packTmp.delete();
+            }
+            if (idxTmp != null) {
+                idxTmp.delete();
+            }
+        }
+    }
+
+    /**
+     * choose which of IDS to try storing as deltas, and against what.
+     * Walks BASES in order, giving each object the depth of its base plus
+     * one; objects whose base is missing or already "pack.depth" deep are
+     * left whole.
+     * @param ids sorted ids being packed
+     * @param bases suggested delta bases, in creation order
+     * @return map from object to its base
+     */
+    private static java.util.Map<String, String> planDeltas(
+        List<String> ids, java.util.Map<String, String> bases) {
+        int maxDepth = Config.getInt("pack.depth", 10);
+        java.util.HashMap<String, Integer> depth = new java.util.HashMap<>();
+        java.util.HashMap<String, String> plan = new java.util.HashMap<>();
+        for (java.util.Map.Entry<String, String> entry : bases.entrySet()) {
+            String id = entry.getKey();
+            String base = entry.getValue();
+            int baseDepth = depth.getOrDefault(base, 0);
+            if (base.equals(id) || baseDepth >= maxDepth
+                || java.util.Collections.binarySearch(ids, id) < 0
+                || java.util.Collections.binarySearch(ids, base) < 0) {
+                continue;
+            }
+            plan.put(id, base);
+            depth.put(id, baseDepth + 1);
+        }
+        return plan;
+    }
+
+    /**
+     * is object ID of FOLDER stored CHUNKED? Such objects are too large
+     * to deltify and already share their unchanged chunks.
+     * @param folder object folder
+     * @param id object
+     * @return true if CHUNKED
+     */
+    private static boolean isChunked(String folder, String id) {
+        return ObjectStore.method(ObjectStore.locate(folder, id))
+            == ObjectStore.CHUNKED;
+    }
+
+    /**
+     * the stored form of object ID of FOLDER as a delta against BASE.
+     * @param folder object folder
+     * @param id object to store
+     * @param base base object
+     * @return bytes to store, or null if a delta does not save at least
+     *         half the object's size
+     */
+    private static byte[] deltaEntry(String folder, String id, String base) {
+        byte[] target = ObjectStore.read(folder, id);
+        byte[] delta = Delta.encode(ObjectStore.readBase(folder, base),
+            target);
+        if (delta.length >= target.length / 2) {
+            return null;
+        }
+        byte[] entry = ObjectStore.encodeDelta(base, delta);
+        if (entry.length >= target.length / 2) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * write the .idx contents for IDS at OFFSETS with LENGTHS to OUT.
+     * @param out stream
+     * @param ids sorted hex ids
+     * @param offsets offsets in the .pack
+     * @param lengths lengths in the .pack
+     * @throws IOException
+     */
+    private static void writeIndex(DataOutputStream out, List<String> ids,
+        long[] offsets, long[] lengths) throws IOException {
+        out.write(IDX_MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(ids.size());
+        int[] fanout = new int[FANOUT];
+        for (String id : ids) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        int total = 0;
+        for (int b = 0; b < FANOUT; b += 1) {
+            total += fanout[b];
+            out.writeInt(total);
+        }
+        for (String id : ids) {
+            out.write(fromHex(id));
+        }
+        for (long offset : offsets) {
+            out.writeLong(offset);
+        }
+        for (long length : lengths) {
+            out.writeLong(length);
+        }
+    }
+
+    /**
+     * open a stream over LENGTH bytes of FILE starting at OFFSET.
+     * @param file file to read
+     * @param offset first byte
+     * @param length number of bytes
+     * @return stream
+     */
+    static InputStream openRegion(File file, long offset, long length) {
+        try {
+            FileChannel ch = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ);
+            return new RegionInputStream(ch, offset, offset + length,
+                true);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * a stream over a range of a FileChannel, using positional reads.
+     */
+    private static class RegionInputStream extends InputStream {
+        /** channel being read. */
+        private final FileChannel _ch;
+        /** position of the next byte. */
+        private long _pos;
+        /** position just past the last byte. */
+        private final long _end;
+        /** whether _ch is closed with the stream. */
+        private final boolean _owned;
+
+        /**
+         * stream over [POS, END) of CH.
+         * @param ch channel
+         * @param pos first byte
+         * @param end end of range
+         * @param owned whether CH is closed with the stream
+         */
+        RegionInputStream(FileChannel ch, long pos, long end,
+            boolean owned) {
+            _ch = ch;
+            _pos = pos;
+            _end = end;
+            _owned = owned;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (_pos >= _end) {
+                return -1;
+            }
+            len = (int) Math.min(len, _end - _pos);
+            int n = _ch.read(ByteBuffer.wrap(b, off, len), _pos);
+            if (n > 0) {
+                _pos += n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (_owned) {
+                _ch.close();
+            }
+        }
+    }
+}
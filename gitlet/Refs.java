@@ -0,0 +1,476 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+/**
+ * The branches of the repository, each in its own file under
+ * .gitlet/refs/heads holding the id of its commit (a loose ref), or
+ * listed in .gitlet/packed-refs, and the head branch, named by the
+ * symbolic ref .gitlet/HEAD ("ref: refs/heads/NAME").
+ *
+ * Reading, creating, moving or deleting a loose ref touches only its
+ * own file, so the cost of a branch operation does not grow with the
+ * number of branches or the size of the staging areas. A loose ref
+ * overrides a packed one of the same name; pack() moves the loose refs
+ * into packed-refs, which is read once per command when a name is not
+ * found loose, and rewritten only to pack or to delete a packed ref.
+ *
+ * Refs are changed through a Transaction. It locks each ref it changes
+ * by creating REF.lock next to it, checks that refs moved from a known
+ * id still have it, and writes every new value to its lock before any
+ * is renamed into place. If a lock is held by another command or a ref
+ * has moved, nothing is changed. Renames are forced as Durability
+ * replace()s are.
+ *
+ * @author Solomon Cheung
+ */
+class Refs {
+
+    /** folder of the loose branch refs, in .gitlet. */
+    static final String HEADS = "refs/heads";
+
+    /** the head symbolic ref, in .gitlet. */
+    static final String HEAD = "HEAD";
+
+    /** the packed refs file, in .gitlet. */
+    static final String PACKED = "packed-refs";
+
+    /** suffix of a lock file. */
+    static final String LOCK = ".lock";
+
+    /** what the head symbolic ref's contents start with. */
+    private static final String SYMREF = "ref: " + HEADS + "/";
+
+    /** the packed refs, by branch name; null until read. */
+    private static TreeMap<String, String> _packed;
+
+    /** the packed-refs file _packed was read from, so that it is read
+     *  again if the working directory changes. */
+    private static File _packedFile;
+
+    /**
+     * can NAME be stored as a loose ref?
+     * @param name branch name
+     * @return true unless it is empty, has an empty, "." or ".." path
+     *         component, ends in LOCK, or has a character that cannot
+     *         be part of a file name
+     */
+    static boolean isValidName(String name) {
+        if (name.isEmpty() || name.endsWith(LOCK)) {
+            return false;
+        }
+        for (String part : name.split("/", -1)) {
+            if (part.isEmpty() || part.equals(".") || part.equals("..")) {
+                return false;
+            }
+        }
+        for (int i = 0; i < name.length(); i += 1) {
+            char c = name.charAt(i);
+            if (c < ' ' || c == '\\' || c == ' ' || c == 0x7f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * the existing branch whose ref file would have to be a folder of
+     * the branch NAME's, or that is in the folder NAME's would have to
+     * be, as "topic" is for "topic/x" and the other way round. Such
+     * names cannot both be loose refs.
+     * @param name branch name
+     * @return the clashing branch's name, or null if there is none
+     */
+    static String clash(String name) {
+        for (int i = name.indexOf('/'); i >= 0;
+             i = name.indexOf('/', i + 1)) {
+            String prefix = name.substring(0, i);
+            if (read(prefix) != null) {
+                return prefix;
+            }
+        }
+        String under = packed().ceilingKey(name + "/");
+        if (under != null && under.startsWith(name + "/")) {
+            return under;
+        }
+        Path dir = looseFile(name).toPath();
+        if (!Files.isDirectory(dir)) {
+            return null;
+        }
+        Path heads = gitletFile(HEADS).toPath();
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile)
+                .map(path -> heads.relativize(path).toString()
+                    .replace(File.separatorChar, '/'))
+                .filter(Refs::isValidName).findFirst().orElse(null);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * the commit id of the branch NAME.
+     * @param name branch name
+     * @return full commit id, or null if there is no such branch
+     */
+    static String read(String name) {
+        if (!isValidName(name)) {
+            return null;
+        }
+        File loose = looseFile(name);
+        if (loose.isFile()) {
+            return Utils.readContentsAsString(loose).trim();
+        }
+        return packed().get(name);
+    }
+
+    /**
+     * the name of the head branch.
+     * @return branch name, or null if there is no HEAD
+     */
+    static String head() {
+        File head = gitletFile(HEAD);
+        if (!head.isFile()) {
+            return null;
+        }
+        String ref = Utils.readContentsAsString(head).trim();
+        if (!ref.startsWith(SYMREF)) {
+            throw Utils.error("HEAD is not a branch: %s", ref);
+        }
+        return ref.substring(SYMREF.length());
+    }
+
+    /**
+     * every branch, loose and packed.
+     * @return commit ids by branch name
+     */
+    static TreeMap<String, String> all() {
+        TreeMap<String, String> refs = new TreeMap<>(packed());
+        Path heads = gitletFile(HEADS).toPath();
+        if (!Files.isDirectory(heads)) {
+            return refs;
+        }
+        try (Stream<Path> files = Files.walk(heads)) {
+            files.filter(Files::isRegularFile).forEach(path -> {
+                String name = heads.relativize(path).toString()
+                    .replace(File.separatorChar, '/');
+                if (isValidName(name)) {
+                    refs.put(name, Utils.readContentsAsString(path.toFile())
+                        .trim());
+                }
+            });
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return refs;
+    }
+
+    /**
+     * move every loose ref into packed-refs and delete it. A loose ref
+     * that another command is changing keeps its file.
+     */
+    static void pack() {
+        TreeMap<String, String> refs = all();
+        File packedFile = gitletFile(PACKED);
+        File packedLock = lock(packedFile, PACKED);
+        try {
+            write(packedLock, packedText(refs));
+        } catch (IllegalArgumentException excp) {
+            packedLock.delete();
+            throw excp;
+        }
+        Durability.replace(packedLock, packedFile);
+        _packed = refs;
+        _packedFile = packedFile;
+        ArrayList<File> locks = new ArrayList<>();
+        try {
+            for (Map.Entry<String, String> ref : refs.entrySet()) {
+                File loose = looseFile(ref.getKey());
+                if (!loose.isFile()) {
+                    continue;
+                }
+                File lock;
+                try {
+                    lock = lock(loose, ref.getKey());
+                } catch (GitletException excp) {
+                    continue;
+                }
+                locks.add(lock);
+                if (Utils.readContentsAsString(loose).trim()
+                    .equals(ref.getValue())) {
+                    loose.delete();
+                }
+            }
+        } finally {
+            for (File lock : locks) {
+                lock.delete();
+                prune(lock.getParentFile());
+            }
+        }
+    }
+
+    /**
+     * delete FOLDER, a folder of loose refs, and those above it in
+     * refs/heads, while they are empty, so that a branch can later be
+     * named after one of them.
+     * @param folder folder a ref was deleted from
+     */
+    private static void prune(File folder) {
+        File heads = gitletFile(HEADS);
+        while (!folder.equals(heads) && folder.delete()) {
+            folder = folder.getParentFile();
+        }
+    }
+
+    /**
+     * the packed refs, read the first time they are needed in this
+     * repository.
+     * @return commit ids by branch name
+     */
+    private static TreeMap<String, String> packed() {
+        File file = gitletFile(PACKED);
+        if (_packed == null || !file.equals(_packedFile)) {
+            _packed = new TreeMap<>();
+            _packedFile = file;
+            if (file.isFile()) {
+                for (String line
+                         : Utils.readContentsAsString(file).split("\n")) {
+                    int space = line.indexOf(' ');
+                    if (line.startsWith("#") || space < 0) {
+                        continue;
+                    }
+                    String ref = line.substring(space + 1);
+                    if (ref.startsWith(HEADS + "/")) {
+                        _packed.put(ref.substring(HEADS.length() + 1),
+                            line.substring(0, space));
+                    }
+                }
+            }
+        }
+        return _packed;
+    }
+
+    /**
+     * the contents of packed-refs listing REFS.
+     * @param refs commit ids by branch name
+     * @return text, one "ID refs/heads/NAME" line per branch
+     */
+    private static String packedText(TreeMap<String, String> refs) {
+        StringBuilder text = new StringBuilder("# pack-refs\n");
+        for (Map.Entry<String, String> ref : refs.entrySet()) {
+            text.append(ref.getValue()).append(' ').append(HEADS)
+                .append('/').append(ref.getKey()).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * take the lock of FILE, the file of the ref NAME.
+     * @param file ref file
+     * @param name ref name, for the error
+     * @return the lock file, created empty
+     * @throws GitletException another command holds the lock, or its
+     *         folder cannot be created.
+     */
+    private static File lock(File file, String name) {
+        File lock = new File(file.getPath() + LOCK);
+        try {
+            Files.createDirectories(lock.toPath().getParent());
+        } catch (IOException excp) {
+            throw Utils.error("Unable to lock %s: cannot create folder %s.",
+                name, lock.getParent());
+        }
+        try {
+            Files.createFile(lock.toPath());
+        } catch (FileAlreadyExistsException excp) {
+            throw Utils.error("Unable to lock %s: %s exists.", name,
+                lock.getPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return lock;
+    }
+
+    /**
+     * write TEXT to the lock file LOCK.
+     * @param lock lock file
+     * @param text new contents of its ref
+     */
+    private static void write(File lock, String text) {
+        try {
+            Files.write(lock.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * the loose ref of the branch NAME.
+     * @param name branch name
+     * @return .gitlet/refs/heads/NAME
+     */
+    private static File looseFile(String name) {
+        return gitletFile(HEADS + "/" + name);
+    }
+
+    /**
+     * the file NAME in .gitlet.
+     * @param name path in .gitlet
+     * @return file
+     */
+    private static File gitletFile(String name) {
+        return new File(System.getProperty("user.dir"),
+            Gitlet.GITLET_FOLDER + "/" + name);
+    }
+
+    /**
+     * a set of ref changes made all together or not at all.
+     */
+    static class Transaction {
+
+        /** new commit ids of the branches to create or move, by name. */
+        private final TreeMap<String, String> _updates = new TreeMap<>();
+
+        /** ids the moved branches must still have, by name. */
+        private final TreeMap<String, String> _expected = new TreeMap<>();
+
+        /** names of the branches to delete. */
+        private final TreeSet<String> _deletes = new TreeSet<>();
+
+        /** name of the new head branch, or null to leave HEAD. */
+        private String _head;
+
+        /**
+         * point the branch NAME at the commit ID, if it still points at
+         * OLD.
+         * @param name branch name
+         * @param old its current id, or null to create or overwrite it
+         * @param id new commit id
+         */
+        void update(String name, String old, String id) {
+            if (!isValidName(name)) {
+                throw Utils.error("Invalid branch name %s.", name);
+            }
+            _deletes.remove(name);
+            _updates.put(name, id);
+            if (old != null) {
+                _expected.put(name, old);
+            }
+        }
+
+        /**
+         * delete the branch NAME.
+         * @param name branch name
+         */
+        void delete(String name) {
+            _updates.remove(name);
+            _expected.remove(name);
+            if (isValidName(name)) {
+                _deletes.add(name);
+            }
+        }
+
+        /**
+         * make NAME the head branch.
+         * @param name branch name
+         */
+        void setHead(String name) {
+            _head = name;
+        }
+
+        /**
+         * commit() the objects of the Durability transaction, then make
+         * the changes. Once every lock is taken and written, each is
+         * renamed over its ref (or, for a deleted ref, removed with it).
+         * A lock is only left to the final cleanup until it is renamed,
+         * so a rename that fails never leaves a lock behind.
+         * @throws GitletException a lock is held, a branch has moved or
+         *         a new branch clashes with another (see clash()); no
+         *         ref is changed.
+         */
+        void commit() {
+            Durability.commit();
+            if (_updates.isEmpty() && _deletes.isEmpty() && _head == null) {
+                return;
+            }
+            ArrayList<File> locks = new ArrayList<>();
+            try {
+                TreeSet<String> names = new TreeSet<>(_updates.keySet());
+                names.addAll(_deletes);
+                for (String name : _updates.keySet()) {
+                    String other = clash(name);
+                    if (other == null) {
+                        String under = _updates.ceilingKey(name + "/");
+                        other = under != null
+                            && under.startsWith(name + "/") ? under : null;
+                    }
+                    if (other != null) {
+                        throw Utils.error("Branch %s clashes with branch "
+                            + "%s.", name, other);
+                    }
+                }
+                for (String name : names) {
+                    File lock = lock(looseFile(name), name);
+                    locks.add(lock);
+                    String old = _expected.get(name);
+                    if (old != null && !old.equals(read(name))) {
+                        throw Utils.error("Branch %s was moved by another "
+                            + "command.", name);
+                    }
+                    if (_updates.containsKey(name)) {
+                        write(lock, _updates.get(name) + "\n");
+                    }
+                }
+                File packedLock = null;
+                TreeMap<String, String> packed = new TreeMap<>(packed());
+                if (packed.keySet().removeAll(_deletes)) {
+                    packedLock = lock(gitletFile(PACKED), PACKED);
+                    locks.add(packedLock);
+                    write(packedLock, packedText(packed));
+                }
+                File headLock = null;
+                if (_head != null) {
+                    headLock = lock(gitletFile(HEAD), HEAD);
+                    locks.add(headLock);
+                    write(headLock, SYMREF + _head + "\n");
+                }
+
+                if (packedLock != null) {
+                    Durability.replace(packedLock, gitletFile(PACKED));
+                    locks.remove(packedLock);
+                    _packed = packed;
+                }
+                for (String name : names) {
+                    File loose = looseFile(name);
+                    File lock = new File(loose.getPath() + LOCK);
+                    if (_updates.containsKey(name)) {
+                        Durability.replace(lock, loose);
+                    } else {
+                        loose.delete();
+                        lock.delete();
+                        prune(loose.getParentFile());
+                    }
+                    locks.remove(lock);
+                }
+                if (headLock != null) {
+                    Durability.replace(headLock, gitletFile(HEAD));
+                    locks.remove(headLock);
+                }
+            } finally {
+                for (File lock : locks) {
+                    lock.delete();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The blob ids of working files, remembered with the files' stat data
+ * (size, mtime, ctime and inode) in .gitlet/index, so that a file whose
+ * stat data has not changed is not read and hashed again. Every working
+ * file hashed through Blob.fromFileName goes through hash(), and files
+ * written from blobs are recorded as they are written.
+ *
+ * A file can change without its stat data changing if it is rewritten
+ * with the same size within the resolution of its mtime. So an entry is
+ * only trusted once the file had already gone unmodified for RACY_WINDOW
+ * when the index was written; entries for files modified more recently
+ * than that are written as racy and hashed again the next time they are
+ * looked up.
+ *
+ * The index is only a cache: it is written after each command that used
+ * it, and an index that cannot be read is ignored. The "statCache"
+ * setting turns it off.
+ *
+ * @author Solomon Cheung
+ */
+class StatCache {
+
+    /** index file name in .gitlet. */
+    static final String FILENAME = "index";
+
+    /** how long a file must have gone unmodified, in nanoseconds, for
+     *  its entry to be trusted: the coarsest mtime resolution in
+     *  common use (FAT) is two seconds. */
+    static final long RACY_WINDOW = 2_000_000_000L;
+
+    /** entries by path relative to the working directory; null until
+     *  loaded. */
+    private static TreeMap<String, Entry> _entries;
+
+    /** whether _entries differs from the index file. */
+    private static boolean _dirty;
+
+    /** whether "unix:" attributes are available. */
+    private static volatile boolean _unix = true;
+
+    /**
+     * the blob id of the working file FILE, hashing it only if its stat
+     * data is not that of a trusted entry.
+     * @param file working file
+     * @return blob id
+     * @throws IllegalArgumentException the file cannot be read.
+     */
+    static String hash(File file) {
+        String id = find(file);
+        return id != null ? id : ObjectStore.hash(file);
+    }
+
+    /**
+     * the blob id of the working file FILE, as hash() finds it, or null
+     * if there is no such file. Safe to call from several threads.
+     * @param file working file
+     * @return blob id, or null if FILE is missing or not a file
+     * @throws IllegalArgumentException the file cannot be read.
+     */
+    static String find(File file) {
+        String key = key(file);
+        Entry stat = stat(file);
+        if (stat == null) {
+            return file.isFile() ? ObjectStore.hash(file) : null;
+        }
+        if (key == null || !enabled()) {
+            return ObjectStore.hash(file);
+        }
+        String id = trusted(key, stat);
+        if (id == null) {
+            id = ObjectStore.hash(file);
+            put(key, stat, id);
+        }
+        return id;
+    }
+
+    /**
+     * the blob id of the trusted entry for the working file KEY, without
+     * reading the file's stat data: for files a Monitor reports
+     * unchanged since the entry was last checked.
+     * @param key path relative to the working directory
+     * @return blob id, or null if there is no trusted entry
+     */
+    static synchronized String cached(String key) {
+        if (!enabled()) {
+            return null;
+        }
+        Entry entry = entries().get(key);
+        if (entry == null || entry._racy) {
+            return null;
+        }
+        entry._seen = true;
+        return entry._id;
+    }
+
+    /**
+     * drop the entries of paths accepted by WHICH that were not looked
+     * up or added by this command, so that none of them is trusted
+     * without a stat again.
+     * @param which paths to drop the entries of
+     */
+    static synchronized void forgetUnseen(
+        java.util.function.Predicate<String> which) {
+        if (_entries == null) {
+            return;
+        }
+        Iterator<Map.Entry<String, Entry>> it =
+            _entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> e = it.next();
+            if (!e.getValue()._seen && which.test(e.getKey())) {
+                it.remove();
+                _dirty = true;
+            }
+        }
+    }
+
+    /**
+     * record that the working file FILE was just written with the
+     * contents of the blob ID.
+     * @param file working file
+     * @param id blob id
+     */
+    static void record(File file, String id) {
+        if (!enabled()) {
+            return;
+        }
+        String key = key(file);
+        Entry stat = key == null ? null : stat(file);
+        if (stat != null) {
+            put(key, stat, id);
+        }
+    }
+
+    /**
+     * write the index if it changed in this command. Entries of files
+     * that are gone and were not looked up are dropped, and entries of
+     * files modified within RACY_WINDOW are marked racy.
+     * @return true if the index on disk is up to date
+     */
+    static synchronized boolean save() {
+        if (_entries == null || !_dirty) {
+            return true;
+        }
+        File target = indexFile();
+        if (!target.getParentFile().isDirectory()) {
+            return false;
+        }
+        long racyAfter = System.currentTimeMillis() * 1_000_000L
+            - RACY_WINDOW;
+        Codec.Output out = new Codec.Output(Codec.INDEX);
+        Iterator<Map.Entry<String, Entry>> it =
+            _entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> e = it.next();
+            if (!e.getValue()._seen && !new File(
+                    System.getProperty("user.dir"), e.getKey()).exists()) {
+                it.remove();
+            }
+        }
+        out.writeVarint(_entries.size());
+        String previous = "";
+        for (Map.Entry<String, Entry> e : _entries.entrySet()) {
+            Entry entry = e.getValue();
+            out.writeKey(previous, e.getKey());
+            out.write(entry._racy || entry._mtime >= racyAfter ? 1 : 0);
+            out.writeVarint(entry._size);
+            out.writeSignedVarint(entry._mtime);
+            out.writeSignedVarint(entry._ctime);
+            out.writeVarint(entry._inode);
+            out.writeId(entry._id);
+            previous = e.getKey();
+        }
+        File tmp = new File(target.getPath() + ".tmp");
+        try {
+            Files.write(tmp.toPath(), out.toByteArray());
+        } catch (IOException excp) {
+            tmp.delete();
+            return false;
+        }
+        Durability.replace(tmp, target);
+        _dirty = false;
+        return true;
+    }
+
+    /**
+     * forget the entries held in memory without saving them, so that the
+     * next lookup reads the index again, as a new command would.
+     */
+    static synchronized void reload() {
+        _entries = null;
+        _dirty = false;
+    }
+
+    /**
+     * is the cache turned on by the "statCache" setting?
+     * @return true unless it is turned off
+     */
+    static boolean enabled() {
+        return Config.getBoolean("statCache", true);
+    }
+
+    /**
+     * the blob id of the trusted entry for KEY with the stat data of
+     * STAT, marking it as looked up.
+     * @param key path relative to the working directory
+     * @param stat stat data
+     * @return blob id, or null if there is no such entry
+     */
+    private static synchronized String trusted(String key, Entry stat) {
+        Entry entry = entries().get(key);
+        if (entry != null && !entry._racy && entry.sameStat(stat)) {
+            entry._seen = true;
+            return entry._id;
+        }
+        return null;
+    }
+
+    /**
+     * add an entry for KEY with the stat data of STAT and the blob ID.
+     * @param key path relative to the working directory
+     * @param stat stat data
+     * @param id blob id
+     */
+    private static synchronized void put(String key, Entry stat, String id) {
+        stat._id = id;
+        stat._seen = true;
+        entries().put(key, stat);
+        _dirty = true;
+    }
+
+    /**
+     * the entries, loading the index the first time.
+     * @return entries by path
+     */
+    private static TreeMap<String, Entry> entries() {
+        if (_entries == null) {
+            _entries = new TreeMap<>();
+            File index = indexFile();
+            if (index.exists()) {
+                try {
+                    read(Utils.readContents(index));
+                } catch (GitletException | IllegalArgumentException excp) {
+                    _entries.clear();
+                    _dirty = true;
+                }
+            }
+        }
+        return _entries;
+    }
+
+    /**
+     * add the entries encoded in BYTES.
+     * @param bytes contents of the index
+     */
+    private static void read(byte[] bytes) {
+        Codec.Input in = new Codec.Input(bytes);
+        if (in.readHeader() != Codec.INDEX) {
+            throw Utils.error("Not a stat index.");
+        }
+        int count = in.readCount();
+        String previous = "";
+        for (int i = 0; i < count; i += 1) {
+            String key = in.readKey(previous);
+            Entry entry = new Entry();
+            entry._racy = in.readByte() != 0;
+            entry._size = in.readVarint();
+            entry._mtime = in.readSignedVarint();
+            entry._ctime = in.readSignedVarint();
+            entry._inode = in.readVarint();
+            entry._id = in.readId();
+            _entries.put(key, entry);
+            previous = key;
+        }
+    }
+
+    /**
+     * the stat data of FILE, without following a symbolic link.
+     * @param file working file
+     * @return an entry without an id, or null if FILE is not a regular
+     *         file
+     */
+    private static Entry stat(File file) {
+        Path path = file.toPath();
+        Entry entry = new Entry();
+        try {
+            if (_unix) {
+                try {
+                    Map<String, Object> attrs = Files.readAttributes(path,
+                        "unix:size,lastModifiedTime,ctime,ino,isRegularFile",
+                        LinkOption.NOFOLLOW_LINKS);
+                    if (!(Boolean) attrs.get("isRegularFile")) {
+                        return null;
+                    }
+                    entry._size = (Long) attrs.get("size");
+                    entry._mtime = nanos((FileTime)
+                        attrs.get("lastModifiedTime"));
+                    entry._ctime = nanos((FileTime) attrs.get("ctime"));
+                    entry._inode = (Long) attrs.get("ino");
+                    return entry;
+                } catch (UnsupportedOperationException
+                         | IllegalArgumentException excp) {
+                    _unix = false;
+                }
+            }
+            BasicFileAttributes attrs = Files.readAttributes(path,
+                BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (!attrs.isRegularFile()) {
+                return null;
+            }
+            entry._size = attrs.size();
+            entry._mtime = nanos(attrs.lastModifiedTime());
+            entry._ctime = nanos(attrs.creationTime());
+            entry._inode = attrs.fileKey() == null ? 0
+                : attrs.fileKey().hashCode() & 0xffffffffL;
+            return entry;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /**
+     * TIME in nanoseconds since the epoch.
+     * @param time file time
+     * @return nanoseconds
+     */
+    private static long nanos(FileTime time) {
+        java.time.Instant instant = time.toInstant();
+        return instant.getEpochSecond() * 1_000_000_000L
+            + instant.getNano();
+    }
+
+    /**
+     * the path of FILE relative to the working directory.
+     * @param file file
+     * @return relative path with '/' separators, or null if FILE is not
+     *         under the working directory
+     */
+    private static String key(File file) {
+        String dirName = System.getProperty("user.dir") + File.separator;
+        String name = file.getPath();
+        if (name.startsWith(dirName)) {
+            String rest = name.substring(dirName.length());
+            if (!rest.isEmpty() && !rest.startsWith(".")
+                && !rest.contains(File.separator + ".")
+                && !rest.contains(File.separator + File.separator)) {
+                return rest.replace(File.separatorChar, '/');
+            }
+        }
+        Path dir = new File(System.getProperty("user.dir")).toPath()
+            .toAbsolutePath().normalize();
+        Path path = file.toPath().toAbsolutePath().normalize();
+        if (!path.startsWith(dir) || path.equals(dir)) {
+            return null;
+        }
+        return dir.relativize(path).toString()
+            .replace(File.separatorChar, '/');
+    }
+
+    /**
+     * the index file.
+     * @return .gitlet/index
+     */
+    private static File indexFile() {
+        return new File(System.getProperty("user.dir"),
+            Gitlet.GITLET_FOLDER + "/" + FILENAME);
+    }
+
+    /**
+     * the stat data and blob id of one file.
+     */
+    private static class Entry {
+        /** size in bytes. */
+        private long _size;
+        /** modification time, in nanoseconds. */
+        private long _mtime;
+        /** status change time (or creation time), in nanoseconds. */
+        private long _ctime;
+        /** inode number, or 0 if unknown. */
+        private long _inode;
+        /** blob id of the contents. */
+        private String _id;
+        /** whether the file may have changed without its stat data
+         *  changing, so the entry must not be trusted. */
+        private boolean _racy;
+        /** whether the entry was looked up or added by this command. */
+        private boolean _seen;
+
+        /**
+         * does OTHER have the same stat data?
+         * @param other stat data
+         * @return true if so
+         */
+        boolean sameStat(Entry other) {
+            return _size == other._size && _mtime == other._mtime
+                && _ctime == other._ctime && _inode == other._inode;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * The changes made to the gitlet object since it was last written whole
+ * to .gitlet/gitlet_object (the snapshot), appended as small records to
+ * .gitlet/state-journal, so that a command that stages or unstages one
+ * file writes a record the size of that change rather than the whole
+ * state.
+ *
+ * The journal starts with a Codec header of type JOURNAL and the raw
+ * sha1 of the snapshot it applies to. Each record is the 4-byte length
+ * of its payload, the payload, and the payload's 4-byte CRC32; the
+ * payload is a count of operations followed by the operations (see the
+ * op constants). A record is written by one save(), so replaying the
+ * records in order gives the state that save() saw.
+ *
+ * Loading reads the snapshot and replays the records of a journal whose
+ * header names it, stopping at the first record that is incomplete,
+ * does not match its CRC, or is empty or does not decode: the one a
+ * crash left behind. A crash while the journal grows may leave zeros
+ * there, which read as an empty record with a matching CRC. The next append
+ * writes over it. Once the journal would grow past the size of the
+ * snapshot (or MIN_COMPACT bytes, if that is larger), save() writes a
+ * new snapshot instead and deletes the journal. A crash between the two
+ * leaves a journal naming the old snapshot, which is then ignored.
+ *
+ * Staging-area changes are recorded as they are made (see
+ * Gitlet.StagingArea). Branches and the head are kept in Refs; the
+ * branch ops are only replayed, from journals written before that.
+ *
+ * @author Solomon Cheung
+ */
+class StateJournal {
+
+    /** journal file name in .gitlet. */
+    static final String FILENAME = "state-journal";
+
+    /** journal size below which it is never compacted. */
+    static final long MIN_COMPACT = 64 << 10;
+
+    /** op: stage a file. area byte, path, 0 or 1 and a blob id. */
+    static final int STAGE = 0;
+
+    /** op: unstage a file. area byte, path. */
+    static final int UNSTAGE = 1;
+
+    /** op: clear an area. area byte. */
+    static final int CLEAR = 2;
+
+    /** op, read only: add or move a branch. name, commit id. */
+    static final int SET_BRANCH = 3;
+
+    /** op, read only: delete a branch. name. */
+    static final int DELETE_BRANCH = 4;
+
+    /** op, read only: set the head branch. name. */
+    static final int HEAD = 5;
+
+    /** area byte of the staging area. */
+    static final int STAGING = 0;
+
+    /** area byte of the removing area. */
+    static final int REMOVING = 1;
+
+    /** length of the journal header. */
+    private static final int HEADER_LENGTH = Codec.MAGIC.length + 2
+        + Pack.ID_LENGTH;
+
+    /** sha1 of the snapshot on disk, or null if there is none that a
+     *  journal can apply to (none yet, or one in the Legacy format). */
+    private String _snapshotId;
+
+    /** size of the snapshot on disk. */
+    private long _snapshotSize;
+
+    /** length of the valid part of the journal; 0 if there is none. */
+    private long _length;
+
+    /** staging-area operations made since the last save. */
+    private Codec.Output _ops = new Codec.Output();
+
+    /** number of operations in _ops. */
+    private int _count;
+
+    /**
+     * the journal of the snapshot SNAPSHOT, as read from .gitlet.
+     * @param snapshot contents of gitlet_object, or null if they cannot
+     *         be journaled
+     */
+    StateJournal(byte[] snapshot) {
+        if (snapshot != null) {
+            _snapshotId = Utils.sha1(snapshot);
+            _snapshotSize = snapshot.length;
+        }
+    }
+
+    /**
+     * apply to GITLET, just decoded from the snapshot, the records of
+     * the journal that follow it, up to the first that is incomplete,
+     * fails its CRC, is empty (as a tail of zeros left by a crash is) or
+     * does not decode.
+     * @param gitlet gitlet object
+     */
+    void replay(Gitlet gitlet) {
+        File file = journalFile();
+        if (_snapshotId != null && file.isFile()) {
+            byte[] bytes = Utils.readContents(file);
+            if (header(bytes)) {
+                _length = HEADER_LENGTH;
+                ByteBuffer buf = ByteBuffer.wrap(bytes);
+                buf.position(HEADER_LENGTH);
+                while (buf.remaining() >= 8) {
+                    int n = buf.getInt();
+                    if (n <= 0 || n > buf.remaining() - 4) {
+                        break;
+                    }
+                    CRC32 crc = new CRC32();
+                    crc.update(bytes, buf.position(), n);
+                    byte[] payload = new byte[n];
+                    buf.get(payload);
+                    if ((int) crc.getValue() != buf.getInt()) {
+                        break;
+                    }
+                    try {
+                        apply(gitlet, payload);
+                    } catch (GitletException excp) {
+                        break;
+                    }
+                    _length = buf.position();
+                }
+            }
+        }
+    }
+
+    /**
+     * make the next save() write the snapshot whole, as when it still
+     * holds branches that have moved to Refs.
+     */
+    void rewrite() {
+        _snapshotId = null;
+    }
+
+    /**
+     * record that the file NAME was staged in AREA with the blob ID.
+     * @param area STAGING or REMOVING
+     * @param name file name
+     * @param id blob id, or "" for a removal
+     */
+    void stage(int area, String name, String id) {
+        _ops.write(STAGE);
+        _ops.write(area);
+        _ops.writeString(name);
+        if (id.isEmpty()) {
+            _ops.writeVarint(0);
+        } else {
+            _ops.writeVarint(1);
+            _ops.writeId(id);
+        }
+        _count += 1;
+    }
+
+    /**
+     * record that the file NAME was unstaged from AREA.
+     * @param area STAGING or REMOVING
+     * @param name file name
+     */
+    void unstage(int area, String name) {
+        _ops.write(UNSTAGE);
+        _ops.write(area);
+        _ops.writeString(name);
+        _count += 1;
+    }
+
+    /**
+     * record that AREA was cleared. Earlier operations are dropped if
+     * both areas are now empty anyway.
+     * @param area STAGING or REMOVING
+     * @param gitlet gitlet object
+     */
+    void clear(int area, Gitlet gitlet) {
+        if (gitlet.getStagingArea().getFiles().isEmpty()
+            && gitlet.getRemovingArea().getFiles().isEmpty()) {
+            _ops = new Codec.Output();
+            _count = 0;
+            _ops.write(CLEAR);
+            _ops.write(STAGING);
+            _ops.write(CLEAR);
+            _ops.write(REMOVING);
+            _count = 2;
+            return;
+        }
+        _ops.write(CLEAR);
+        _ops.write(area);
+        _count += 1;
+    }
+
+    /**
+     * save GITLET: append a record of its changes since the last save,
+     * or write it whole if there is no journal it can be appended to or
+     * the journal has grown past the snapshot. This ends the command's
+     * transaction (see Durability).
+     * @param gitlet gitlet object
+     */
+    void save(Gitlet gitlet) {
+        if (_count == 0 && _snapshotId != null) {
+            Durability.commit();
+            return;
+        }
+        Codec.Output payload = new Codec.Output();
+        payload.writeVarint(_count);
+        byte[] opBytes = _ops.toByteArray();
+        payload.write(opBytes, 0, opBytes.length);
+        byte[] record = frame(payload.toByteArray());
+
+        File file = journalFile();
+        long length = _length == 0 ? HEADER_LENGTH : _length;
+        if (_snapshotId == null || length + record.length
+            > Math.max(MIN_COMPACT, _snapshotSize)) {
+            byte[] snapshot = gitlet.encode();
+            Durability.writeState(snapshotFile(), snapshot);
+            file.delete();
+            _snapshotId = Utils.sha1(snapshot);
+            _snapshotSize = snapshot.length;
+            _length = 0;
+        } else if (_length == 0) {
+            Codec.Output out = new Codec.Output(Codec.JOURNAL);
+            out.writeId(_snapshotId);
+            out.write(record, 0, record.length);
+            Durability.writeState(file, out.toByteArray());
+            _length = HEADER_LENGTH + record.length;
+        } else {
+            Durability.append(file, _length, record);
+            _length += record.length;
+        }
+        _ops = new Codec.Output();
+        _count = 0;
+    }
+
+    /**
+     * does BYTES start with the header of a journal of the snapshot?
+     * @param bytes contents of the journal
+     * @return true if so
+     */
+    private boolean header(byte[] bytes) {
+        if (bytes.length < HEADER_LENGTH) {
+            return false;
+        }
+        try {
+            Codec.Input in = new Codec.Input(bytes);
+            return in.readHeader() == Codec.JOURNAL
+                && in.readId().equals(_snapshotId);
+        } catch (GitletException excp) {
+            return false;
+        }
+    }
+
+    /**
+     * apply the operations of the record PAYLOAD to GITLET.
+     * @param gitlet gitlet object
+     * @param payload record payload
+     */
+    private static void apply(Gitlet gitlet, byte[] payload) {
+        Codec.Input in = new Codec.Input(payload);
+        int count = in.readCount();
+        for (int i = 0; i < count; i += 1) {
+            int op = in.readByte();
+            switch (op) {
+            case STAGE: {
+                Gitlet.StagingArea area = area(gitlet, in.readByte());
+                String name = in.readString();
+                area.stage(name, in.readVarint() == 0 ? "" : in.readId());
+                break;
+            }
+            case UNSTAGE:
+                area(gitlet, in.readByte()).unstage(in.readString());
+                break;
+            case CLEAR:
+                area(gitlet, in.readByte()).clear();
+                break;
+            case SET_BRANCH: {
+                String name = in.readString();
+                String id = in.readId();
+                Gitlet.Branch branch = gitlet.getBranch(name);
+                if (branch == null) {
+                    gitlet.addBranch(new Gitlet.Branch(name, id));
+                } else {
+                    branch.setCommit(id);
+                }
+                break;
+            }
+            case DELETE_BRANCH: {
+                Gitlet.Branch branch = gitlet.getBranch(in.readString());
+                if (branch != null) {
+                    gitlet.removeBranch(branch);
+                }
+                break;
+            }
+            case HEAD:
+                gitlet.setHeadBranch(gitlet.getBranch(in.readString()));
+                break;
+            default:
+                throw Utils.error("Unknown journal operation %d.", op);
+            }
+        }
+    }
+
+    /**
+     * the area of GITLET that the area byte AREA names.
+     * @param gitlet gitlet object
+     * @param area STAGING or REMOVING
+     * @return staging area
+     */
+    private static Gitlet.StagingArea area(Gitlet gitlet, int area) {
+        return area == STAGING ? gitlet.getStagingArea()
+            : gitlet.getRemovingArea();
+    }
+
+    /**
+     * PAYLOAD framed as a record: its length, itself and its CRC32.
+     * @param payload record payload
+     * @return record
+     */
+    private static byte[] frame(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buf = ByteBuffer.allocate(payload.length + 8);
+        buf.putInt(payload.length);
+        buf.put(payload);
+        buf.putInt((int) crc.getValue());
+        return buf.array();
+    }
+
+    /**
+     * the snapshot file.
+     * @return .gitlet/gitlet_object
+     */
+    private static File snapshotFile() {
+        return new File(System.getProperty("user.dir"),
+            Gitlet.ABS_GITLET_OBJECT_FILENAME);
+    }
+
+    /**
+     * the journal file.
+     * @return .gitlet/state-journal
+     */
+    private static File journalFile() {
+        return new File(System.getProperty("user.dir"),
+            Gitlet.GITLET_FOLDER + "/" + FILENAME);
+    }
+}
@@ -0,0 +1,390 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * One directory of a commit's snapshot: its entries sorted by name, each
+ * the id of a blob or of the Tree of a subdirectory. A commit holds only
+ * the id of its root Tree.
+ *
+ * Trees are objects of Gitlet.ABS_TREE_FOLDER, identified by the sha1 of
+ * their encoding (Codec type TREE), so a directory that did not change
+ * between two commits is the same object in both. A new commit rewrites
+ * only the Trees on the paths to the files it changed, and two snapshots
+ * are compared by walking only the subtrees whose ids differ.
+ *
+ * @author Solomon Cheung
+ */
+class Tree {
+
+    /** entry kind: a file. */
+    static final int BLOB = 0;
+
+    /** entry kind: a subdirectory. */
+    static final int TREE = 1;
+
+    /** separator of path components. */
+    static final char SEPARATOR = '/';
+
+    /** Trees read by this process, by id. */
+    private static final HashMap<String, Tree> CACHE = new HashMap<>();
+
+    /** entry names, sorted. */
+    private final String[] _names;
+
+    /** entry ids, in the order of _names. */
+    private final String[] _ids;
+
+    /** entry kinds, in the order of _names. */
+    private final byte[] _kinds;
+
+    /** indexes of the entries in the order of their paths, or null until
+     *  first needed; see pathOrder(). */
+    private int[] _pathOrder;
+
+    /**
+     * a Tree of the entries NAMES, IDS and KINDS.
+     * @param names entry names, sorted
+     * @param ids entry ids
+     * @param kinds entry kinds
+     */
+    private Tree(String[] names, String[] ids, byte[] kinds) {
+        _names = names;
+        _ids = ids;
+        _kinds = kinds;
+    }
+
+    /**
+     * the Tree ID.
+     * @param id tree id
+     * @return tree
+     * @throws GitletException there is no such Tree.
+     */
+    static Tree read(String id) {
+        Tree tree = CACHE.get(id);
+        if (tree == null) {
+            if (!ObjectStore.contains(Gitlet.ABS_TREE_FOLDER, id)) {
+                throw Utils.error("Missing tree %s.", id);
+            }
+            tree = decode(ObjectStore.read(Gitlet.ABS_TREE_FOLDER, id));
+            CACHE.put(id, tree);
+        }
+        return tree;
+    }
+
+    /**
+     * store the snapshot FILES as Trees.
+     * @param files file paths and blob ids
+     * @return id of the root Tree
+     */
+    static String write(Map<String, String> files) {
+        return update(null, files);
+    }
+
+    /**
+     * store the snapshot ROOT with CHANGES applied. Only the Trees on
+     * the paths of the changed files are written.
+     * @param root id of the root Tree, or null for an empty snapshot
+     * @param changes file paths and their new blob ids, null to remove
+     * @return id of the new root Tree
+     */
+    static String update(String root, Map<String, String> changes) {
+        TreeMap<String, Entry> entries = update(root,
+            new TreeMap<>(changes));
+        return store(entries);
+    }
+
+    /**
+     * the entries of the Tree ID with CHANGES, whose paths are relative
+     * to it, applied; the changed subtrees are stored.
+     * @param id tree id, or null for an empty directory
+     * @param changes relative file paths and new blob ids, null to remove
+     * @return entries by name
+     */
+    private static TreeMap<String, Entry> update(String id,
+        SortedMap<String, String> changes) {
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        if (id != null) {
+            Tree tree = read(id);
+            for (int i = 0; i < tree._names.length; i += 1) {
+                entries.put(tree._names[i],
+                    new Entry(tree._ids[i], tree._kinds[i]));
+            }
+        }
+        TreeMap<String, TreeMap<String, String>> subdirs = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf(SEPARATOR);
+            if (slash < 0) {
+                if (change.getValue() != null) {
+                    entries.put(path, new Entry(change.getValue(), BLOB));
+                } else if (isKind(entries.get(path), BLOB)) {
+                    entries.remove(path);
+                }
+            } else {
+                subdirs.computeIfAbsent(path.substring(0, slash),
+                    k -> new TreeMap<>()).put(path.substring(slash + 1),
+                    change.getValue());
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> subdir
+            : subdirs.entrySet()) {
+            Entry old = entries.get(subdir.getKey());
+            TreeMap<String, Entry> sub = update(isKind(old, TREE)
+                ? old._id : null, subdir.getValue());
+            if (sub.isEmpty()) {
+                if (isKind(old, TREE)) {
+                    entries.remove(subdir.getKey());
+                }
+            } else {
+                entries.put(subdir.getKey(), new Entry(store(sub), TREE));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * is ENTRY present and of kind KIND?
+     * @param entry entry, or null
+     * @param kind BLOB or TREE
+     * @return true if so
+     */
+    private static boolean isKind(Entry entry, int kind) {
+        return entry != null && entry._kind == kind;
+    }
+
+    /**
+     * store a Tree of ENTRIES, unless it is already stored.
+     * @param entries entries by name
+     * @return its id
+     */
+    private static String store(TreeMap<String, Entry> entries) {
+        int n = entries.size();
+        String[] names = entries.keySet().toArray(new String[n]);
+        String[] ids = new String[n];
+        byte[] kinds = new byte[n];
+        int i = 0;
+        for (Entry entry : entries.values()) {
+            ids[i] = entry._id;
+            kinds[i] = entry._kind;
+            i += 1;
+        }
+        Tree tree = new Tree(names, ids, kinds);
+        byte[] bytes = tree.encode();
+        String id = Utils.sha1(bytes);
+        new File(System.getProperty("user.dir"),
+            Gitlet.ABS_TREE_FOLDER).mkdirs();
+        ObjectStore.store(Gitlet.ABS_TREE_FOLDER, id, bytes);
+        CACHE.put(id, tree);
+        return id;
+    }
+
+    /**
+     * the blob id of the file PATH in the snapshot ROOT, reading only
+     * the Trees on its path.
+     * @param root id of the root Tree
+     * @param path file path
+     * @return blob id, or null if PATH is not a file of the snapshot
+     */
+    static String lookup(String root, String path) {
+        Tree tree = read(root);
+        int start = 0;
+        while (true) {
+            int slash = path.indexOf(SEPARATOR, start);
+            String name = slash < 0 ? path.substring(start)
+                : path.substring(start, slash);
+            int i = tree.find(name);
+            if (i < 0) {
+                return null;
+            }
+            if (slash < 0) {
+                return tree._kinds[i] == BLOB ? tree._ids[i] : null;
+            }
+            if (tree._kinds[i] != TREE) {
+                return null;
+            }
+            tree = read(tree._ids[i]);
+            start = slash + 1;
+        }
+    }
+
+    /**
+     * every file of the snapshot ROOT.
+     * @param root id of the root Tree
+     * @return file paths to blob ids
+     */
+    static Manifest flatten(String root) {
+        Manifest files = new Manifest();
+        flatten(root, "", files);
+        return files;
+    }
+
+    /**
+     * append every file under the Tree ID to FILES, in path order, with
+     * PREFIX before its path.
+     * @param id tree id
+     * @param prefix path of the Tree's directory and a separator, or ""
+     * @param files file paths to blob ids
+     */
+    private static void flatten(String id, String prefix, Manifest files) {
+        Tree tree = read(id);
+        for (int i : tree.pathOrder()) {
+            if (tree._kinds[i] == TREE) {
+                flatten(tree._ids[i], prefix + tree._names[i] + SEPARATOR,
+                    files);
+            } else {
+                files.append(prefix + tree._names[i], tree._ids[i]);
+            }
+        }
+    }
+
+    /**
+     * the indexes of the entries in the order of the paths under them:
+     * by name, but with each subdirectory's name followed by SEPARATOR,
+     * so that "a.txt" comes before the files of "a/".
+     * @return entry indexes
+     */
+    private int[] pathOrder() {
+        if (_pathOrder == null) {
+            Integer[] order = new Integer[_names.length];
+            String[] keys = new String[_names.length];
+            for (int i = 0; i < order.length; i += 1) {
+                order[i] = i;
+                keys[i] = _kinds[i] == TREE ? _names[i] + SEPARATOR
+                    : _names[i];
+            }
+            Arrays.sort(order, (x, y) -> keys[x].compareTo(keys[y]));
+            _pathOrder = new int[order.length];
+            for (int i = 0; i < order.length; i += 1) {
+                _pathOrder[i] = order[i];
+            }
+        }
+        return _pathOrder;
+    }
+
+    /**
+     * the files of snapshot A that differ in snapshot B, as
+     * Command.MergeCommand#modified computes from flat maps: each maps
+     * to its blob id in B, or "" if B does not have it. Subtrees with
+     * the same id in both are skipped without being read.
+     * @param a id of the root Tree of A
+     * @param b id of the root Tree of B
+     * @return changed file paths
+     */
+    static HashMap<String, String> modified(String a, String b) {
+        HashMap<String, String> changed = new HashMap<>();
+        modified(a, b, "", changed);
+        return changed;
+    }
+
+    /**
+     * add the files under Tree A that differ under Tree B to CHANGED.
+     * @param a tree id
+     * @param b tree id, or null if B has no such directory
+     * @param prefix path of their directory and a separator, or ""
+     * @param changed changed file paths
+     */
+    private static void modified(String a, String b, String prefix,
+        HashMap<String, String> changed) {
+        if (a.equals(b)) {
+            return;
+        }
+        Tree ta = read(a);
+        Tree tb = b == null ? null : read(b);
+        for (int i = 0; i < ta._names.length; i += 1) {
+            String name = ta._names[i];
+            int j = tb == null ? -1 : tb.find(name);
+            if (ta._kinds[i] == TREE) {
+                modified(ta._ids[i], j >= 0 && tb._kinds[j] == TREE
+                    ? tb._ids[j] : null, prefix + name + SEPARATOR, changed);
+            } else if (j < 0 || tb._kinds[j] != BLOB) {
+                changed.put(prefix + name, "");
+            } else if (!ta._ids[i].equals(tb._ids[j])) {
+                changed.put(prefix + name, tb._ids[j]);
+            }
+        }
+    }
+
+    /**
+     * index of the entry NAME.
+     * @param name entry name
+     * @return its index, or a negative number if there is none
+     */
+    private int find(String name) {
+        return Arrays.binarySearch(_names, name);
+    }
+
+    /**
+     * the encoding of the Tree (see Codec): the number of entries, then
+     * each entry's name, as a key following the name before it, its
+     * kind and its raw id.
+     * @return encoded bytes
+     */
+    byte[] encode() {
+        Codec.Output out = new Codec.Output(Codec.TREE);
+        out.writeVarint(_names.length);
+        String previous = "";
+        for (int i = 0; i < _names.length; i += 1) {
+            out.writeKey(previous, _names[i]);
+            out.write(_kinds[i]);
+            out.writeId(_ids[i]);
+            previous = _names[i];
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * the Tree encoded in BYTES by encode().
+     * @param bytes encoded bytes
+     * @return tree
+     */
+    static Tree decode(byte[] bytes) {
+        Codec.Input in = new Codec.Input(bytes);
+        if (in.readHeader() != Codec.TREE) {
+            throw Utils.error("Not an encoded tree.");
+        }
+        int n = in.readCount();
+        ArrayList<String> names = new ArrayList<>(n);
+        String[] ids = new String[n];
+        byte[] kinds = new byte[n];
+        String previous = "";
+        for (int i = 0; i < n; i += 1) {
+            previous = in.readKey(previous);
+            names.add(previous);
+            kinds[i] = (byte) in.readByte();
+            if (kinds[i] != BLOB && kinds[i] != TREE) {
+                throw Utils.error("Encoded value is corrupt.");
+            }
+            ids[i] = in.readId();
+        }
+        return new Tree(names.toArray(new String[n]), ids, kinds);
+    }
+
+    /**
+     * an entry being built.
+     */
+    private static class Entry {
+
+        /** blob or tree id. */
+        private final String _id;
+
+        /** BLOB or TREE. */
+        private final byte _kind;
+
+        /**
+         * an entry for ID of kind KIND.
+         * @param id blob or tree id
+         * @param kind BLOB or TREE
+         */
+        Entry(String id, int kind) {
+            _id = id;
+            _kind = (byte) kind;
+        }
+    }
+}
@@ -5,6 +5,11 @@ import org.junit.Test;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
 /** The suite of all JUnit tests for the gitlet package.
  *  @author Solomon Cheung
  */
@@ -35,4 +40,1186 @@ public class UnitTest {
             "d67868685a420fe0b06a8107456c7b4c074a83d5",
             b.getId());
     }
+
+    /**
+     * Codec values read back as they were written.
+     */
+    @Test
+    public void codecRoundTripTest() {
+        String[] keys = {"", "a.txt", "a.txt~", "b/c.txt", "b/d.txt",
+            "caf\u00e9.txt", "\ud83d\ude00.txt", "\ud83d\ude01.txt",
+            "\ud83d\ude01\ud83d\ude02", "x".repeat(300)};
+        String id = Utils.sha1("codec");
+        Codec.Output out = new Codec.Output(Codec.STATE);
+        out.writeVarint(0);
+        out.writeVarint(Long.MAX_VALUE);
+        out.writeSignedVarint(-1);
+        out.writeSignedVarint(Long.MIN_VALUE);
+        out.writeString("\u00fcber \ud83d\ude00");
+        out.writeId(id);
+        String previous = "";
+        for (String key : keys) {
+            out.writeKey(previous, key);
+            previous = key;
+        }
+        Codec.Input in = new Codec.Input(out.toByteArray());
+        assertEquals(Codec.STATE, in.readHeader());
+        assertEquals(Codec.VERSION, in.version());
+        assertEquals(0, in.readVarint());
+        assertEquals(Long.MAX_VALUE, in.readVarint());
+        assertEquals(-1, in.readSignedVarint());
+        assertEquals(Long.MIN_VALUE, in.readSignedVarint());
+        assertEquals("\u00fcber \ud83d\ude00", in.readString());
+        assertEquals(id, in.readId());
+        previous = "";
+        for (String key : keys) {
+            previous = in.readKey(previous);
+            assertEquals(key, previous);
+        }
+    }
+
+    /**
+     * keys that differ only in the low half of a surrogate pair keep
+     * both halves.
+     */
+    @Test
+    public void codecSurrogateKeyTest() {
+        Codec.Output out = new Codec.Output();
+        out.writeKey("", "\ud83d\ude00.txt");
+        out.writeKey("\ud83d\ude00.txt", "\ud83d\ude01.txt");
+        Codec.Input in = new Codec.Input(out.toByteArray());
+        String first = in.readKey("");
+        String second = in.readKey(first);
+        assertEquals("\ud83d\ude01.txt", second);
+        assertArrayEquals("\ud83d\ude01.txt".getBytes(StandardCharsets.UTF_8),
+            second.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * truncated or foreign input is rejected.
+     */
+    @Test
+    public void codecCorruptTest() {
+        Codec.Output out = new Codec.Output(Codec.COMMIT);
+        out.writeString("message");
+        byte[] bytes = out.toByteArray();
+        Codec.Input truncated = new Codec.Input(
+            java.util.Arrays.copyOf(bytes, bytes.length - 2));
+        truncated.readHeader();
+        assertThrows(() -> truncated.readString());
+        assertThrows(() -> new Codec.Input(new byte[] {1, 2, 3, 4})
+            .readHeader());
+        byte[] future = bytes.clone();
+        future[Codec.MAGIC.length] = (byte) (Codec.VERSION + 1);
+        assertThrows(() -> new Codec.Input(future).readHeader());
+        Codec.Output keys = new Codec.Output();
+        keys.writeVarint(5);
+        keys.writeString("x");
+        assertThrows(() -> new Codec.Input(keys.toByteArray())
+            .readKey("ab"));
+    }
+
+    /**
+     * a file stored under an id it no longer has is stored, and named,
+     * by what it holds now, whole or chunked.
+     * @throws IOException
+     */
+    @Test
+    public void storeRehashesTest() throws IOException {
+        File dir = scratch();
+        File file = new File(dir, "a.txt");
+        Files.write(file.toPath(), "now".getBytes(StandardCharsets.UTF_8));
+        String stale = Utils.sha1("before");
+        String id = ObjectStore.store(Gitlet.ABS_BLOB_FOLDER, stale, file);
+        assertEquals(Utils.sha1("now"), id);
+        assertTrue(ObjectStore.contains(Gitlet.ABS_BLOB_FOLDER, id));
+        assertFalse(ObjectStore.contains(Gitlet.ABS_BLOB_FOLDER, stale));
+        assertEquals("now", new String(
+            ObjectStore.read(Gitlet.ABS_BLOB_FOLDER, id),
+            StandardCharsets.UTF_8));
+        assertEquals(id, ObjectStore.store(Gitlet.ABS_BLOB_FOLDER, id,
+            new File(dir, "missing.txt")));
+
+        long threshold = ObjectStore.chunkThreshold();
+        ObjectStore.setChunkThreshold(1);
+        try {
+            byte[] big = new byte[100000];
+            new java.util.Random(1).nextBytes(big);
+            Files.write(file.toPath(), big);
+            id = ObjectStore.store(Gitlet.ABS_BLOB_FOLDER, stale, file);
+        } finally {
+            ObjectStore.setChunkThreshold(threshold);
+        }
+        assertEquals(Utils.sha1((Object) Files.readAllBytes(file.toPath())),
+            id);
+        assertArrayEquals(Files.readAllBytes(file.toPath()),
+            ObjectStore.read(Gitlet.ABS_BLOB_FOLDER, id));
+        Durability.commit();
+    }
+
+    /**
+     * commit ids are found by prefix once added, only reach the tail
+     * when flushed, and survive a torn tail and a merge into the index.
+     * @throws IOException
+     */
+    @Test
+    public void commitIndexTest() throws IOException {
+        File dir = scratch();
+        File tail = new File(dir, Gitlet.GITLET_FOLDER + "/"
+            + CommitIndex.TAIL_FILENAME);
+        String first = "ab" + Utils.sha1("first").substring(2);
+        String second = "ab" + Utils.sha1("second").substring(2);
+        CommitIndex.add(first);
+        assertFalse(tail.exists());
+        assertEquals(java.util.List.of(first),
+            CommitIndex.resolve(first.substring(0, 6), 2));
+        CommitIndex.flush();
+        assertEquals(Pack.ID_LENGTH, tail.length());
+
+        Files.write(tail.toPath(), new byte[] {1, 2, 3},
+            java.nio.file.StandardOpenOption.APPEND);
+        assertEquals(java.util.List.of(first),
+            CommitIndex.resolve("ab", 2));
+        CommitIndex.add(second);
+        CommitIndex.flush();
+        assertEquals(2 * Pack.ID_LENGTH, tail.length());
+        assertEquals(2, CommitIndex.resolve("ab", 2).size());
+        assertEquals(java.util.List.of(second),
+            CommitIndex.resolve(second.substring(0, 8), 2));
+        assertTrue(CommitIndex.resolve("xyz", 2).isEmpty());
+
+        for (int i = 0; i < CommitIndex.TAIL_LIMIT; i += 1) {
+            CommitIndex.add(Utils.sha1("commit", Integer.toString(i)));
+        }
+        CommitIndex.flush();
+        assertFalse(tail.exists());
+        assertEquals(java.util.List.of(first),
+            CommitIndex.resolve(first, 2));
+        String last = Utils.sha1("commit",
+            Integer.toString(CommitIndex.TAIL_LIMIT - 1));
+        assertEquals(java.util.List.of(last), CommitIndex.resolve(last, 2));
+    }
+
+    /**
+     * objects of a committed transaction are put in place; those of an
+     * aborted one never are, and their temporary files are deleted.
+     * @throws IOException
+     */
+    @Test
+    public void durabilityAbortTest() throws IOException {
+        File dir = scratch();
+        File folder = new File(dir, Gitlet.GITLET_FOLDER);
+        File kept = new File(folder, "kept");
+        File dropped = new File(folder, "dropped");
+        File tmp = File.createTempFile("tmp_", null, folder);
+        Durability.publish(tmp, kept);
+        Durability.commit();
+        assertTrue(kept.exists());
+        assertFalse(tmp.exists());
+
+        tmp = File.createTempFile("tmp_", null, folder);
+        Durability.publish(tmp, dropped);
+        assertSame(tmp, Durability.pending(dropped));
+        Durability.abort();
+        assertNull(Durability.pending(dropped));
+        assertFalse(tmp.exists());
+        Durability.commit();
+        assertFalse(dropped.exists());
+    }
+
+    /**
+     * in hardlink mode a blob still pending in its transaction is
+     * copied, leaving its temporary file writable for commit(); once in
+     * place it is linked read-only.
+     * @throws IOException
+     */
+    @Test
+    public void hardlinkPendingTest() throws IOException {
+        File dir = scratch();
+        ObjectStore.setCheckoutMode(ObjectStore.HARDLINK);
+        try {
+            byte[] contents = "linked\n".getBytes(StandardCharsets.UTF_8);
+            String id = Utils.sha1(contents);
+            ObjectStore.store(Gitlet.ABS_BLOB_FOLDER, id, contents);
+            File object = ObjectStore.objectFile(Gitlet.ABS_BLOB_FOLDER, id);
+            File tmp = Durability.pending(object);
+            assertNotNull(tmp);
+            File copied = new File(dir, "copied.txt");
+            ObjectStore.copyTo(Gitlet.ABS_BLOB_FOLDER, id, copied);
+            assertArrayEquals(contents, Files.readAllBytes(copied.toPath()));
+            assertFalse(Files.isSameFile(copied.toPath(), tmp.toPath()));
+            assertTrue(Files.getPosixFilePermissions(tmp.toPath()).contains(
+                java.nio.file.attribute.PosixFilePermission.OWNER_WRITE));
+            Durability.commit();
+
+            File linked = new File(dir, "linked.txt");
+            ObjectStore.copyTo(Gitlet.ABS_BLOB_FOLDER, id, linked);
+            assertTrue(Files.isSameFile(linked.toPath(), object.toPath()));
+            assertFalse(Files.getPosixFilePermissions(object.toPath())
+                .contains(java.nio.file.attribute.PosixFilePermission
+                .OWNER_WRITE));
+        } finally {
+            ObjectStore.setCheckoutMode(ObjectStore.COPY);
+        }
+    }
+
+    /**
+     * deltas rebuild their target from their base, and are small when
+     * the two share most of their bytes.
+     */
+    @Test
+    public void deltaRoundTripTest() {
+        java.util.Random random = new java.util.Random(7);
+        byte[] base = new byte[64 * 1024];
+        random.nextBytes(base);
+        byte[] edited = new byte[base.length + 100];
+        System.arraycopy(base, 0, edited, 0, 30000);
+        byte[] inserted = new byte[100];
+        random.nextBytes(inserted);
+        System.arraycopy(inserted, 0, edited, 30000, 100);
+        System.arraycopy(base, 30000, edited, 30100, base.length - 30000);
+        byte[] other = new byte[5000];
+        random.nextBytes(other);
+        byte[][][] pairs = {
+            {base, base}, {base, edited}, {edited, base}, {base, other},
+            {new byte[0], other}, {other, new byte[0]},
+            {new byte[0], new byte[0]}, {"abc".getBytes(), "abd".getBytes()},
+        };
+        for (byte[][] pair : pairs) {
+            byte[] delta = Delta.encode(pair[0], pair[1]);
+            assertArrayEquals(pair[1], Delta.apply(pair[0], delta));
+        }
+        assertTrue(Delta.encode(base, edited).length < 1000);
+    }
+
+    /**
+     * a delta applied to another base, cut short or damaged is refused.
+     */
+    @Test
+    public void deltaCorruptTest() {
+        byte[] base = "the quick brown fox jumps over the lazy dog, twice"
+            .getBytes(StandardCharsets.UTF_8);
+        byte[] target = "the quick brown cat jumps over the lazy dog, twice!"
+            .getBytes(StandardCharsets.UTF_8);
+        byte[] delta = Delta.encode(base, target);
+        assertThrows(() -> Delta.apply(target, delta));
+        for (int n = 0; n < delta.length; n += 1) {
+            byte[] cut = java.util.Arrays.copyOf(delta, n);
+            assertThrows(() -> Delta.apply(base, cut));
+        }
+        byte[] bad = java.util.Arrays.copyOf(delta, delta.length + 1);
+        bad[delta.length] = 9;
+        assertThrows(() -> Delta.apply(base, bad));
+        byte[] far = {(byte) base.length, 4, Delta.COPY, 100, 4};
+        assertThrows(() -> Delta.apply(base, far));
+    }
+
+    /**
+     * chunks stay within their bounds and their boundaries depend only
+     * on nearby bytes, so an insertion moves only the chunks around it.
+     */
+    @Test
+    public void chunkerTest() {
+        byte[] data = new byte[2 << 20];
+        new java.util.Random(9).nextBytes(data);
+        java.util.List<Integer> cuts = cuts(data);
+        for (int i = 1; i < cuts.size() - 1; i += 1) {
+            int len = cuts.get(i) - cuts.get(i - 1);
+            assertTrue(len >= Chunker.MIN_SIZE && len <= Chunker.MAX_SIZE);
+        }
+        assertEquals(data.length, (long) cuts.get(cuts.size() - 1));
+        assertEquals(cuts, cuts(data));
+        assertEquals(5, Chunker.cut(data, 0, 5));
+
+        byte[] edited = new byte[data.length + 10];
+        System.arraycopy(data, 0, edited, 10, data.length);
+        java.util.HashSet<Integer> moved = new java.util.HashSet<>();
+        for (int cut : cuts(edited)) {
+            moved.add(cut - 10);
+        }
+        int kept = 0;
+        for (int cut : cuts) {
+            kept += moved.contains(cut) ? 1 : 0;
+        }
+        assertTrue(kept >= cuts.size() - 2);
+    }
+
+    /**
+     * the ends of the chunks DATA is cut into.
+     * @param data bytes
+     * @return end of each chunk, in order
+     */
+    private static java.util.List<Integer> cuts(byte[] data) {
+        java.util.ArrayList<Integer> cuts = new java.util.ArrayList<>();
+        for (int off = 0; off < data.length;) {
+            off += Chunker.cut(data, off, data.length - off);
+            cuts.add(off);
+        }
+        return cuts;
+    }
+
+    /**
+     * a chunked file reads back whole, a new revision of it stores only
+     * the chunks it changed, and a missing chunk is an error.
+     * @throws IOException
+     */
+    @Test
+    public void chunkedStoreTest() throws IOException {
+        File dir = scratch();
+        long threshold = ObjectStore.chunkThreshold();
+        ObjectStore.setChunkThreshold(1 << 20);
+        try {
+            byte[] data = new byte[3 << 20];
+            new java.util.Random(11).nextBytes(data);
+            File file = new File(dir, "big.bin");
+            Files.write(file.toPath(), data);
+            String id = ObjectStore.store(Gitlet.ABS_BLOB_FOLDER, file);
+            assertEquals(Utils.sha1(data), id);
+            Durability.commit();
+            int chunks = ObjectStore.ids(Gitlet.ABS_CHUNK_FOLDER).size();
+            assertTrue(chunks > 1);
+
+            data[data.length / 2] ^= 1;
+            Files.write(file.toPath(), data);
+            String edited = ObjectStore.store(Gitlet.ABS_BLOB_FOLDER, file);
+            Durability.commit();
+            assertEquals(Utils.sha1(data), edited);
+            int added = ObjectStore.ids(Gitlet.ABS_CHUNK_FOLDER).size()
+                - chunks;
+            assertTrue(added >= 1 && added <= 2);
+
+            File out = new File(dir, "out.bin");
+            ObjectStore.copyTo(Gitlet.ABS_BLOB_FOLDER, edited, out);
+            assertArrayEquals(data, Files.readAllBytes(out.toPath()));
+
+            for (String chunk : ObjectStore.ids(Gitlet.ABS_CHUNK_FOLDER)) {
+                ObjectStore.objectFile(Gitlet.ABS_CHUNK_FOLDER, chunk)
+                    .delete();
+            }
+            try {
+                ObjectStore.copyTo(Gitlet.ABS_BLOB_FOLDER, id, out);
+                fail("copied a chunked blob without its chunks");
+            } catch (IllegalArgumentException excp) {
+                assertTrue(excp.getMessage().startsWith("no object"));
+            }
+        } finally {
+            ObjectStore.setChunkThreshold(threshold);
+        }
+    }
+
+    /**
+     * repack moves every object into one pack, with a revision stored
+     * as a delta of its base, and each reads back from the pack.
+     * @throws IOException
+     */
+    @Test
+    public void packRoundTripTest() throws IOException {
+        scratch();
+        String folder = Gitlet.ABS_BLOB_FOLDER;
+        java.util.ArrayList<byte[]> contents = new java.util.ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i += 1) {
+            text.append("line ").append(i).append('\n');
+        }
+        contents.add(text.toString().getBytes(StandardCharsets.UTF_8));
+        contents.add((text + "one more line\n")
+            .getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < 50; i += 1) {
+            contents.add(("small " + i).getBytes(StandardCharsets.UTF_8));
+        }
+        java.util.ArrayList<String> ids = new java.util.ArrayList<>();
+        for (byte[] bytes : contents) {
+            ids.add(Utils.sha1(bytes));
+            ObjectStore.store(folder, Utils.sha1(bytes), bytes);
+        }
+        Durability.commit();
+        ObjectStore.repack(folder, java.util.Map.of(ids.get(1), ids.get(0)));
+
+        assertEquals(1, ObjectStore.packs(folder).size());
+        Pack pack = ObjectStore.packs(folder).get(0);
+        assertEquals(contents.size(), pack.size());
+        for (int i = 0; i < contents.size(); i += 1) {
+            String id = ids.get(i);
+            assertFalse(ObjectStore.containsLoose(folder, id));
+            assertEquals(id, pack.id(pack.find(id)));
+            assertArrayEquals(contents.get(i), ObjectStore.read(folder, id));
+        }
+        assertEquals(ObjectStore.DELTA, ObjectStore.method(
+            ObjectStore.locate(folder, ids.get(1))));
+        assertEquals(-1, pack.find(Utils.sha1("missing")));
+        assertEquals(java.util.List.of(ids.get(0)),
+            ObjectStore.ids(folder, ids.get(0).substring(0, 7)));
+        assertEquals(contents.size(), Pack.load(folder).get(0).size());
+    }
+
+    /**
+     * every read of a packed object goes through the one channel the
+     * pack opened with its index, which reads do not close; a closed
+     * channel is reopened, and delete() closes it.
+     * @throws IOException
+     */
+    @Test
+    public void packChannelTest() throws IOException {
+        File dir = scratch();
+        String folder = Gitlet.ABS_BLOB_FOLDER;
+        byte[] bytes = "packed\n".getBytes(StandardCharsets.UTF_8);
+        String id = Utils.sha1(bytes);
+        ObjectStore.store(folder, id, bytes);
+        Durability.commit();
+        ObjectStore.repack(folder, java.util.Map.of());
+        Pack pack = ObjectStore.packs(folder).get(0);
+        java.nio.channels.FileChannel channel = pack.channel();
+        assertArrayEquals(bytes, ObjectStore.read(folder, id));
+        File out = new File(dir, "out.txt");
+        ObjectStore.copyTo(folder, id, out);
+        assertArrayEquals(bytes, Files.readAllBytes(out.toPath()));
+        assertSame(channel, pack.channel());
+        assertTrue(channel.isOpen());
+
+        channel.close();
+        assertArrayEquals(bytes, ObjectStore.read(folder, id));
+        assertTrue(pack.channel().isOpen());
+        channel = pack.channel();
+        pack.delete();
+        assertFalse(channel.isOpen());
+        assertFalse(pack.getPackFile().exists());
+    }
+
+    /**
+     * a pack index that is cut short or not an index is refused.
+     * @throws IOException
+     */
+    @Test
+    public void packIndexCorruptTest() throws IOException {
+        scratch();
+        String folder = Gitlet.ABS_BLOB_FOLDER;
+        for (int i = 0; i < 3; i += 1) {
+            byte[] bytes = ("object " + i).getBytes(StandardCharsets.UTF_8);
+            ObjectStore.store(folder, Utils.sha1(bytes), bytes);
+        }
+        Durability.commit();
+        ObjectStore.repack(folder, java.util.Map.of());
+        File idx = ObjectStore.packs(folder).get(0).getPackFile();
+        idx = new File(idx.getParentFile(),
+            idx.getName().replace(".pack", ".idx"));
+        byte[] good = Files.readAllBytes(idx.toPath());
+
+        File cut = new File(idx.getParentFile(), "cut.idx");
+        Files.write(cut.toPath(), java.util.Arrays.copyOf(good,
+            good.length - 8));
+        assertThrows(() -> new Pack(cut));
+        Files.write(cut.toPath(), java.util.Arrays.copyOf(good, 6));
+        assertThrows(() -> new Pack(cut));
+        byte[] foreign = good.clone();
+        foreign[0] = 'X';
+        Files.write(cut.toPath(), foreign);
+        assertThrows(() -> new Pack(cut));
+    }
+
+    /**
+     * a Manifest behaves as a sorted map through a long run of puts and
+     * removes, merged or not.
+     */
+    @Test
+    public void manifestTest() {
+        java.util.Random random = new java.util.Random(3);
+        java.util.TreeMap<String, String> model = new java.util.TreeMap<>();
+        Manifest manifest = new Manifest();
+        for (int i = 0; i < 5000; i += 1) {
+            String path = "f" + random.nextInt(700);
+            int op = random.nextInt(4);
+            if (op == 0) {
+                assertEquals(model.remove(path), manifest.remove(path));
+            } else {
+                String id = op == 1 ? "" : Utils.sha1(Integer.toString(i));
+                assertEquals(model.put(path, id), manifest.put(path, id));
+            }
+            assertEquals(model.get(path), manifest.get(path));
+            assertEquals(model.size(), manifest.size());
+        }
+        assertEquals(new java.util.ArrayList<>(model.entrySet()),
+            new java.util.ArrayList<>(manifest.entrySet()));
+        java.util.ArrayList<String> order = new java.util.ArrayList<>();
+        manifest.forEach((path, id) -> order.add(path));
+        assertEquals(new java.util.ArrayList<>(model.keySet()), order);
+        assertEquals(model, new Manifest(model));
+        assertNull(manifest.get("missing"));
+        manifest.clear();
+        assertTrue(manifest.isEmpty());
+    }
+
+    /**
+     * a Manifest refuses values that are not ids and paths appended out
+     * of order.
+     */
+    @Test
+    public void manifestBadValueTest() {
+        Manifest manifest = new Manifest();
+        String[] bad = {"abc", Utils.sha1("x").replace('a', 'g'),
+            Utils.sha1("x") + "0"};
+        for (String id : bad) {
+            try {
+                manifest.put("f", id);
+                fail("put " + id);
+            } catch (IllegalArgumentException excp) {
+                assertNull(manifest.get("f"));
+            }
+        }
+        assertEquals(0, manifest.size());
+        manifest.append("b", "");
+        try {
+            manifest.append("a", "");
+            fail("appended out of order");
+        } catch (IllegalArgumentException excp) {
+            assertEquals(1, manifest.size());
+        }
+    }
+
+    /**
+     * Trees store nested snapshots, share unchanged subtrees, and are
+     * compared and updated by path.
+     * @throws IOException
+     */
+    @Test
+    public void treeTest() throws IOException {
+        scratch();
+        java.util.TreeMap<String, String> files = new java.util.TreeMap<>();
+        files.put("a.txt", Utils.sha1("a"));
+        files.put("src/Main.java", Utils.sha1("main"));
+        files.put("src/util/Utils.java", Utils.sha1("utils"));
+        files.put("docs/README", Utils.sha1("readme"));
+        String root = Tree.write(files);
+        assertEquals(root, Tree.write(new java.util.HashMap<>(files)));
+        assertEquals(files, Tree.flatten(root));
+        assertEquals(Utils.sha1("utils"),
+            Tree.lookup(root, "src/util/Utils.java"));
+        assertNull(Tree.lookup(root, "src/util"));
+        assertNull(Tree.lookup(root, "a.txt/b"));
+        assertNull(Tree.lookup(root, "missing"));
+        Durability.commit();
+        int trees = ObjectStore.ids(Gitlet.ABS_TREE_FOLDER).size();
+        assertEquals(4, trees);
+
+        java.util.HashMap<String, String> changes = new java.util.HashMap<>();
+        changes.put("src/util/Utils.java", Utils.sha1("utils 2"));
+        changes.put("docs/README", null);
+        String next = Tree.update(root, changes);
+        Durability.commit();
+        assertEquals(trees + 3,
+            ObjectStore.ids(Gitlet.ABS_TREE_FOLDER).size());
+        files.put("src/util/Utils.java", Utils.sha1("utils 2"));
+        files.remove("docs/README");
+        assertEquals(files, Tree.flatten(next));
+        assertEquals(next, Tree.write(files));
+
+        java.util.HashMap<String, String> modified = Tree.modified(root, next);
+        assertEquals(2, modified.size());
+        assertEquals("", modified.get("docs/README"));
+        assertEquals(Utils.sha1("utils 2"),
+            modified.get("src/util/Utils.java"));
+        assertTrue(Tree.modified(next, next).isEmpty());
+    }
+
+    /**
+     * a missing Tree, or bytes that are not a Tree, are refused.
+     * @throws IOException
+     */
+    @Test
+    public void treeCorruptTest() throws IOException {
+        scratch();
+        assertThrows(() -> Tree.read(Utils.sha1("no such tree")));
+        Codec.Output out = new Codec.Output(Codec.TREE);
+        out.writeVarint(1);
+        out.writeKey("", "f");
+        out.write(7);
+        out.writeId(Utils.sha1("f"));
+        byte[] badKind = out.toByteArray();
+        assertThrows(() -> Tree.decode(badKind));
+        byte[] good = Tree.read(Tree.write(java.util.Map.of("f",
+            Utils.sha1("f")))).encode();
+        assertThrows(() -> Tree.decode(java.util.Arrays.copyOf(good,
+            good.length - 1)));
+        byte[] other = new Codec.Output(Codec.TREE + 1).toByteArray();
+        assertThrows(() -> Tree.decode(other));
+    }
+
+    /**
+     * changes saved after the snapshot are appended to the journal and
+     * replayed on load; a torn, damaged, zero-filled or undecodable
+     * last record is dropped and written over by the next save, and a
+     * journal of another snapshot is ignored.
+     * @throws IOException
+     */
+    @Test
+    public void stateJournalTest() throws IOException {
+        File dir = scratch();
+        File journal = new File(dir, Gitlet.GITLET_FOLDER + "/"
+            + StateJournal.FILENAME);
+        String a = Utils.sha1("a");
+        String b = Utils.sha1("b");
+        Gitlet gitlet = Gitlet.loadGitlet();
+        gitlet.getStagingArea().stage("a.txt", a);
+        gitlet.save();
+        assertFalse(journal.exists());
+
+        gitlet = Gitlet.loadGitlet();
+        gitlet.getStagingArea().stage("b.txt", b);
+        gitlet.save();
+        long first = journal.length();
+        gitlet.getStagingArea().unstage("a.txt");
+        gitlet.getRemovingArea().stage("c.txt", "");
+        gitlet.save();
+        long second = journal.length();
+        assertTrue(second > first);
+        assertAreas(java.util.Map.of("b.txt", b), java.util.Map.of("c.txt",
+            ""), Gitlet.loadGitlet());
+
+        byte[] whole = Files.readAllBytes(journal.toPath());
+        Files.write(journal.toPath(), java.util.Arrays.copyOf(whole,
+            whole.length - 3));
+        assertAreas(java.util.Map.of("a.txt", a, "b.txt", b),
+            java.util.Map.of(), Gitlet.loadGitlet());
+        byte[] flipped = whole.clone();
+        flipped[(int) first + 6] ^= 1;
+        Files.write(journal.toPath(), flipped);
+        gitlet = Gitlet.loadGitlet();
+        assertAreas(java.util.Map.of("a.txt", a, "b.txt", b),
+            java.util.Map.of(), gitlet);
+
+        gitlet.getStagingArea().stage("d.txt", a);
+        gitlet.save();
+        byte[] rewritten = Files.readAllBytes(journal.toPath());
+        assertArrayEquals(java.util.Arrays.copyOf(whole, (int) first),
+            java.util.Arrays.copyOf(rewritten, (int) first));
+        assertAreas(java.util.Map.of("a.txt", a, "b.txt", b, "d.txt", a),
+            java.util.Map.of(), Gitlet.loadGitlet());
+
+        long valid = journal.length();
+        Files.write(journal.toPath(), new byte[16],
+            java.nio.file.StandardOpenOption.APPEND);
+        assertAreas(java.util.Map.of("a.txt", a, "b.txt", b, "d.txt", a),
+            java.util.Map.of(), Gitlet.loadGitlet());
+        java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+        crc.update(5);
+        byte[] undecodable = java.nio.ByteBuffer.allocate(9).putInt(1)
+            .put((byte) 5).putInt((int) crc.getValue()).array();
+        Files.write(journal.toPath(), java.util.Arrays.copyOf(
+            Files.readAllBytes(journal.toPath()), (int) valid));
+        Files.write(journal.toPath(), undecodable,
+            java.nio.file.StandardOpenOption.APPEND);
+        gitlet = Gitlet.loadGitlet();
+        assertAreas(java.util.Map.of("a.txt", a, "b.txt", b, "d.txt", a),
+            java.util.Map.of(), gitlet);
+        gitlet.getStagingArea().unstage("d.txt");
+        gitlet.save();
+        assertAreas(java.util.Map.of("a.txt", a, "b.txt", b),
+            java.util.Map.of(), Gitlet.loadGitlet());
+
+        File snapshot = new File(dir, Gitlet.ABS_GITLET_OBJECT_FILENAME);
+        gitlet = Gitlet.loadGitlet();
+        gitlet.getStagingArea().clear();
+        gitlet.getStagingArea().stage("e.txt", b);
+        Files.write(snapshot.toPath(), gitlet.encode());
+        assertAreas(java.util.Map.of("e.txt", b), java.util.Map.of(),
+            Gitlet.loadGitlet());
+    }
+
+    /**
+     * assert that the staging and removing areas of GITLET are STAGED
+     * and REMOVED.
+     * @param staged expected staging area
+     * @param removed expected removing area
+     * @param gitlet gitlet object
+     */
+    private static void assertAreas(java.util.Map<String, String> staged,
+        java.util.Map<String, String> removed, Gitlet gitlet) {
+        assertEquals(staged, gitlet.getStagingArea().getFiles());
+        assertEquals(removed, gitlet.getRemovingArea().getFiles());
+    }
+
+    /**
+     * a Transaction creates, moves and deletes branches and moves HEAD;
+     * packed refs read the same as loose ones, which override them.
+     * @throws IOException
+     */
+    @Test
+    public void refsTest() throws IOException {
+        File dir = scratch();
+        String one = Utils.sha1("one");
+        String two = Utils.sha1("two");
+        Refs.Transaction refs = new Refs.Transaction();
+        refs.update("master", null, one);
+        refs.update("topic/x", null, one);
+        refs.setHead("master");
+        refs.commit();
+        assertEquals(one, Refs.read("topic/x"));
+        assertEquals("master", Refs.head());
+        assertEquals(java.util.Map.of("master", one, "topic/x", one),
+            Refs.all());
+
+        Refs.pack();
+        File heads = new File(dir, Gitlet.GITLET_FOLDER + "/" + Refs.HEADS);
+        assertFalse(new File(heads, "master").exists());
+        assertEquals(one, Refs.read("master"));
+
+        refs = new Refs.Transaction();
+        refs.update("master", one, two);
+        refs.delete("topic/x");
+        refs.commit();
+        assertEquals(java.util.Map.of("master", two), Refs.all());
+        assertNull(Refs.read("topic/x"));
+        assertNull(Refs.read("../HEAD"));
+        assertThrows(() -> new Refs.Transaction().update("a b", null, one));
+    }
+
+    /**
+     * branches whose refs would be a file and a folder of the same name
+     * clash and are refused; once one is deleted the other is allowed.
+     * @throws IOException
+     */
+    @Test
+    public void refsClashTest() throws IOException {
+        File dir = scratch();
+        String one = Utils.sha1("one");
+        Refs.Transaction refs = new Refs.Transaction();
+        refs.update("topic", null, one);
+        refs.update("a/b/c", null, one);
+        refs.commit();
+        assertEquals("topic", Refs.clash("topic/x"));
+        assertEquals("a/b/c", Refs.clash("a"));
+        assertEquals("a/b/c", Refs.clash("a/b"));
+        assertNull(Refs.clash("a/c"));
+        assertNull(Refs.clash("topics"));
+
+        Refs.Transaction clashing = new Refs.Transaction();
+        clashing.update("topic/x", null, one);
+        assertThrows(clashing::commit);
+        Refs.Transaction both = new Refs.Transaction();
+        both.update("x", null, one);
+        both.update("x/y", null, one);
+        assertThrows(both::commit);
+        assertEquals(java.util.Map.of("topic", one, "a/b/c", one),
+            Refs.all());
+
+        Refs.pack();
+        assertEquals("a/b/c", Refs.clash("a"));
+        refs = new Refs.Transaction();
+        refs.delete("a/b/c");
+        refs.update("b/c", null, one);
+        refs.commit();
+        assertNull(Refs.clash("a"));
+        refs = new Refs.Transaction();
+        refs.delete("b/c");
+        refs.commit();
+        File heads = new File(dir, Gitlet.GITLET_FOLDER + "/" + Refs.HEADS);
+        assertFalse(new File(heads, "b").exists());
+        refs = new Refs.Transaction();
+        refs.update("b", null, one);
+        refs.commit();
+        assertEquals(one, Refs.read("b"));
+    }
+
+    /**
+     * a Transaction whose branch has moved, or whose lock is held by
+     * another command, changes no ref and leaves no lock of its own,
+     * nor does one whose rename fails.
+     * @throws IOException
+     */
+    @Test
+    public void refsConflictTest() throws IOException {
+        File dir = scratch();
+        String one = Utils.sha1("one");
+        String two = Utils.sha1("two");
+        Refs.Transaction refs = new Refs.Transaction();
+        refs.update("a", null, one);
+        refs.update("b", null, one);
+        refs.setHead("a");
+        refs.commit();
+
+        Refs.Transaction moved = new Refs.Transaction();
+        moved.update("a", two, two);
+        moved.update("b", one, two);
+        moved.setHead("b");
+        assertThrows(moved::commit);
+        assertEquals(java.util.Map.of("a", one, "b", one), Refs.all());
+        assertEquals("a", Refs.head());
+
+        File heads = new File(dir, Gitlet.GITLET_FOLDER + "/" + Refs.HEADS);
+        File held = new File(heads, "b" + Refs.LOCK);
+        assertTrue(held.createNewFile());
+        Refs.Transaction locked = new Refs.Transaction();
+        locked.update("a", one, two);
+        locked.update("b", one, two);
+        assertThrows(locked::commit);
+        assertEquals(java.util.Map.of("a", one, "b", one), Refs.all());
+        assertTrue(held.exists());
+        assertFalse(new File(heads, "a" + Refs.LOCK).exists());
+
+        held.delete();
+        locked.commit();
+        assertEquals(java.util.Map.of("a", two, "b", two), Refs.all());
+
+        assertTrue(new File(heads, "c/d").mkdirs());
+        Refs.Transaction blocked = new Refs.Transaction();
+        blocked.update("c", null, one);
+        try {
+            blocked.commit();
+            fail("renamed a ref over a folder");
+        } catch (IllegalArgumentException excp) {
+            assertFalse(new File(heads, "c" + Refs.LOCK).exists());
+        }
+    }
+
+    /**
+     * recover() puts the files of an update a command did not save back
+     * as they were, or finishes it if the head moved, and drops a
+     * record it cannot read.
+     * @throws IOException
+     */
+    @Test
+    public void materializerRecoverTest() throws IOException {
+        File dir = scratch();
+        File record = new File(dir, Gitlet.GITLET_FOLDER + "/"
+            + Materializer.FILENAME);
+        byte[] one = "one\n".getBytes(StandardCharsets.UTF_8);
+        byte[] two = "two\n".getBytes(StandardCharsets.UTF_8);
+        String v1 = Utils.sha1(one);
+        String v2 = Utils.sha1(two);
+        ObjectStore.store(Gitlet.ABS_BLOB_FOLDER, v1, one);
+        ObjectStore.store(Gitlet.ABS_BLOB_FOLDER, v2, two);
+        Durability.commit();
+        String from = Utils.sha1("from");
+        String to = Utils.sha1("to");
+        Codec.Output out = new Codec.Output(Codec.CHECKOUT);
+        out.writeId(from);
+        out.writeId(to);
+        out.writeVarint(3);
+        out.writeKey("", "a.txt");
+        out.writeVarint(1);
+        out.writeId(v1);
+        out.writeVarint(1);
+        out.writeId(v2);
+        out.writeKey("a.txt", "b.txt");
+        out.writeVarint(1);
+        out.writeId(v1);
+        out.writeVarint(0);
+        out.writeKey("b.txt", "d/c.txt");
+        out.writeVarint(0);
+        out.writeVarint(1);
+        out.writeId(v2);
+        byte[] bytes = out.toByteArray();
+        File a = new File(dir, "a.txt");
+        File b = new File(dir, "b.txt");
+        File c = new File(dir, "d/c.txt");
+
+        Files.write(record.toPath(), bytes);
+        Files.write(a.toPath(), two);
+        Materializer.recover(from);
+        assertFalse(record.exists());
+        assertArrayEquals(one, Files.readAllBytes(a.toPath()));
+        assertArrayEquals(one, Files.readAllBytes(b.toPath()));
+        assertFalse(c.exists());
+
+        Files.write(record.toPath(), bytes);
+        Materializer.recover(to);
+        assertFalse(record.exists());
+        assertArrayEquals(two, Files.readAllBytes(a.toPath()));
+        assertFalse(b.exists());
+        assertArrayEquals(two, Files.readAllBytes(c.toPath()));
+
+        Files.write(record.toPath(), java.util.Arrays.copyOf(bytes,
+            bytes.length - 4));
+        Materializer.recover(from);
+        assertFalse(record.exists());
+        assertArrayEquals(two, Files.readAllBytes(a.toPath()));
+        assertFalse(b.exists());
+    }
+
+    /**
+     * objects of the flat layout are moved to their fan-out folders as
+     * they are listed or looked up, and read the same afterwards.
+     * @throws IOException
+     */
+    @Test
+    public void fanoutMigrationTest() throws IOException {
+        File dir = scratch();
+        String folder = Gitlet.ABS_BLOB_FOLDER;
+        File blobs = new File(dir, folder);
+        java.util.TreeMap<String, byte[]> objects = new java.util.TreeMap<>();
+        for (int i = 0; i < 20; i += 1) {
+            byte[] bytes = ("flat " + i).getBytes(StandardCharsets.UTF_8);
+            objects.put(Utils.sha1(bytes), bytes);
+            ObjectStore.store(folder, Utils.sha1(bytes), bytes);
+        }
+        Durability.commit();
+        String looked = objects.firstKey();
+        String duplicate = objects.lastKey();
+        for (String id : objects.keySet()) {
+            File file = ObjectStore.objectFile(folder, id);
+            Files.copy(file.toPath(), new File(blobs, id).toPath());
+            if (!id.equals(duplicate)) {
+                file.delete();
+                file.getParentFile().delete();
+            }
+        }
+
+        assertTrue(ObjectStore.contains(folder, looked));
+        assertFalse(new File(blobs, looked).exists());
+        assertEquals(new java.util.ArrayList<>(objects.keySet()),
+            ObjectStore.ids(folder));
+        for (String name : blobs.list()) {
+            assertEquals(2, name.length());
+        }
+        for (java.util.Map.Entry<String, byte[]> object
+                 : objects.entrySet()) {
+            assertTrue(ObjectStore.containsLoose(folder, object.getKey()));
+            assertArrayEquals(object.getValue(),
+                ObjectStore.read(folder, object.getKey()));
+        }
+        assertEquals(java.util.List.of(looked),
+            ObjectStore.ids(folder, looked.substring(0, 5)));
+    }
+
+    /**
+     * StatCache: an entry saved within RACY_WINDOW of its file's mtime is
+     * hashed again on the next lookup, while an older one is trusted.
+     * @throws IOException
+     */
+    @Test
+    public void statCacheRacyTest() throws IOException {
+        File dir = scratch();
+        StatCache.reload();
+        File file = new File(dir, "a.txt");
+        Files.write(file.toPath(), "same".getBytes(StandardCharsets.UTF_8));
+        String id = ObjectStore.hash(file);
+        String stale = Utils.sha1("stale");
+
+        StatCache.record(file, stale);
+        assertTrue(StatCache.save());
+        StatCache.reload();
+        assertNull(StatCache.cached("a.txt"));
+        assertEquals(id, StatCache.find(file));
+
+        assertTrue(file.setLastModified(System.currentTimeMillis()
+            - 2 * StatCache.RACY_WINDOW / 1_000_000L));
+        StatCache.record(file, stale);
+        assertTrue(StatCache.save());
+        StatCache.reload();
+        assertEquals(stale, StatCache.cached("a.txt"));
+        assertEquals(stale, StatCache.find(file));
+    }
+
+    /**
+     * StatCache: a file rewritten with the same size and mtime is hashed
+     * again, since its ctime changed.
+     * @throws IOException
+     */
+    @Test
+    public void statCacheRewriteTest() throws IOException {
+        File dir = scratch();
+        StatCache.reload();
+        File file = new File(dir, "a.txt");
+        Files.write(file.toPath(), "before".getBytes(StandardCharsets.UTF_8));
+        long mtime = System.currentTimeMillis()
+            - 2 * StatCache.RACY_WINDOW / 1_000_000L;
+        assertTrue(file.setLastModified(mtime));
+        assertEquals(ObjectStore.hash(file), StatCache.find(file));
+        assertTrue(StatCache.save());
+        StatCache.reload();
+
+        pause();
+        Files.write(file.toPath(), "after!".getBytes(StandardCharsets.UTF_8));
+        assertTrue(file.setLastModified(mtime));
+        String id = ObjectStore.hash(file);
+        assertEquals(id, StatCache.find(file));
+        assertTrue(StatCache.save());
+        StatCache.reload();
+        assertEquals(id, StatCache.cached("a.txt"));
+    }
+
+    /**
+     * StatCache: an index that cannot be read is ignored, and replaced by
+     * a good one when the cache is next saved.
+     * @throws IOException
+     */
+    @Test
+    public void statCacheUnreadableTest() throws IOException {
+        File dir = scratch();
+        File index = new File(dir,
+            Gitlet.GITLET_FOLDER + "/" + StatCache.FILENAME);
+        File file = new File(dir, "a.txt");
+        Files.write(file.toPath(), "a".getBytes(StandardCharsets.UTF_8));
+        assertTrue(file.setLastModified(System.currentTimeMillis()
+            - 2 * StatCache.RACY_WINDOW / 1_000_000L));
+        String id = ObjectStore.hash(file);
+
+        Codec.Output truncated = new Codec.Output(Codec.INDEX);
+        truncated.writeVarint(3);
+        truncated.writeKey("", "a.txt");
+        for (byte[] bad : new byte[][] {
+                 "not an index".getBytes(StandardCharsets.UTF_8),
+                 new Codec.Output(Codec.UNTRACKED).toByteArray(),
+                 truncated.toByteArray()}) {
+            Files.write(index.toPath(), bad);
+            StatCache.reload();
+            assertNull(StatCache.cached("a.txt"));
+            assertEquals(id, StatCache.find(file));
+            assertTrue(StatCache.save());
+            StatCache.reload();
+            assertEquals(id, StatCache.cached("a.txt"));
+        }
+    }
+
+    /**
+     * UntrackedCache: a saved list is used while the working directory's
+     * stat data and the head's Tree are unchanged, and not once either
+     * changes or if it was saved racily.
+     * @throws IOException
+     */
+    @Test
+    public void untrackedCacheTest() throws IOException {
+        File dir = scratch();
+        Files.write(new File(dir, "a.txt").toPath(),
+            "a".getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(dir, "b.txt").toPath(),
+            "b".getBytes(StandardCharsets.UTF_8));
+        java.sql.Timestamp time = new java.sql.Timestamp(0);
+        Gitlet.Commit head = Gitlet.Commit.restore("head", time,
+            java.util.List.of(), java.util.Map.of("a.txt", Utils.sha1("a")));
+        Gitlet.Commit other = Gitlet.Commit.restore("other", time,
+            java.util.List.of(), java.util.Map.of());
+        String key = head.getTreeHash();
+        java.util.List<String> cached = java.util.List.of("cached.txt");
+
+        writeUntracked(dir, key, false, cached);
+        assertEquals(cached, UntrackedCache.candidates(head));
+
+        writeUntracked(dir, key, false, cached);
+        assertEquals(java.util.List.of("a.txt", "b.txt"),
+            sorted(UntrackedCache.candidates(other)));
+        UntrackedCache.save();
+
+        writeUntracked(dir, key, true, cached);
+        assertEquals(java.util.List.of("b.txt"),
+            UntrackedCache.candidates(head));
+        UntrackedCache.save();
+
+        writeUntracked(dir, key, false, cached);
+        pause();
+        Files.setPosixFilePermissions(dir.toPath(),
+            Files.getPosixFilePermissions(dir.toPath()));
+        assertEquals(java.util.List.of("b.txt"),
+            UntrackedCache.candidates(head));
+        UntrackedCache.save();
+
+        writeUntracked(dir, key, false, cached);
+        pause();
+        Files.write(new File(dir, "c.txt").toPath(),
+            "c".getBytes(StandardCharsets.UTF_8));
+        assertEquals(java.util.List.of("b.txt", "c.txt"),
+            sorted(UntrackedCache.candidates(head)));
+        UntrackedCache.save();
+
+        Codec.Input in = new Codec.Input(Utils.readContents(new File(dir,
+            Gitlet.GITLET_FOLDER + "/" + UntrackedCache.FILENAME)));
+        assertEquals(Codec.UNTRACKED, in.readHeader());
+        assertEquals(key, in.readId());
+        assertEquals(1, in.readByte());
+    }
+
+    /**
+     * write .gitlet/untracked in DIR as UntrackedCache would for the
+     * directory's current stat data.
+     * @param dir working directory
+     * @param key head Tree id
+     * @param racy whether the save was racy
+     * @param names untracked files
+     * @throws IOException
+     */
+    private static void writeUntracked(File dir, String key, boolean racy,
+        java.util.List<String> names) throws IOException {
+        java.util.Map<String, Object> attrs = Files.readAttributes(
+            dir.toPath(), "unix:lastModifiedTime,ctime,ino");
+        Codec.Output out = new Codec.Output(Codec.UNTRACKED);
+        out.writeId(key);
+        out.write(racy ? 1 : 0);
+        out.writeSignedVarint(nanos((java.nio.file.attribute.FileTime)
+            attrs.get("lastModifiedTime")));
+        out.writeSignedVarint(nanos((java.nio.file.attribute.FileTime)
+            attrs.get("ctime")));
+        out.writeVarint((Long) attrs.get("ino"));
+        out.writeVarint(names.size());
+        String previous = "";
+        for (String name : names) {
+            out.writeKey(previous, name);
+            previous = name;
+        }
+        Files.write(new File(dir, Gitlet.GITLET_FOLDER + "/"
+            + UntrackedCache.FILENAME).toPath(), out.toByteArray());
+    }
+
+    /**
+     * TIME in nanoseconds since the epoch.
+     * @param time file time
+     * @return nanoseconds
+     */
+    private static long nanos(java.nio.file.attribute.FileTime time) {
+        java.time.Instant instant = time.toInstant();
+        return instant.getEpochSecond() * 1_000_000_000L
+            + instant.getNano();
+    }
+
+    /**
+     * NAMES, sorted.
+     * @param names strings
+     * @return a sorted copy
+     */
+    private static java.util.List<String> sorted(
+        java.util.List<String> names) {
+        java.util.ArrayList<String> copy = new java.util.ArrayList<>(names);
+        java.util.Collections.sort(copy);
+        return copy;
+    }
+
+    /**
+     * wait long enough for a file's timestamps to change when it is
+     * next changed.
+     */
+    private static void pause() {
+        try {
+            Thread.sleep(20);
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * a new empty repository in a temporary directory, made the working
+     * directory.
+     * @return the directory
+     * @throws IOException
+     */
+    private static File scratch() throws IOException {
+        File dir = Files.createTempDirectory("gitlet-unit").toFile();
+        for (String folder : new String[] {Gitlet.ABS_BLOB_FOLDER,
+                 Gitlet.ABS_COMMIT_FOLDER, Gitlet.ABS_CHUNK_FOLDER,
+                 Gitlet.ABS_TREE_FOLDER}) {
+            new File(dir, folder).mkdirs();
+        }
+        System.setProperty("user.dir", dir.getPath());
+        return dir;
+    }
+
+    /**
+     * check that RUN throws a GitletException.
+     * @param run code to run
+     */
+    private static void assertThrows(Runnable run) {
+        try {
+            run.run();
+        } catch (GitletException excp) {
+            return;
+        }
+        fail("expected a GitletException");
+    }
 }
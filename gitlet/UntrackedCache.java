@@ -0,0 +1,228 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The plain files of the working directory that the head commit does not
+ * track, remembered in .gitlet/untracked with the stat data of the
+ * working directory and the id of the head's root Tree.
+ *
+ * Creating, deleting or renaming an entry of a directory updates its
+ * mtime and ctime, and changing the contents of a file does not, so as
+ * long as neither the directory's stat data nor the head's Tree has
+ * changed, the list is still right and the directory is neither read
+ * nor are its entries stat'ed. As in StatCache, a list saved less than
+ * RACY_WINDOW after the directory last changed is not trusted, since the
+ * directory could change again without its mtime changing.
+ *
+ * Only the top-level directory is listed for untracked files, so that
+ * is the one directory cached. The "untrackedCache" setting turns the
+ * cache off.
+ *
+ * @author Solomon Cheung
+ */
+class UntrackedCache {
+
+    /** cache file name in .gitlet. */
+    static final String FILENAME = "untracked";
+
+    /** the list this command computed, to be saved; null if none. */
+    private static Snapshot _computed;
+
+    /**
+     * the plain files of the working directory, other than .gitlet, that
+     * HEAD does not track, sorted.
+     * @param head head commit
+     * @return file names
+     */
+    static List<String> candidates(Gitlet.Commit head) {
+        String key = head.storedTreeHash();
+        if (key == null) {
+            key = head.getID();
+        }
+        Snapshot now = stat();
+        boolean enabled = Config.getBoolean("untrackedCache", true);
+        if (enabled && now != null) {
+            if (_computed != null && _computed.matches(key, now)) {
+                return _computed._names;
+            }
+            Snapshot saved = read();
+            if (saved != null && !saved._racy && saved.matches(key, now)) {
+                return saved._names;
+            }
+        }
+        ArrayList<String> names = new ArrayList<>();
+        for (String name : WorkTree.names()) {
+            if (!head.isTracked(name) && WorkTree.isFile(name)) {
+                names.add(name);
+            }
+        }
+        if (enabled && now != null) {
+            now._key = key;
+            now._names = names;
+            _computed = now;
+        }
+        return names;
+    }
+
+    /**
+     * write the list computed by this command, marked racy if the
+     * working directory changed within RACY_WINDOW.
+     */
+    static void save() {
+        if (_computed == null) {
+            return;
+        }
+        File target = cacheFile();
+        if (!target.getParentFile().isDirectory()) {
+            return;
+        }
+        long racyAfter = System.currentTimeMillis() * 1_000_000L
+            - StatCache.RACY_WINDOW;
+        Codec.Output out = new Codec.Output(Codec.UNTRACKED);
+        out.writeId(_computed._key);
+        out.write(_computed._mtime >= racyAfter
+            || _computed._ctime >= racyAfter ? 1 : 0);
+        out.writeSignedVarint(_computed._mtime);
+        out.writeSignedVarint(_computed._ctime);
+        out.writeVarint(_computed._inode);
+        out.writeVarint(_computed._names.size());
+        String previous = "";
+        for (String name : _computed._names) {
+            out.writeKey(previous, name);
+            previous = name;
+        }
+        File tmp = new File(target.getPath() + ".tmp");
+        try {
+            Files.write(tmp.toPath(), out.toByteArray());
+        } catch (IOException excp) {
+            tmp.delete();
+            return;
+        }
+        Durability.replace(tmp, target);
+        _computed = null;
+    }
+
+    /**
+     * the saved list.
+     * @return saved snapshot, or null if there is none that can be read
+     */
+    private static Snapshot read() {
+        File file = cacheFile();
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            Codec.Input in = new Codec.Input(Utils.readContents(file));
+            if (in.readHeader() != Codec.UNTRACKED) {
+                return null;
+            }
+            Snapshot saved = new Snapshot();
+            saved._key = in.readId();
+            saved._racy = in.readByte() != 0;
+            saved._mtime = in.readSignedVarint();
+            saved._ctime = in.readSignedVarint();
+            saved._inode = in.readVarint();
+            int n = in.readCount();
+            saved._names = new ArrayList<>(n);
+            String previous = "";
+            for (int i = 0; i < n; i += 1) {
+                previous = in.readKey(previous);
+                saved._names.add(previous);
+            }
+            return saved;
+        } catch (GitletException | IllegalArgumentException excp) {
+            return null;
+        }
+    }
+
+    /**
+     * the stat data of the working directory.
+     * @return a snapshot without a key or names, or null if it cannot be
+     *         read
+     */
+    private static Snapshot stat() {
+        Path dir = new File(System.getProperty("user.dir")).toPath();
+        Snapshot now = new Snapshot();
+        try {
+            try {
+                Map<String, Object> attrs = Files.readAttributes(dir,
+                    "unix:lastModifiedTime,ctime,ino",
+                    LinkOption.NOFOLLOW_LINKS);
+                now._mtime = nanos((FileTime) attrs.get("lastModifiedTime"));
+                now._ctime = nanos((FileTime) attrs.get("ctime"));
+                now._inode = (Long) attrs.get("ino");
+            } catch (UnsupportedOperationException
+                     | IllegalArgumentException excp) {
+                BasicFileAttributes attrs = Files.readAttributes(dir,
+                    BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                now._mtime = nanos(attrs.lastModifiedTime());
+                now._ctime = now._mtime;
+                now._inode = attrs.fileKey() == null ? 0
+                    : attrs.fileKey().hashCode() & 0xffffffffL;
+            }
+            return now;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /**
+     * TIME in nanoseconds since the epoch.
+     * @param time file time
+     * @return nanoseconds
+     */
+    private static long nanos(FileTime time) {
+        java.time.Instant instant = time.toInstant();
+        return instant.getEpochSecond() * 1_000_000_000L
+            + instant.getNano();
+    }
+
+    /**
+     * the cache file.
+     * @return .gitlet/untracked
+     */
+    private static File cacheFile() {
+        return new File(System.getProperty("user.dir"),
+            Gitlet.GITLET_FOLDER + "/" + FILENAME);
+    }
+
+    /**
+     * the untracked files of the working directory at some stat data of
+     * it and some head Tree.
+     */
+    private static class Snapshot {
+        /** head Tree id (or commit id, for a commit without one). */
+        private String _key;
+        /** whether the directory changed too recently to be trusted. */
+        private boolean _racy;
+        /** modification time of the directory, in nanoseconds. */
+        private long _mtime;
+        /** status change time of the directory, in nanoseconds. */
+        private long _ctime;
+        /** inode number of the directory, or 0 if unknown. */
+        private long _inode;
+        /** untracked plain files, sorted. */
+        private List<String> _names;
+
+        /**
+         * is this the snapshot for KEY with the stat data of NOW?
+         * @param key head Tree id
+         * @param now current stat data
+         * @return true if so
+         */
+        boolean matches(String key, Snapshot now) {
+            return _key.equals(key) && _mtime == now._mtime
+                && _ctime == now._ctime && _inode == now._inode;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Scans and hashes the working directory for status, add and the checks
+ * of checkout, reset and merge.
+ *
+ * The top-level directory is read in one pass of a DirectoryStream, and
+ * the attributes of an entry are read only when the caller cannot tell
+ * from its name alone whether it matters (a tracked name is never
+ * untracked, so it needs no stat). Working files whose blob ids are
+ * needed are looked up through StatCache on a ForkJoinPool of at most
+ * "threads" workers, each hashing a batch of files; ids are returned in
+ * the order of the names given, so results do not depend on the order
+ * in which workers finish.
+ *
+ * When a Monitor is running, files it reports unchanged are looked up
+ * in StatCache without a stat and the directory is not listed at all.
+ *
+ * @author Solomon Cheung
+ */
+class WorkTree {
+
+    /** files a worker looks up without splitting its batch further;
+     *  fewer files than this are looked up on the calling thread. */
+    static final int BATCH = 32;
+
+    /** the pool last used; null until the first parallel hash. */
+    private static ForkJoinPool _pool;
+
+    /**
+     * the names in the working directory, sorted, without .gitlet, from
+     * the Monitor if it knows them. Entries are not stat'ed; see
+     * isFile().
+     * @return entry names
+     */
+    static List<String> names() {
+        Monitor.Changes changes = Monitor.changes();
+        if (changes != null && changes.names() != null) {
+            return changes.names();
+        }
+        ArrayList<String> names = new ArrayList<>();
+        Path dir = new File(System.getProperty("user.dir")).toPath();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (!name.equals(Gitlet.GITLET_FOLDER)) {
+                    names.add(name);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Collections.sort(names);
+        Monitor.listed(names);
+        return names;
+    }
+
+    /**
+     * is NAME a plain file of the working directory, as
+     * Utils#plainFilenamesIn would list it?
+     * @param name path relative to the working directory
+     * @return true if so
+     */
+    static boolean isFile(String name) {
+        return new File(System.getProperty("user.dir"), name).isFile();
+    }
+
+    /**
+     * the plain files of the working directory that PATHSPEC names: the
+     * file itself, the files directly in it if it is a directory, or, if
+     * it has a glob character, the files directly in the directory
+     * before the glob whose paths match it as a java.nio glob. Nothing
+     * outside the working directory or in .gitlet is matched. Names in
+     * a subdirectory have a "/"; see Command.Add.
+     * @param pathspec path or glob relative to the working directory
+     * @return paths relative to the working directory, "/"-separated
+     *         and sorted; empty if PATHSPEC names no file
+     */
+    static List<String> match(String pathspec) {
+        Path root = new File(System.getProperty("user.dir")).toPath();
+        ArrayList<String> names = new ArrayList<>();
+        int glob = firstGlob(pathspec);
+        String literal = glob < 0 ? pathspec
+            : pathspec.substring(0, pathspec.lastIndexOf('/', glob) + 1);
+        Path start = root.resolve(literal).normalize();
+        if (!start.startsWith(root) || ignored(root.relativize(start))) {
+            return names;
+        }
+        PathMatcher matcher = glob < 0 ? null : root.getFileSystem()
+            .getPathMatcher("glob:" + root.relativize(
+                root.resolve(pathspec).normalize()));
+        if (Files.isRegularFile(start)) {
+            names.add(name(root, start));
+        } else if (Files.isDirectory(start)) {
+            try (Stream<Path> files = Files.walk(start, 1)) {
+                files.filter(Files::isRegularFile).forEach(path -> {
+                    Path relative = root.relativize(path);
+                    if (!ignored(relative)
+                        && (matcher == null || matcher.matches(relative))) {
+                        names.add(name(root, path));
+                    }
+                });
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            Collections.sort(names);
+        }
+        return names;
+    }
+
+    /**
+     * where the first glob character of PATHSPEC is.
+     * @param pathspec path or glob
+     * @return index of the first of "*?[{", or -1 if there is none
+     */
+    private static int firstGlob(String pathspec) {
+        for (int i = 0; i < pathspec.length(); i += 1) {
+            if ("*?[{".indexOf(pathspec.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * is RELATIVE, a path in the working directory, .gitlet or in it?
+     * @param relative path relative to the working directory
+     * @return true if so
+     */
+    private static boolean ignored(Path relative) {
+        return relative.getNameCount() > 0
+            && relative.getName(0).toString().equals(Gitlet.GITLET_FOLDER);
+    }
+
+    /**
+     * the name of the file PATH of the working directory ROOT.
+     * @param root working directory
+     * @param path file in it
+     * @return "/"-separated relative path
+     */
+    private static String name(Path root, Path path) {
+        return root.relativize(path).toString()
+            .replace(File.separatorChar, '/');
+    }
+
+    /**
+     * store the working files NAMES as blobs with the ids IDS, those not
+     * already stored, in parallel. A file that changed since it was
+     * hashed is stored as it is now, and its id in IDS replaced. The
+     * settings that storing reads are read first, on this thread.
+     * @param names paths relative to the working directory
+     * @param ids their blob ids, at the same indexes; updated
+     */
+    static void store(List<String> names, List<String> ids) {
+        ObjectStore.compressionLevel();
+        ObjectStore.chunkThreshold();
+        ObjectStore.checkoutMode();
+        File dir = new File(System.getProperty("user.dir"));
+        forEach(names.size(), i -> ids.set(i, ObjectStore.store(
+            Gitlet.ABS_BLOB_FOLDER, ids.get(i), new File(dir, names.get(i)))));
+    }
+
+    /**
+     * the blob ids of the working files NAMES, hashing only those
+     * StatCache does not trust, in parallel.
+     * @param names paths relative to the working directory
+     * @return the id of each name, at its index; null where there is no
+     *         such file
+     * @throws IllegalArgumentException a file cannot be read.
+     */
+    static String[] hash(List<String> names) {
+        String[] ids = new String[names.size()];
+        Monitor.Changes changes = Monitor.changes();
+        ArrayList<Integer> misses = new ArrayList<>();
+        for (int i = 0; i < ids.length; i += 1) {
+            if (changes != null && changes.known()
+                && !changes.changed(names.get(i))) {
+                ids[i] = StatCache.cached(names.get(i));
+            }
+            if (ids[i] == null) {
+                misses.add(i);
+            }
+        }
+        File[] files = new File[misses.size()];
+        for (int k = 0; k < files.length; k += 1) {
+            files[k] = new File(System.getProperty("user.dir"),
+                names.get(misses.get(k)));
+        }
+        String[] found = new String[files.length];
+        forEach(files.length, k -> found[k] = StatCache.find(files[k]));
+        for (int k = 0; k < found.length; k += 1) {
+            ids[misses.get(k)] = found[k];
+        }
+        return ids;
+    }
+
+    /**
+     * the number of workers, from the "threads" setting.
+     * @return at least 1; the number of processors by default
+     */
+    static int threads() {
+        return Math.max(1, Config.getInt("threads",
+            Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * a pool of THREADS workers, kept for later calls with the same
+     * number. Its threads are daemons, so it need not be shut down.
+     * @param threads number of workers
+     * @return pool
+     */
+    private static synchronized ForkJoinPool pool(int threads) {
+        if (_pool == null || _pool.getParallelism() != threads) {
+            if (_pool != null) {
+                _pool.shutdown();
+            }
+            _pool = new ForkJoinPool(threads);
+        }
+        return _pool;
+    }
+
+    /**
+     * run ACTION on each index in [0, N), in batches of at most BATCH on
+     * the pool, or all on the calling thread if N is small or there is a
+     * single worker.
+     * @param n number of indexes
+     * @param action what to do with an index
+     */
+    private static void forEach(int n, IntConsumer action) {
+        int threads = threads();
+        if (n <= BATCH || threads <= 1) {
+            new Batch(action, 0, n).compute();
+        } else {
+            pool(threads).invoke(new Batch(action, 0, n));
+        }
+    }
+
+    /**
+     * runs an action on a range of indexes, splitting it in halves until
+     * it is at most BATCH indexes.
+     */
+    private static class Batch extends RecursiveAction {
+
+        /** what to do with each index. */
+        private final IntConsumer _action;
+
+        /** first index of the range. */
+        private final int _lo;
+
+        /** index past the range. */
+        private final int _hi;
+
+        /**
+         * a task running ACTION on [LO, HI).
+         * @param action what to do with an index
+         * @param lo first index
+         * @param hi index past the range
+         */
+        Batch(IntConsumer action, int lo, int hi) {
+            _action = action;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo <= BATCH) {
+                for (int i = _lo; i < _hi; i += 1) {
+                    _action.accept(i);
+                }
+                return;
+            }
+            int mid = (_lo + _hi) >>> 1;
+            invokeAll(new Batch(_action, _lo, mid),
+                new Batch(_action, mid, _hi));
+        }
+    }
+}